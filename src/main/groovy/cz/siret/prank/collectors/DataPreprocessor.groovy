@@ -17,9 +17,15 @@ import static cz.siret.prank.utils.WekaUtils.isPositiveInstance
 @CompileStatic
 class DataPreprocessor implements Parametrized, Writable {
 
+    /**
+     * Size reduction and subsampling were already applied to points before extraction (see TrainingPointSampler),
+     * only supersampling and class weights are handled here.
+     */
+    boolean sampledBeforeExtraction = false
+
     Instances preProcessTrainData(Instances data) {
         double removePercentage = 0
-        int reduceToSubsetSize = params.max_train_instances
+        int reduceToSubsetSize = sampledBeforeExtraction ? 0 : params.max_train_instances
 
         // reduce size
         if (reduceToSubsetSize>0 && data.size() > reduceToSubsetSize) {
@@ -32,7 +38,7 @@ class DataPreprocessor implements Parametrized, Writable {
             log.info "instances left: " + data.size()
         }
 
-        if (params.supersample || params.subsample) {
+        if (params.supersample || (params.subsample && !sampledBeforeExtraction)) {
             data = handleClassImbalances(data)
         }
 
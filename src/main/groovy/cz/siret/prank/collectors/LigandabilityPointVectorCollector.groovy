@@ -2,6 +2,7 @@ package cz.siret.prank.collectors
 
 import cz.siret.prank.domain.Pocket
 import cz.siret.prank.domain.PredictionPair
+import cz.siret.prank.domain.Protein
 import cz.siret.prank.features.FeatureExtractor
 import cz.siret.prank.features.FeatureVector
 import cz.siret.prank.features.PrankFeatureExtractor
@@ -169,7 +170,13 @@ class LigandabilityPointVectorCollector extends VectorCollector implements Param
             points = points.cutoutShell(ligandAtoms, params.train_lig_cutoff)
         }
 
-        Points selected = selectPoints(points, new PointClassifier() {
+        Points selected = selectPoints(points, wholeSurfaceClassifier(ligandAtoms))
+
+        return collectVectorsForPoints(selected, proteinExtractor)
+    }
+
+    private PointClassifier wholeSurfaceClassifier(Atoms ligandAtoms) {
+        return new PointClassifier() {
             @Override
             PointClass classify(Atom point) {
                 double closestLigandDistance = ligandAtoms.dist(point)
@@ -181,9 +188,66 @@ class LigandabilityPointVectorCollector extends VectorCollector implements Param
                     return PointClass.IGNORE
                 }
             }
-        })
+        }
+    }
 
-        return collectVectorsForPoints(selected, proteinExtractor)
+//===========================================================================================================//
+// sampling before extraction (see params.sample_before_extraction)
+
+    /**
+     * Labeling of points in the pocket mode depends on pocket extractors, so it is supported only for whole surface.
+     */
+    boolean supportsSamplingBeforeExtraction() {
+        return !params.sample_negatives_from_decoys
+    }
+
+    /**
+     * Labels SAS points of the whole protein surface without calculating feature vectors.
+     * Selects the same points as collectWholeSurface().
+     *
+     * @param calcNegativesProtrusion calculate protrusion of negative points (for subsampl_high_protrusion_negatives)
+     */
+    TrainingPoints labelPoints(PredictionPair pair, boolean calcNegativesProtrusion) {
+        Protein protein = pair.protein
+        Atoms ligandAtoms = getTrainingRelevantLigandAtoms(pair)
+
+        if (ligandAtoms.empty) {
+            log.error "Protein has no relevant ligands - all SAS points will be negative [{}]", protein.name
+        }
+
+        protein.calcuateSurfaceAndExposedAtoms()
+        SampledPoints points = SampledPoints.fromProtein(protein, true, params)
+        if (params.train_lig_cutoff > 0) {
+            points = points.cutoutShell(ligandAtoms, params.train_lig_cutoff)
+        }
+
+        Points selected = selectPoints(points, wholeSurfaceClassifier(ligandAtoms))
+
+        double[] protrusion = null
+        if (calcNegativesProtrusion) {
+            Atoms deepLayer = PrankFeatureExtractor.calcDeepLayer(protein, params)
+            protrusion = new double[selected.negatives.count]
+            int i = 0
+            for (Atom point : selected.negatives) {
+                protrusion[i++] = deepLayer.cutoutSphere(point, params.protrusion_radius).count
+            }
+        }
+
+        return new TrainingPoints(selected.positives, selected.negatives, protrusion)
+    }
+
+    /**
+     * Calculates feature vectors only for provided (previously labeled and sampled) points.
+     */
+    Result collectVectors(PredictionPair pair, ProcessedItemContext context, TrainingPoints points) {
+        FeatureExtractor proteinExtractorPrototype = extractorFactory.createPrototypeForProtein(pair.protein, context)
+
+        try {
+            FeatureExtractor proteinExtractor = (proteinExtractorPrototype as PrankFeatureExtractor).createInstanceForWholeProtein()
+            return collectVectorsForPoints(new Points(points.positives, points.negatives), proteinExtractor)
+        } finally {
+            proteinExtractorPrototype.finalizeProteinPrototype()
+        }
     }
 
     @CompileStatic(TypeCheckingMode.SKIP)
@@ -0,0 +1,195 @@
+package cz.siret.prank.collectors
+
+import cz.siret.prank.geom.Atoms
+import cz.siret.prank.program.params.Parametrized
+import cz.siret.prank.utils.Writable
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+import static cz.siret.prank.utils.Formatter.format
+
+/**
+ * Applies training set size limit (max_train_instances) and subsampling of the majority class
+ * (subsample, target_class_ratio, subsampl_high_protrusion_negatives) to labeled training points
+ * of the whole dataset before feature extraction.
+ *
+ * Counterpart of the corresponding steps in DataPreprocessor. Used when params.sample_before_extraction is on.
+ */
+@Slf4j
+@CompileStatic
+class TrainingPointSampler implements Parametrized, Writable {
+
+    /**
+     * Sort negatives by protrusion before subsampling (see DataPreprocessor).
+     * Should be set only if protrusion is part of the feature vector.
+     */
+    boolean sortNegativesByProtrusion = false
+
+    /**
+     * @param items labeled points of dataset items (in deterministic order)
+     * @return selected points for each item (in the same order)
+     */
+    List<TrainingPoints> sample(List<TrainingPoints> items) {
+        long[] positives = collectRefs(items, true)
+        long[] negatives = collectRefs(items, false)
+
+        int pc = positives.length
+        int nc = negatives.length
+        int keepPositives = pc
+        int keepNegatives = nc
+        boolean negativesOrdered = false
+
+        write "labeled points: positives: $pc, negatives: $nc"
+
+        // reduce size
+        int maxInstances = params.max_train_instances
+        if (maxInstances > 0 && pc + nc > maxInstances) {
+            double keepRatio = (double) maxInstances / (pc + nc)
+            write "reducing points to subset of size $maxInstances (keep ratio: ${fmt keepRatio})"
+            keepPositives = (int) Math.round(pc * keepRatio)
+            keepNegatives = (int) Math.round(nc * keepRatio)
+        }
+
+        // subsample (supersampling is done after extraction)
+        if (params.subsample && !params.supersample && keepNegatives > 0) {
+            double ratio = (double) keepPositives / keepNegatives
+            double targetRatio = params.target_class_ratio
+
+            write "positives/negatives  ratio: ${fmt ratio}  targetRatio: ${fmt targetRatio}"
+
+            if (Math.abs(ratio - targetRatio) * (keepPositives + keepNegatives) < 1) {
+                write "diference between ratio and target ratio is negligible"
+            } else if (ratio < targetRatio) {
+                double multiplier = ratio / targetRatio
+                write "subsampling negatives (multiplier: ${fmt multiplier})"
+                int reducedNegatives = keepNegatives
+                keepNegatives = (int) Math.round(keepNegatives * multiplier)
+                if (sortNegativesByProtrusion) {
+                    Random rand = new Random(params.seed)
+                    shuffle(negatives, rand)
+                    negatives = Arrays.copyOf(negatives, reducedNegatives)
+                    negatives = sortByProtrusion(negatives, items)
+                    negativesOrdered = true
+                }
+            } else {
+                double multiplier = targetRatio / ratio
+                write "subsampling positives (multiplier: ${fmt multiplier})"
+                keepPositives = (int) Math.round(keepPositives * multiplier)
+            }
+        }
+
+        // negatives are either already in final order (sorted by protrusion) or shuffled here
+        Random rand = new Random(params.seed)
+        shuffle(positives, rand)
+        if (!negativesOrdered) {
+            shuffle(negatives, rand)
+        }
+
+        write "selected points: positives: $keepPositives, negatives: $keepNegatives"
+
+        return selectPoints(items, positives, keepPositives, negatives, keepNegatives)
+    }
+
+//===========================================================================================================//
+
+    /**
+     * Point references are encoded as (itemIndex << 32 | pointIndex)
+     */
+    private static long[] collectRefs(List<TrainingPoints> items, boolean positives) {
+        int n = 0
+        for (TrainingPoints item : items) {
+            n += (positives ? item.positives : item.negatives).count
+        }
+        long[] res = new long[n]
+        int k = 0
+        for (int i = 0; i < items.size(); i++) {
+            int count = (positives ? items[i].positives : items[i].negatives).count
+            for (int j = 0; j < count; j++) {
+                res[k++] = (((long) i) << 32) | j
+            }
+        }
+        return res
+    }
+
+    private static int itemIndex(long ref) {
+        return (int) (ref >>> 32)
+    }
+
+    private static int pointIndex(long ref) {
+        return (int) ref
+    }
+
+    /**
+     * Fisher-Yates shuffle
+     */
+    private static void shuffle(long[] refs, Random rand) {
+        for (int i = refs.length - 1; i > 0; i--) {
+            int j = rand.nextInt(i + 1)
+            long tmp = refs[i]
+            refs[i] = refs[j]
+            refs[j] = tmp
+        }
+    }
+
+    /**
+     * stable sort by protrusion ascending (the same order as sorting instances by protrusion attribute in DataPreprocessor)
+     */
+    private static long[] sortByProtrusion(long[] refs, List<TrainingPoints> items) {
+        Long[] boxed = new Long[refs.length]
+        for (int i = 0; i < refs.length; i++) {
+            boxed[i] = refs[i]
+        }
+        Arrays.sort(boxed, new Comparator<Long>() {
+            @Override
+            int compare(Long a, Long b) {
+                return Double.compare(protrusion(a, items), protrusion(b, items))
+            }
+        })
+        long[] res = new long[refs.length]
+        for (int i = 0; i < refs.length; i++) {
+            res[i] = boxed[i]
+        }
+        return res
+    }
+
+    private static double protrusion(long ref, List<TrainingPoints> items) {
+        double[] protrusion = items[itemIndex(ref)].negativesProtrusion
+        return protrusion != null ? protrusion[pointIndex(ref)] : 0d
+    }
+
+    private static List<TrainingPoints> selectPoints(List<TrainingPoints> items, long[] positives, int keepPositives, long[] negatives, int keepNegatives) {
+        boolean[][] keepPos = new boolean[items.size()][]
+        boolean[][] keepNeg = new boolean[items.size()][]
+        for (int i = 0; i < items.size(); i++) {
+            keepPos[i] = new boolean[items[i].positives.count]
+            keepNeg[i] = new boolean[items[i].negatives.count]
+        }
+        for (int k = 0; k < keepPositives; k++) {
+            keepPos[itemIndex(positives[k])][pointIndex(positives[k])] = true
+        }
+        for (int k = 0; k < keepNegatives; k++) {
+            keepNeg[itemIndex(negatives[k])][pointIndex(negatives[k])] = true
+        }
+
+        List<TrainingPoints> res = new ArrayList<>(items.size())
+        for (int i = 0; i < items.size(); i++) {
+            res.add(new TrainingPoints(filter(items[i].positives, keepPos[i]), filter(items[i].negatives, keepNeg[i]), null))
+        }
+        return res
+    }
+
+    private static Atoms filter(Atoms points, boolean[] keep) {
+        Atoms res = new Atoms()
+        for (int j = 0; j < keep.length; j++) {
+            if (keep[j]) {
+                res.add(points.list.get(j))
+            }
+        }
+        return res
+    }
+
+    private static String fmt(double d) {
+        format(d, 5)
+    }
+
+}
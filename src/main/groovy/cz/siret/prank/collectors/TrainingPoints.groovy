@@ -0,0 +1,29 @@
+package cz.siret.prank.collectors
+
+import cz.siret.prank.geom.Atoms
+import groovy.transform.CompileStatic
+
+import javax.annotation.Nullable
+
+/**
+ * Labeled training points of one protein (before feature extraction)
+ */
+@CompileStatic
+class TrainingPoints {
+
+    final Atoms positives
+    final Atoms negatives
+
+    /**
+     * protrusion of negative points (calculated only when needed for subsampling)
+     */
+    @Nullable
+    final double[] negativesProtrusion
+
+    TrainingPoints(Atoms positives, Atoms negatives, @Nullable double[] negativesProtrusion) {
+        this.positives = positives
+        this.negatives = negatives
+        this.negativesProtrusion = negativesProtrusion
+    }
+
+}
@@ -13,14 +13,17 @@ import cz.siret.prank.features.api.ProcessedItemContext
 import cz.siret.prank.geom.Atoms
 import cz.siret.prank.geom.transform.GeometricTransformation
 import cz.siret.prank.program.Failable
+import cz.siret.prank.program.MemoryBudget
 import cz.siret.prank.program.P2Rank
 import cz.siret.prank.program.PrankException
 import cz.siret.prank.program.ThreadPoolFactory
 import cz.siret.prank.program.params.Parametrized
+import cz.siret.prank.program.params.Params
 import cz.siret.prank.utils.Futils
 import cz.siret.prank.utils.Sutils
 import cz.siret.prank.utils.Writable
 import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
 import groovy.util.logging.Slf4j
 import org.biojava.nbio.structure.Atom
 import org.biojava.nbio.structure.Group
@@ -28,8 +31,11 @@ import org.biojava.nbio.structure.Group
 import javax.annotation.Nonnull
 import javax.annotation.Nullable
 import java.util.concurrent.Callable
+import java.util.concurrent.CancellationException
+import java.util.concurrent.ExecutionException
 import java.util.concurrent.ExecutorService
 import java.util.concurrent.Executors
+import java.util.concurrent.Future
 import java.util.concurrent.atomic.AtomicBoolean
 
 import static cz.siret.prank.utils.Cutils.newSynchronizedList
@@ -48,6 +54,16 @@ class Dataset implements Parametrized, Writable, Failable {
 
     private static final Splitter SPLITTER = Splitter.on(CharMatcher.whitespace()).trimResults().omitEmptyStrings()
 
+    /** typical compression ratio of structure files, used to estimate the cost of compressed items */
+    private static final int COMPRESSION_RATIO_ESTIMATE = 4
+
+    /*
+     * memory estimate constants (see estimateMemory())
+     */
+    private static final int BYTES_PER_ATOM_RECORD = 80     // length of ATOM record in PDB file
+    private static final long BYTES_PER_ATOM = 2048         // BioJava atom and group, per-atom features and kd-trees
+    private static final long BYTES_PER_POINT = 1024        // SAS point, its feature vector and prediction
+
     /*
      * dataset parameter names
      * Dataset parameters can be defined in dataset file as PARAM.<PARAM_NAME>=<value>
@@ -193,9 +209,18 @@ class Dataset implements Parametrized, Writable, Failable {
                 log.info "processing dataset [$name] using $nt threads"
             }
 
+            final Params callerParams = params  // params of calling thread are bound to workers
+
             ExecutorService executor = Executors.newFixedThreadPool(params.threads)
+            final MemoryBudget memoryBudget = (params.memory_budget_mb > 0) ? MemoryBudget.shared(params.memory_budget_mb) : null
+            final int tessellation = Math.max(params.tessellation, params.train_tessellation)
+
+            List<Integer> order = processingOrder()
+            final StructurePrefetcher prefetcher = createPrefetcher(order.collect { int idx -> items[idx] })
+
             List<Callable<Object>> tasks = new ArrayList<>()
-            items.eachWithIndex { Item item, int idx ->
+            for (int idx : order) {
+                Item item = items[idx]
                 int num = idx + 1
                 tasks.add(new Callable() {
                     @Override
@@ -204,29 +229,117 @@ class Dataset implements Parametrized, Writable, Failable {
                             // stop processing other items in parallel if P2Rank already failed (see fail_fast)
                             return null
                         }
+                        prefetcher?.itemStarted()
 
-                        processssItem(item, num, processor, result, quiet)
+                        long memory = 0
+                        if (memoryBudget != null) {
+                            memory = estimateMemory(item, tessellation)
+                            memoryBudget.acquire(memory)
+                        }
+                        try {
+                            Params.withParams(callerParams) {
+                                StructurePrefetcher.withPrefetcher(prefetcher) {
+                                    processssItem(item, num, processor, result, quiet)
+                                }
+                            }
+                        } finally {
+                            memoryBudget?.release(memory)
+                        }
                         return null
                     }
                 })
             }
-            executor.invokeAll((Collection<Callable<Object>>)tasks)
-            executor.shutdownNow()
+            try {
+                executor.invokeAll((Collection<Callable<Object>>)tasks)
+            } finally {
+                executor.shutdownNow()
+                prefetcher?.close()
+            }
 
         } else {
             if (!quiet) {
                 log.info "processing dataset [$name] using 1 thread"
             }
 
-            int counter = 1
-            for (Item item : items) {
-                processssItem(item, counter++, processor, result, quiet)
+            StructurePrefetcher prefetcher = createPrefetcher(items)
+            try {
+                int counter = 1
+                for (Item item : items) {
+                    prefetcher?.itemStarted()
+                    int num = counter++
+                    StructurePrefetcher.withPrefetcher(prefetcher) {
+                        processssItem(item, num, processor, result, quiet)
+                    }
+                }
+            } finally {
+                prefetcher?.close()
             }
         }
 
         return result
     }
 
+    /**
+     * @param orderedItems items in the order of processing
+     * @return null if prefetching is disabled (prefetch_items = 0)
+     */
+    @Nullable
+    private StructurePrefetcher createPrefetcher(List<Item> orderedItems) {
+        if (params.prefetch_items <= 0) {
+            return null
+        }
+        return new StructurePrefetcher(orderedItems, params.prefetch_items, params.prefetch_threads, params)
+    }
+
+    /**
+     * Order in which items are submitted to the thread pool.
+     * With schedule_largest_first the most expensive items (by estimated cost) are started first,
+     * so that a large item doesn't end up running alone at the end while other threads idle.
+     *
+     * @return indexes to items
+     */
+    private List<Integer> processingOrder() {
+        List<Integer> order = (0..<items.size()).toList()
+        if (params.schedule_largest_first && items.size() > 1) {
+            long[] costs = new long[items.size()]
+            for (int i = 0; i < items.size(); i++) {
+                costs[i] = estimateCost(items[i])
+            }
+            order.sort({ Integer a, Integer b -> Long.compare(costs[b], costs[a]) } as Comparator<Integer>)  // stable: ties keep dataset order
+        }
+        return order
+    }
+
+    /**
+     * Cheap estimate of the processing cost of the item: size of its structure files
+     * (compressed files are scaled by the usual compression ratio of structure files).
+     */
+    static long estimateCost(Item item) {
+        long cost = 0
+        for (String fname : [item.proteinFile, item.apoProteinFile]) {
+            if (fname == null) continue
+            File f = new File(fname)
+            if (!f.isFile()) continue
+            long size = f.length()
+            if (fname.endsWith('.gz') || fname.endsWith('.bz2') || fname.endsWith('.zst') || fname.endsWith('.zstd')) {
+                size *= COMPRESSION_RATIO_ESTIMATE
+            }
+            cost += size
+        }
+        return cost
+    }
+
+    /**
+     * Rough estimate of the peak memory used by processing of the item
+     * (structure, SAS points and their feature vectors) from the estimated number of atoms.
+     */
+    static long estimateMemory(Item item, int tessellation) {
+        long atoms = (long) (estimateCost(item) / BYTES_PER_ATOM_RECORD)
+        long sphere = 10L * (1L << (2 * Math.max(0, tessellation - 1))) + 2  // points of tessellated atom sphere
+        long pointsPerAtom = Math.max(1L, (long)(sphere / 4))                // ~ part of the sphere exposed to solvent
+        return atoms * (BYTES_PER_ATOM + pointsPerAtom * BYTES_PER_POINT)
+    }
+
     private void processssItem(Item item, int num, Processor processor, Result result, boolean quiet) {
 
         if (!quiet) {
@@ -854,13 +967,15 @@ class Dataset implements Parametrized, Writable, Failable {
         PredictionPair getPredictionPair() {
             PredictionPair res = null
             if (currentDataset.cached) {
-                if (cachedPair == null) {
-                    cachedPair = loadPredictionPair()
-                    log.info "caching structures in dataset item [$label]"
+                synchronized (this) { // item may be shared by concurrently running experiments
+                    if (cachedPair == null) {
+                        cachedPair = takePrefetchedOrLoad()
+                        log.info "caching structures in dataset item [$label]"
+                    }
+                    res = cachedPair
                 }
-                res = cachedPair
             } else {
-                res = loadPredictionPair()
+                res = takePrefetchedOrLoad()
             }
 
             res.forTraining = currentDataset.forTraining
@@ -877,10 +992,28 @@ class Dataset implements Parametrized, Writable, Failable {
             getPredictionPair().apoProtein
         }
 
-        private PredictionPair loadPredictionPair() {
+        @PackageScope
+        PredictionPair loadPredictionPair() {
             return getLoader(this).loadPredictionPair(this)
         }
 
+        /**
+         * Takes structures prefetched by the prefetcher of current run (see StructurePrefetcher.withPrefetcher()).
+         */
+        private PredictionPair takePrefetchedOrLoad() {
+            Future<PredictionPair> prefetched = StructurePrefetcher.current?.take(this)
+            if (prefetched != null) {
+                try {
+                    return prefetched.get()
+                } catch (CancellationException ignored) {
+                    // load below
+                } catch (ExecutionException e) {
+                    throw (e.cause instanceof Exception) ? (Exception) e.cause : e
+                }
+            }
+            return loadPredictionPair()
+        }
+
         /**
          * explicitly specified chain codes
          * @return null if column is not defined
@@ -1,6 +1,7 @@
 package cz.siret.prank.domain
 
 import cz.siret.prank.domain.labeling.LabeledPoint
+import cz.siret.prank.domain.labeling.PointResults
 import cz.siret.prank.domain.labeling.ResidueLabelings
 import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
@@ -27,9 +28,11 @@ class Prediction {
     List<Pocket> reorderedPockets
 
     /**
-     *  SAS points with ligandability score for prediction and visualization.
+     * SAS points with ligandability score for prediction and visualization.
+     * (a copy of the values, points of the protein surface are not referenced)
      */
-    List<LabeledPoint> labeledPoints = null
+    @Nullable
+    PointResults pointResults = null
 
     @Nullable
     ResidueLabelings residueLabelings
@@ -44,4 +47,17 @@ class Prediction {
         return pockets.size()
     }
 
+    int getPointCount() {
+        return (pointResults != null) ? pointResults.size : 0
+    }
+
+    /**
+     * @return new LabeledPoint objects created from pointResults on every call (changes are not written back),
+     *         null if points were not labeled
+     */
+    @Nullable
+    List<LabeledPoint> toLabeledPoints() {
+        return pointResults?.toLabeledPoints()
+    }
+
 }
@@ -144,6 +144,21 @@ class Protein implements Parametrized {
         return accessibleSurface
     }
 
+    /**
+     * Replaces surface and exposed atoms with a complete surface of the protein calculated elsewhere
+     * (e.g. assembled from the previous frame in IncrementalFrames). Exposed residues are recalculated on demand.
+     */
+    void setPredictionSurface(Surface surface, Atoms exposedAtoms) {
+        this.accessibleSurface = surface
+        this.exposedAtoms = exposedAtoms
+        if (exposedResidues != null) {
+            for (Residue res : residues) {
+                res.exposed = false
+            }
+            exposedResidues = null
+        }
+    }
+
     Surface getTrainSurface() {
         if (trainSurface == null) {
             boolean shouldBeDistinct = params.tessellation != params.effectiveTrainTessellation
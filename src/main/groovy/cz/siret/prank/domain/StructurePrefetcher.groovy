@@ -0,0 +1,137 @@
+package cz.siret.prank.domain
+
+import cz.siret.prank.program.params.Params
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+import javax.annotation.Nullable
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Loads (reads, decompresses and parses) structures of dataset items ahead of their processing
+ * in a small pool of I/O threads, so that computing threads don't wait for I/O (see prefetch_items).
+ *
+ * Keeps given number of items loaded or loading beyond the items already started.
+ *
+ * Loaded structures are owned by the prefetcher (i.e. by the run that created it), not by the items,
+ * because items may be shared by concurrently running experiments. They are taken by Item.getPredictionPair()
+ * called in withPrefetcher() on the processing thread.
+ */
+@Slf4j
+@CompileStatic
+class StructurePrefetcher implements Closeable {
+
+    private final List<Dataset.Item> items
+    private final int ahead
+    private final Params params
+    private final ExecutorService executor
+
+    /**
+     * Structures loaded or being loaded, guarded by this
+     */
+    private final Map<Dataset.Item, Future<PredictionPair>> prefetched = new IdentityHashMap<>()
+
+    private int next = 0
+
+    /**
+     * Prefetcher bound to the current thread by withPrefetcher()
+     */
+    private static final ThreadLocal<StructurePrefetcher> CURRENT = new ThreadLocal<>()
+
+    /**
+     * @param items items in the order of processing
+     * @param params params bound to loading threads
+     */
+    StructurePrefetcher(List<Dataset.Item> items, int ahead, int threads, Params params) {
+        this.items = items
+        this.ahead = ahead
+        this.params = params
+
+        AtomicInteger counter = new AtomicInteger(0)
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), { Runnable r ->
+            Thread t = new Thread(r, "prank-prefetch-" + counter.incrementAndGet())
+            t.daemon = true
+            return t
+        } as ThreadFactory)
+
+        synchronized (this) {
+            for (int i = 0; i < ahead; i++) {
+                scheduleNext()
+            }
+        }
+    }
+
+    /**
+     * Call when processing of an item starts.
+     */
+    synchronized void itemStarted() {
+        scheduleNext()
+    }
+
+    private void scheduleNext() {
+        if (next < items.size()) {
+            Dataset.Item item = items[next++]
+            if (prefetched.containsKey(item) || (item.currentDataset.cached && item.cachedPair != null)) {
+                return
+            }
+            prefetched.put(item, executor.submit({
+                Params.withParams(params) { item.loadPredictionPair() }
+            } as Callable<PredictionPair>))
+        }
+    }
+
+    /**
+     * Removes structures of the item from the prefetcher.
+     *
+     * @return structures loaded or being loaded for the item, null if the item was not prefetched
+     */
+    @Nullable
+    synchronized Future<PredictionPair> take(Dataset.Item item) {
+        return prefetched.remove(item)
+    }
+
+    /**
+     * Stops loading and releases structures that were not used.
+     */
+    @Override
+    void close() {
+        executor.shutdownNow()
+        synchronized (this) {
+            for (Future<PredictionPair> f : prefetched.values()) {
+                f.cancel(true)
+            }
+            prefetched.clear()
+        }
+    }
+
+    /**
+     * Run closure with prefetcher bound to the current thread (structures of processed items are taken from it).
+     */
+    static <T> T withPrefetcher(@Nullable StructurePrefetcher prefetcher, Closure<T> closure) {
+        StructurePrefetcher previous = CURRENT.get()
+        CURRENT.set(prefetcher)
+        try {
+            return closure.call()
+        } finally {
+            if (previous == null) {
+                CURRENT.remove()
+            } else {
+                CURRENT.set(previous)
+            }
+        }
+    }
+
+    /**
+     * @return prefetcher bound to the current thread
+     */
+    @Nullable
+    static StructurePrefetcher getCurrent() {
+        return CURRENT.get()
+    }
+
+}
@@ -23,6 +23,9 @@ import static cz.siret.prank.prediction.pockets.PointScoreCalculator.applyPointS
 @CompileStatic
 class ModelBasedPointLabeler extends PointLabeler implements Parametrized {
 
+    /** max number of feature vectors held at once */
+    private static final int PREDICTION_BLOCK_SIZE = 4096
+
     private Model model
     private ProcessedItemContext context
 
@@ -82,34 +85,46 @@ class ModelBasedPointLabeler extends PointLabeler implements Parametrized {
             }
         }
 
-        // label
-        int i = 0
-        for (LabeledPoint point : labeledPoints) {
-            // classification
-
-            FeatureVector vect = extractor.calcFeatureVector(point.point)
+        // label (feature vectors are calculated and classified in blocks)
+        int n = labeledPoints.size()
+        for (int start = 0; start < n; start += PREDICTION_BLOCK_SIZE) {
+            int end = Math.min(n, start + PREDICTION_BLOCK_SIZE)
 
+            List<FeatureVector> vectors = new ArrayList<>(end - start)
+            for (int i = start; i != end; ++i) {
+                vectors.add(extractor.calcFeatureVector(labeledPoints[i].point))
+            }
 
-            calculator.scorePoint(point, vect, instancePredictor)
-
+            // classification
+            if (params.use_only_positive_score) {  // legacy scoring via histograms, point by point
+                for (int i = start; i != end; ++i) {
+                    calculator.scorePoint(labeledPoints[i], vectors[i - start], instancePredictor)
+                }
+            } else {
+                double[] scores = instancePredictor.predictBatch(vectors)
+                for (int i = start; i != end; ++i) {
+                    calculator.scorePoint(labeledPoints[i], scores[i - start])
+                }
+            }
 
             // labels and statistics
+            for (int i = start; i != end; ++i) {
+                LabeledPoint point = labeledPoints[i]
 
-            boolean predicted = binaryLabel(point.score)
-            boolean observed = false
+                boolean predicted = binaryLabel(point.score)
+                boolean observed = false
 
-            if (observedPoints != null) {
-                observed = observedPoints[i].observed
-            }
+                if (observedPoints != null) {
+                    observed = observedPoints[i].observed
+                }
 
-            point.predicted = predicted
-            point.observed = observed
+                point.predicted = predicted
+                point.observed = observed
 
-            if (collectingStats) {
-                classifierStats.addPrediction(observed, predicted, point.score)
+                if (collectingStats) {
+                    classifierStats.addPrediction(observed, predicted, point.score)
+                }
             }
-
-            i++
         }
 
         // TODO don't finalize when doing repeated experiments
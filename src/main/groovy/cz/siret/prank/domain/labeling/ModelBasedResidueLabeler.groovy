@@ -10,15 +10,14 @@ import cz.siret.prank.prediction.metrics.ClassifierStats
 import cz.siret.prank.prediction.pockets.PointScoreCalculator
 import cz.siret.prank.program.ml.Model
 import cz.siret.prank.program.params.Parametrized
-import cz.siret.prank.utils.Cutils
 import cz.siret.prank.utils.MathUtils
 import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
+import org.biojava.nbio.structure.Atom
 
 import javax.annotation.concurrent.NotThreadSafe
 import java.util.function.Function
 
-import static cz.siret.prank.utils.Cutils.mapList
 import static cz.siret.prank.utils.Formatter.format
 import static cz.siret.prank.utils.Formatter.formatNumbers
 
@@ -36,6 +35,7 @@ class ModelBasedResidueLabeler extends ResidueLabeler<Boolean> implements Parame
 
     private List<LabeledPoint> labeledPoints
     private List<LabeledPoint> observedPoints = null
+    private Atoms exposedAtoms = null
 
     private ClassifierStats classifierStats
     private ResidueLabeling<Double> doubleLabeling
@@ -71,6 +71,15 @@ class ModelBasedResidueLabeler extends ResidueLabeler<Boolean> implements Parame
         return this
     }
 
+    /**
+     * @param exposedAtoms exposed atoms of the surface of labeled points, used instead of protein.exposedResidues
+     *                     if residue_score_only_exposed (surface of the protein is not calculated)
+     */
+    ModelBasedResidueLabeler withExposedAtoms(Atoms exposedAtoms) {
+        this.exposedAtoms = exposedAtoms
+        return this
+    }
+
     List<LabeledPoint> getLabeledPoints() {
         return labeledPoints
     }
@@ -103,22 +112,24 @@ class ModelBasedResidueLabeler extends ResidueLabeler<Boolean> implements Parame
 
     /**
      * calculates doubleLabeling as well
+     *
+     * Point scores are assigned to residues in a single pass over points: each point contributes
+     * to all residues that have an atom within RADIUS.
      */
     BinaryLabeling calculateLabeling(Residues residues, List<LabeledPoint> labeledPoints, Protein protein) {
 
-        Atoms points = new Atoms(labeledPoints)
+        ResidueScores scores = collectResidueScores(residues, labeledPoints, protein)
 
         // calculate binary labels by sum and threshold
 
         ResidueLabeling<Double> resScores = new ResidueLabeling<>(residues.count)
 
+        int ri = 0
         for (Residue res : residues) {
-            List<Double> pscores = Collections.emptyList()
-            if (!ONLY_EXPOSED || protein.exposedResidues.contains(res)) {
-                pscores = mapList(points.cutoutShell(res.atoms, RADIUS).<LabeledPoint>asList(), { it.score })
-            }
-            
-            double score = aggregateScore(pscores)
+            int from = scores.offsets[ri]
+            int to = scores.offsets[ri + 1]
+
+            double score = aggregateScore(scores.scores, from, to)
 
             log.trace "aggregated_score = {}", score
 
@@ -127,10 +138,12 @@ class ModelBasedResidueLabeler extends ResidueLabeler<Boolean> implements Parame
             log.trace "transformed_score = {}", score
 
             if (log.traceEnabled) {
+                List<Double> pscores = (from..<to).collect { int i -> scores.scores[i] }
                 log.trace "RES[{}] (score={}) pscores(n={}): {}", res, format(score, 2), pscores.size(), formatNumbers(pscores, 2)
             }
 
             resScores.add(res, score)
+            ri++
         }
         doubleLabeling = resScores
 
@@ -143,31 +156,121 @@ class ModelBasedResidueLabeler extends ResidueLabeler<Boolean> implements Parame
         return resLabels
     }
 
-    private boolean binaryLabel(double score) {
-        score >= SCORE_THRESHOLD
+    /**
+     * Scores of points grouped by residue: scores of residue i are scores[offsets[i]..offsets[i+1]).
+     * Points of each residue are in the original order of labeledPoints.
+     */
+    private static class ResidueScores {
+        int[] offsets
+        double[] scores
     }
 
-    private double aggregateScore(List<Double> scores) {
-        if (scores.empty) return 0d
-
-        int limit = params.score_point_limit
-        if (limit > 0) {
-            if (scores.size() > limit) {
-                scores = Cutils.head(limit, scores.toSorted().reverse())
+    private Residues getExposedResidues(Protein protein) {
+        if (exposedAtoms == null) {
+            return protein.exposedResidues
+        }
+        Set<Residue> res = new LinkedHashSet<>()
+        for (Atom a : exposedAtoms) {
+            Residue r = protein.getResidueForAtom(a)
+            if (r != null) {
+                res.add(r)
             }
         }
+        return new Residues(new ArrayList<Residue>(res))
+    }
 
-        List<Double> transformedScores = scores.collect { pointScoreCalculator.transformScore(it) }
+    private ResidueScores collectResidueScores(Residues residues, List<LabeledPoint> labeledPoints, Protein protein) {
+        int nres = residues.count
+        Residues exposedResidues = ONLY_EXPOSED ? getExposedResidues(protein) : null
 
-        if (log.traceEnabled) {
-            log.trace "transformed_scores(n={}): {}", transformedScores.size(), formatNumbers(transformedScores, 2)
+        // index atoms of considered residues
+        Map<Atom, Integer> atomResidueIdx = new IdentityHashMap<>()
+        List<Atom> indexedAtoms = new ArrayList<>()
+        int ri = 0
+        for (Residue res : residues) {
+            if (!ONLY_EXPOSED || exposedResidues.contains(res)) {
+                for (Atom a : res.atoms) {
+                    atomResidueIdx.put(a, ri)
+                    indexedAtoms.add(a)
+                }
+            }
+            ri++
         }
+        Atoms atoms = new Atoms(indexedAtoms).withKdTree()
+
+        // (residue, point) pairs in order of points
+        int[] pairResidues = new int[Math.max(16, labeledPoints.size() * 2)]
+        double[] pairScores = new double[pairResidues.length]
+        int npairs = 0
+
+        int[] lastPoint = new int[nres]
+        Arrays.fill(lastPoint, -1)
+        int[] counts = new int[nres]
+
+        int pi = 0
+        for (LabeledPoint point : labeledPoints) {
+            if (!atoms.empty) {
+                for (Atom a : atoms.cutoutSphere(point, RADIUS)) {
+                    int resIdx = atomResidueIdx.get(a)
+                    if (lastPoint[resIdx] != pi) {   // count point only once for each residue
+                        lastPoint[resIdx] = pi
+                        if (npairs == pairResidues.length) {
+                            pairResidues = Arrays.copyOf(pairResidues, npairs * 2)
+                            pairScores = Arrays.copyOf(pairScores, npairs * 2)
+                        }
+                        pairResidues[npairs] = resIdx
+                        pairScores[npairs] = point.score
+                        npairs++
+                        counts[resIdx]++
+                    }
+                }
+            }
+            pi++
+        }
+
+        // group by residue (stable counting sort)
+        ResidueScores res = new ResidueScores()
+        res.offsets = new int[nres + 1]
+        for (int i = 0; i < nres; i++) {
+            res.offsets[i + 1] = res.offsets[i] + counts[i]
+        }
+        res.scores = new double[npairs]
+        int[] next = Arrays.copyOf(res.offsets, nres)
+        for (int i = 0; i < npairs; i++) {
+            res.scores[next[pairResidues[i]]++] = pairScores[i]
+        }
+        return res
+    }
+
+    private boolean binaryLabel(double score) {
+        score >= SCORE_THRESHOLD
+    }
 
-        double sum = Cutils.sum(transformedScores)
+    /**
+     * aggregates scores[from..to) (may reorder that part of the array)
+     */
+    private double aggregateScore(double[] scores, int from, int to) {
+        int n = to - from
+        if (n == 0) return 0d
+
+        double sum = 0
+        int limit = params.score_point_limit
+        if (limit > 0 && n > limit) {
+            // sum of top scores (in descending order)
+            Arrays.sort(scores, from, to)
+            for (int i = to - 1; i >= to - limit; i--) {
+                sum += pointScoreCalculator.transformScore(scores[i])
+            }
+            n = limit
+        } else {
+            for (int i = from; i < to; i++) {
+                sum += pointScoreCalculator.transformScore(scores[i])
+            }
+        }
 
         log.trace "sum_score = {}", sum
 
-        double base = scores.size()
+        double base = n
         base = Math.pow(base, SUM_TO_AVG_POW) // exp. of <0,1> goes from 'no average, just sum' -> 'full average'
 
         log.trace "base = {}", base
@@ -0,0 +1,120 @@
+package cz.siret.prank.domain.labeling
+
+import cz.siret.prank.geom.Point
+import groovy.transform.CompileStatic
+
+/**
+ * Table of labeled SAS points (prediction result for all points of a protein).
+ *
+ * Holds a copy of coordinates, scores, labels and pocket numbers in parallel primitive arrays.
+ * Unlike a list of LabeledPoint objects it doesn't reference surface atoms (but these are still held by the protein).
+ * LabeledPoint objects are created only on demand and are detached from the table.
+ */
+@CompileStatic
+class PointResults {
+
+    private static final byte OBSERVED = 1
+    private static final byte PREDICTED = 2
+
+    final int size
+
+    /** x, y, z of point i at 3*i, 3*i+1, 3*i+2 */
+    private final double[] coords
+    private final double[] scores
+    private final double[] transformedScores
+    private final byte[] flags
+    /** 0 = no pocket */
+    private final int[] pockets
+
+    PointResults(int size) {
+        this.size = size
+        this.coords = new double[3 * size]
+        this.scores = new double[size]
+        this.transformedScores = new double[size]
+        this.flags = new byte[size]
+        this.pockets = new int[size]
+    }
+
+    static PointResults of(List<LabeledPoint> points) {
+        PointResults res = new PointResults(points.size())
+        int i = 0
+        for (LabeledPoint p : points) {
+            res.coords[3*i]     = p.x
+            res.coords[3*i + 1] = p.y
+            res.coords[3*i + 2] = p.z
+            res.scores[i] = p.score
+            res.transformedScores[i] = p.transformedScore
+            res.flags[i] = (byte) ((p.observed ? OBSERVED : 0) | (p.predicted ? PREDICTED : 0))
+            res.pockets[i] = p.pocket
+            i++
+        }
+        return res
+    }
+
+//===========================================================================================================//
+
+    double getX(int i) {
+        return coords[3*i]
+    }
+
+    double getY(int i) {
+        return coords[3*i + 1]
+    }
+
+    double getZ(int i) {
+        return coords[3*i + 2]
+    }
+
+    double getScore(int i) {
+        return scores[i]
+    }
+
+    double getTransformedScore(int i) {
+        return transformedScores[i]
+    }
+
+    boolean isObserved(int i) {
+        return (flags[i] & OBSERVED) != 0
+    }
+
+    boolean isPredicted(int i) {
+        return (flags[i] & PREDICTED) != 0
+    }
+
+    int getPocket(int i) {
+        return pockets[i]
+    }
+
+    void setPocket(int i, int pocket) {
+        pockets[i] = pocket
+    }
+
+    /**
+     * @return new point with coordinates of point i
+     */
+    Point getPoint(int i) {
+        return new Point(coords[3*i], coords[3*i + 1], coords[3*i + 2])
+    }
+
+    /**
+     * @return new LabeledPoint with values of point i (changes are not written back to the table)
+     */
+    LabeledPoint getLabeledPoint(int i) {
+        LabeledPoint res = new LabeledPoint(getPoint(i), isObserved(i), isPredicted(i), scores[i])
+        res.transformedScore = transformedScores[i]
+        res.pocket = pockets[i]
+        return res
+    }
+
+    /**
+     * @return new LabeledPoint objects for all points (changes are not written back to the table)
+     */
+    List<LabeledPoint> toLabeledPoints() {
+        List<LabeledPoint> res = new ArrayList<>(size)
+        for (int i = 0; i < size; i++) {
+            res.add(getLabeledPoint(i))
+        }
+        return res
+    }
+
+}
@@ -11,6 +11,7 @@ import cz.siret.prank.program.ml.Model
 import cz.siret.prank.program.params.Parametrized
 import cz.siret.prank.program.params.Params
 import cz.siret.prank.program.routines.results.Evaluation
+import cz.siret.prank.utils.Formatter
 import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
 
@@ -42,11 +43,14 @@ class ResidueLabelings implements Parametrized {
     }
 
 
-    static ResidueLabelings calculate(Prediction prediction, Model model, Atoms sasPoints, List<LabeledPoint> labeledPoints, ProcessedItemContext context) {
+    /**
+     * @param exposedAtoms exposed atoms of the surface of sasPoints
+     */
+    static ResidueLabelings calculate(Prediction prediction, Model model, Atoms sasPoints, Atoms exposedAtoms, List<LabeledPoint> labeledPoints, ProcessedItemContext context) {
         Protein protein = prediction.protein
         Residues residues = protein.residues
 
-        ModelBasedResidueLabeler labeler = new ModelBasedResidueLabeler(model, sasPoints, context)
+        ModelBasedResidueLabeler labeler = new ModelBasedResidueLabeler(model, sasPoints, context).withExposedAtoms(exposedAtoms)
         labeler.calculateLabeling(residues, labeledPoints, protein)
 
         ResidueLabeling<Double> lab_score = labeler.doubleLabeling
@@ -126,12 +130,25 @@ class ResidueLabelings implements Parametrized {
     }
 
     String toCSV() {
-        StringBuilder s = new StringBuilder()
+        StringBuilder s = new StringBuilder(residues.count * (20 + 10 * labelings.size()))
         // TODO add chain_name and chain_id columns instead of chain (after adding mmcif support)
         s << "chain, residue_label, residue_name, " << (labelings*.name).join(", ") << "\n"
         for (Residue r : residues) {
-            s << r.chainAuthorId << ", " << r.residueNumber.toString().padLeft(4) << ", " << r.code << ","
-            s << labelings.collect { fmt it.labeling.get(r).label }.join(", ") << "\n"
+            String resLabel = r.residueNumber.toString()
+            s.append(r.chainAuthorId).append(", ")
+            for (int i = resLabel.length(); i < 4; i++) {
+                s.append((char) ' ')
+            }
+            s.append(resLabel).append(", ").append(r.code).append(",")
+            boolean first = true
+            for (NamedLabeling nl : labelings) {
+                if (!first) {
+                    s.append(", ")
+                }
+                appendFmt(s, nl.labeling.get(r).label)
+                first = false
+            }
+            s.append((char) '\n')
         }
         s.toString()
     }
@@ -140,10 +157,17 @@ class ResidueLabelings implements Parametrized {
     static String fmt(Object x) {
         if (x==null) return ""
 
+        return appendFmt(new StringBuilder(), x).toString()
+    }
+
+    private static StringBuilder appendFmt(StringBuilder sb, Object x) {
+        if (x == null) {
+            return sb
+        }
         if (x instanceof Double) {
-            return sprintf("%8.4f", x)
+            return Formatter.appendFixed(sb, (Double) x, 8, 4)
         } else {
-            return x.toString()
+            return sb.append(x.toString())
         }
     }
 
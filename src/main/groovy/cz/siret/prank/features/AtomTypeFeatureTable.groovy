@@ -0,0 +1,109 @@
+package cz.siret.prank.features
+
+import cz.siret.prank.features.api.AtomFeatureCalculationContext
+import cz.siret.prank.features.api.AtomFeatureCalculator
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+import org.biojava.nbio.structure.Atom
+
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Function
+
+/**
+ * Process-wide memoized values of atom type features (see AtomFeatureCalculator.isAtomTypeFeature()).
+ *
+ * Atom types (residue code, atom name, element) are interned to int ids shared by all tables.
+ * Table holds values of a particular list of atom type features (with their configuration) as one contiguous
+ * slice per atom type. Slices are calculated lazily on the first occurrence of the atom type.
+ *
+ * Thread safe.
+ */
+@Slf4j
+@CompileStatic
+class AtomTypeFeatureTable {
+
+    private static final ConcurrentHashMap<String, Integer> ATOM_TYPE_IDS = new ConcurrentHashMap<>()
+    private static final AtomicInteger ATOM_TYPE_COUNTER = new AtomicInteger(0)
+
+    private static final ConcurrentHashMap<String, AtomTypeFeatureTable> TABLES = new ConcurrentHashMap<>()
+
+    private final List<AtomFeatureCalculator> calculators
+    private final int[] lengths
+    private final int sliceLength
+
+    /** slices indexed by atom type id, replaced on write (so published slices are always complete) */
+    private volatile double[][] slices = new double[0][]
+
+    private AtomTypeFeatureTable(List<AtomFeatureCalculator> calculators) {
+        this.calculators = calculators
+        this.lengths = new int[calculators.size()]
+        int len = 0
+        for (int i = 0; i < calculators.size(); i++) {
+            lengths[i] = calculators[i].header.size()
+            len += lengths[i]
+        }
+        this.sliceLength = len
+    }
+
+    /**
+     * @param calculators atom type features in the order of slice layout
+     * @return shared table for given features and their current configuration
+     */
+    static AtomTypeFeatureTable forFeatures(List<AtomFeatureCalculator> calculators) {
+        String key = calculators.collect { it.name + '(' + it.atomTypeConfig + ')' }.join(';')
+        return TABLES.computeIfAbsent(key, { new AtomTypeFeatureTable(calculators) } as Function<String, AtomTypeFeatureTable>)
+    }
+
+    static int atomTypeId(Atom atom, String residueCode) {
+        String key = residueCode + '|' + atom.name + '|' + atom.element
+        Integer id = ATOM_TYPE_IDS.get(key)
+        if (id == null) {
+            id = ATOM_TYPE_IDS.computeIfAbsent(key, { ATOM_TYPE_COUNTER.getAndIncrement() } as Function<String, Integer>)
+        }
+        return id
+    }
+
+    int getSliceLength() {
+        return sliceLength
+    }
+
+    /**
+     * @return values of all features of the table for the atom type of given atom (must not be modified)
+     */
+    double[] getValues(Atom atom, AtomFeatureCalculationContext context) {
+        int id = atomTypeId(atom, context.residueCode)
+
+        double[][] current = slices
+        if (id < current.length && current[id] != null) {
+            return current[id]
+        }
+
+        return calculateSlice(id, atom, context)
+    }
+
+    private synchronized double[] calculateSlice(int id, Atom atom, AtomFeatureCalculationContext context) {
+        double[][] current = slices
+        if (id < current.length && current[id] != null) {
+            return current[id]
+        }
+
+        double[] slice = new double[sliceLength]
+        int offset = 0
+        for (int i = 0; i < calculators.size(); i++) {
+            double[] values = calculators[i].calculateForAtom(atom, context)
+            if (values.length != lengths[i]) {
+                throw new IllegalStateException("Feature ${calculators[i].name} returned value array of incorrect length: $values.length")
+            }
+            System.arraycopy(values, 0, slice, offset, values.length)
+            offset += values.length
+        }
+
+        double[][] updated = Arrays.copyOf(current, Math.max(current.length, id + 1))
+        updated[id] = slice
+        slices = updated
+
+        return slice
+    }
+
+}
@@ -0,0 +1,63 @@
+package cz.siret.prank.features
+
+import cz.siret.prank.features.api.AtomFeatureCalculationContext
+import cz.siret.prank.features.api.SasFeatureCalculationContext
+import cz.siret.prank.features.generic.GenericHeader
+import groovy.transform.CompileStatic
+
+import java.util.function.Supplier
+
+/**
+ * Scratch objects for calculation of feature vectors that are reused across points and proteins,
+ * so that calculation of a SAS point vector doesn't need to allocate intermediate vectors and contexts.
+ *
+ * Each thread has its own instance (see get()). Objects obtained from the workspace are valid only until
+ * the next point is processed on the same thread and must not be retained.
+ */
+@CompileStatic
+final class FeatureExtractionWorkspace {
+
+    private static final ThreadLocal<FeatureExtractionWorkspace> WORKSPACES =
+            ThreadLocal.withInitial({ new FeatureExtractionWorkspace() } as Supplier<FeatureExtractionWorkspace>)
+
+    /**
+     * @return workspace of the current thread
+     */
+    static FeatureExtractionWorkspace get() {
+        return WORKSPACES.get()
+    }
+
+    /**
+     * Accumulator for calculated (unfiltered) SAS point vector
+     */
+    private PrankFeatureVector sasVector
+
+    final SasFeatureCalculationContext sasContext = new SasFeatureCalculationContext(null, null, null)
+
+    final AtomFeatureCalculationContext atomContext = new AtomFeatureCalculationContext(null, (String) null)
+
+    /**
+     * @return zeroed scratch vector with given header
+     */
+    PrankFeatureVector clearedSasVector(GenericHeader header) {
+        if (sasVector == null || !sasVector.valueVector.header.is(header)) {
+            sasVector = new PrankFeatureVector(header)
+        } else {
+            Arrays.fill(sasVector.array, 0d)
+        }
+        return sasVector
+    }
+
+    /**
+     * Clear references from contexts so the workspace doesn't keep processed protein alive.
+     */
+    void releaseContexts() {
+        sasContext.protein = null
+        sasContext.neighbourhoodAtoms = null
+        sasContext.extractor = null
+        sasContext.exposedAtoms = null
+        atomContext.protein = null
+        atomContext.exposedAtoms = null
+    }
+
+}
@@ -1,5 +1,6 @@
 package cz.siret.prank.features
 
+import cz.siret.prank.features.api.AtomFeatureCalculator
 import cz.siret.prank.features.api.FeatureCalculator
 import cz.siret.prank.features.api.FeatureRegistry
 import cz.siret.prank.program.PrankException
@@ -28,6 +29,19 @@ class FeatureSetup {
     List<Feature> enabledAtomFeatures
     List<Feature> enabledSasFeatures
 
+    /**
+     * atom features with memoized values (subset of enabledAtomFeatures, see AtomFeatureCalculator.isAtomTypeFeature())
+     */
+    List<Feature> enabledAtomTypeFeatures
+    /**
+     * atom features calculated for every atom (enabledAtomFeatures without enabledAtomTypeFeatures)
+     */
+    List<Feature> enabledOtherAtomFeatures
+    /**
+     * table of values of enabledAtomTypeFeatures (in their order), null if there are none
+     */
+    @Nullable AtomTypeFeatureTable atomTypeTable
+
     /**
      * Sub-feature names for calculated vector (before filtering)
      */
@@ -113,6 +127,17 @@ class FeatureSetup {
             feat.startIndex = start
             start += feat.length
         }
+
+        enabledAtomTypeFeatures = enabledAtomFeatures.findAll { isAtomTypeFeature(it) }.toList()
+        enabledOtherAtomFeatures = enabledAtomFeatures.findAll { !isAtomTypeFeature(it) }.toList()
+        atomTypeTable = null
+        if (!enabledAtomTypeFeatures.empty) {
+            atomTypeTable = AtomTypeFeatureTable.forFeatures(enabledAtomTypeFeatures.collect { it.calculator as AtomFeatureCalculator })
+        }
+    }
+
+    private static boolean isAtomTypeFeature(Feature feature) {
+        return feature.calculator instanceof AtomFeatureCalculator && (feature.calculator as AtomFeatureCalculator).atomTypeFeature
     }
 
     private List<String> collectFeatureNames(List<String> subFeaturesHeader) {
@@ -201,8 +226,12 @@ class FeatureSetup {
         }
 
         void checkCorrectLength(double[] calculatedValues) throws PrankException {
-            if (calculatedValues.length != length) {
-                throw new PrankException("Feature $name returned value array of incorrect length: ${length}."
+            checkCorrectLength(calculatedValues.length)
+        }
+
+        void checkCorrectLength(int calculatedLength) throws PrankException {
+            if (calculatedLength != length) {
+                throw new PrankException("Feature $name returned value array of incorrect length: ${calculatedLength}."
                         + "Should be ${length} according to the feature header.")
             }
         }
@@ -0,0 +1,165 @@
+package cz.siret.prank.features
+
+import com.google.common.collect.ImmutableSet
+import com.google.common.hash.Hasher
+import com.google.common.hash.Hashing
+import cz.siret.prank.domain.Dataset
+import cz.siret.prank.features.implementation.histogram.PairHistogramFeature
+import cz.siret.prank.geom.Atoms
+import cz.siret.prank.program.params.ExtractionParam
+import cz.siret.prank.program.params.Params
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+import javax.annotation.Nullable
+import java.lang.reflect.Field
+import java.nio.charset.StandardCharsets
+import java.util.concurrent.ConcurrentHashMap
+import java.util.function.Supplier
+
+/**
+ * Process-wide in-memory cache of calculated feature vectors (training vectors and SAS point vectors of eval proteins).
+ *
+ * Allows repeated runs that vary only params that don't influence feature extraction (e.g. classifier params
+ * in seedloop, ploop and hopt) to skip feature extraction entirely.
+ *
+ * Entries are keyed by the dataset item and by the hash of params marked by @ExtractionParam
+ * (and of params in SAMPLING_PARAMS if training points are sampled before extraction).
+ * Cache holds entries for one extraction hash only, it is cleared when the hash changes
+ * (e.g. in the next step of ploop over feature params).
+ *
+ * Enabled by params.feature_vector_cache.
+ */
+@Slf4j
+@CompileStatic
+class FeatureVectorCache {
+
+    static final FeatureVectorCache INSTANCE = new FeatureVectorCache()
+
+    /**
+     * Params that select training points when params.sample_before_extraction is on (see TrainingPointSampler)
+     */
+    static final Set<String> SAMPLING_PARAMS = ImmutableSet.of(
+            'seed', 'max_train_instances', 'target_class_ratio', 'subsample', 'supersample', 'subsampl_high_protrusion_negatives'
+    )
+
+    private static final List<Field> EXTRACTION_PARAM_FIELDS = Params.class.declaredFields.findAll {
+        it.isAnnotationPresent(ExtractionParam)
+    }.asImmutable()
+
+    private final Map<String, Object> cache = new ConcurrentHashMap<>()
+
+    /** extraction hash of cached entries */
+    private volatile String currentHash
+
+    /**
+     * SAS points of the whole protein with their feature vectors
+     */
+    static class SurfaceVectors {
+        final Atoms points
+        final List<FeatureVector> vectors
+
+        SurfaceVectors(Atoms points, List<FeatureVector> vectors) {
+            this.points = points
+            this.vectors = vectors
+        }
+    }
+
+    static FeatureVectorCache getInstance() {
+        return INSTANCE
+    }
+
+    /**
+     * @param kind kind of cached data (e.g. 'train', 'surface')
+     * @param item dataset item, if null, nothing is cached
+     * @return cached value or value calculated by the supplier (which is then cached)
+     */
+    <T> T get(String kind, @Nullable Dataset.Item item, Params params, Supplier<T> supplier) {
+        if (!params.feature_vector_cache || item == null) {
+            return supplier.get()
+        }
+
+        String hash = extractionParamsHash(params)
+        switchTo(hash)
+        String key = kind + '|' + hash + '|' + itemKey(item, params)
+
+        T res = (T) cache.get(key)
+        if (res != null) {
+            log.debug "using cached {} vectors for [{}]", kind, item.label
+            return res
+        }
+
+        res = supplier.get()
+        if (res != null) {
+            cache.put(key, res)
+        }
+        return res
+    }
+
+    void clear() {
+        cache.clear()
+    }
+
+    /**
+     * Drops entries of other extraction params.
+     * Entries are still keyed by the hash, so a run that finishes after the switch cannot see vectors of another run.
+     */
+    private void switchTo(String hash) {
+        if (hash == currentHash) {
+            return
+        }
+        synchronized (this) {
+            if (hash != currentHash) {
+                if (!cache.isEmpty()) {
+                    log.info "extraction params changed, dropping {} cached feature vector entries", cache.size()
+                }
+                cache.clear()
+                currentHash = hash
+            }
+        }
+    }
+
+    int getSize() {
+        return cache.size()
+    }
+
+//===========================================================================================================//
+
+    private static String itemKey(Dataset.Item item, Params params) {
+        String key = "${item.originDataset.name}|${item.label}|${item.proteinFile}|${item.columnValues}"
+        if (item.transformation != null) {
+            key += "|seed=${params.seed}"   // random rotations depend on seed
+        }
+        return key
+    }
+
+    /**
+     * Hash of values of params that may influence feature extraction.
+     */
+    static String extractionParamsHash(Params params) {
+        Hasher hasher = Hashing.sha256().newHasher()
+        for (Field f : EXTRACTION_PARAM_FIELDS) {
+            putParam(hasher, f, params)
+        }
+
+        // seed is used in random subsampling of atom pairs
+        boolean seedMatters = params.selectedFeatures.any { it.startsWith(PairHistogramFeature.NAME) }
+        if (seedMatters && !params.sample_before_extraction) {
+            putParam(hasher, Params.class.getDeclaredField('seed'), params)
+        }
+        if (params.sample_before_extraction) {
+            for (String name : SAMPLING_PARAMS) {
+                putParam(hasher, Params.class.getDeclaredField(name), params)
+            }
+        }
+
+        return hasher.hash().toString()
+    }
+
+    private static void putParam(Hasher hasher, Field f, Params params) {
+        f.setAccessible(true)
+        hasher.putString(f.name, StandardCharsets.UTF_8)
+        hasher.putString(String.valueOf(f.get(params)), StandardCharsets.UTF_8)
+    }
+
+}
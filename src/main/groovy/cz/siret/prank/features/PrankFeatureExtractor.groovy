@@ -11,10 +11,12 @@ import cz.siret.prank.features.implementation.table.ResidueTableFeature
 import cz.siret.prank.features.weight.WeightFun
 import cz.siret.prank.geom.Atoms
 import cz.siret.prank.geom.Struct
+import cz.siret.prank.geom.Surface
 import cz.siret.prank.geom.samplers.PointSampler
 import cz.siret.prank.geom.samplers.SampledPoints
 import cz.siret.prank.program.PrankException
 import cz.siret.prank.program.params.Parametrized
+import cz.siret.prank.program.params.Params
 import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
 import org.biojava.nbio.structure.Atom
@@ -49,6 +51,13 @@ class PrankFeatureExtractor extends FeatureExtractor<PrankFeatureVector> impleme
 
     Atoms surfaceLayerAtoms
 
+    /**
+     * Surface for which feature vectors are calculated and protein atoms exposed to it.
+     * If not provided (null), the surface of the protein is used (see getSurface(), getExposedAtoms()).
+     */
+    private Surface surface
+    private Atoms exposedAtoms
+
     /**
      * Feature vectors that are first calculated for atoms and then (projected to SAS points)
      */
@@ -79,25 +88,40 @@ class PrankFeatureExtractor extends FeatureExtractor<PrankFeatureVector> impleme
     // params
     //===================
 
-    private double NEIGH_CUTOFF_DIST = params.neighbourhood_radius
-    private final boolean AVERAGE_FEAT_VECTORS = params.average_feat_vectors
-    private final boolean AVG_WEIGHTED = params.avg_weighted
-    private final boolean CHECK_VECTORS = params.check_vectors
-    private final double AVG_POW = params.avg_pow
-    private final WeightFun weightFun = WeightFun.create(params.weight_function)
+    /**
+     * Params that were current when the extractor factory was created.
+     * Carried over to protein prototypes and pocket/protein instances.
+     */
+    private Params params = Params.inst
+
+    // initialized from params in constructors (after params are assigned)
+    private double NEIGH_CUTOFF_DIST
+    private boolean AVERAGE_FEAT_VECTORS
+    private boolean AVG_WEIGHTED
+    private boolean CHECK_VECTORS
+    private double AVG_POW
+    private WeightFun weightFun
 
 //===========================================================================================================//
 
     PrankFeatureExtractor() {
+        initParams()
         initHeader()
     }
 
-    private PrankFeatureExtractor(Protein protein) {
+    private PrankFeatureExtractor(Protein protein, Params params) {
         super(protein)
+        this.params = params
 
+        initParams()
         initHeader()
     }
 
+    @Override
+    Params getParams() {
+        return params
+    }
+
 //===========================================================================================================//
 
     /**
@@ -112,9 +136,29 @@ class PrankFeatureExtractor extends FeatureExtractor<PrankFeatureVector> impleme
     SampledPoints getSampledPoints() {
         return sampledPoints
     }
+
+    Surface getSurface() {
+        return surface != null ? surface : protein.accessibleSurface
+    }
+
+    /**
+     * @return solvent exposed protein atoms of the surface for which feature vectors are calculated
+     */
+    Atoms getExposedAtoms() {
+        return exposedAtoms != null ? exposedAtoms : protein.exposedAtoms
+    }
     
 //===========================================================================================================//
 
+    private void initParams() {
+        NEIGH_CUTOFF_DIST    = params.neighbourhood_radius
+        AVERAGE_FEAT_VECTORS = params.average_feat_vectors
+        AVG_WEIGHTED         = params.avg_weighted
+        CHECK_VECTORS        = params.check_vectors
+        AVG_POW              = params.avg_pow
+        weightFun            = WeightFun.create(params.weight_function)
+    }
+
     private void initHeader() {
         List<String> enabledFeatures = new ArrayList<>(params.selectedFeatures)
 
@@ -141,12 +185,47 @@ class PrankFeatureExtractor extends FeatureExtractor<PrankFeatureVector> impleme
 
     @Override
     FeatureExtractor createPrototypeForProtein(Protein protein, ProcessedItemContext context) {
-        PrankFeatureExtractor res = new PrankFeatureExtractor(protein)
+        return createPrototype(protein, null, null, null, context)
+    }
+
+    /**
+     * Prototype for calculating feature vectors for points of given surface instead of the surface of the protein
+     * (e.g. coarse surface in coarse-to-fine prediction). The protein itself is not modified.
+     *
+     * @param exposedAtoms protein atoms exposed to the surface
+     */
+    FeatureExtractor createPrototypeForProtein(Protein protein, Surface surface, Atoms exposedAtoms, ProcessedItemContext context) {
+        return createPrototype(protein, surface, exposedAtoms, null, context)
+    }
+
+    /**
+     * Prototype for calculating feature vectors only for given SAS points (see createInstanceForSurfaceRegion()).
+     * Deep layer is calculated only in the neighbourhood of the points.
+     */
+    FeatureExtractor createPrototypeForSurfaceRegion(Protein protein, Atoms points, ProcessedItemContext context) {
+        return createPrototype(protein, null, null, points, context)
+    }
+
+    /**
+     * Like createPrototypeForSurfaceRegion(protein, points, context), but with given surface
+     * (see createPrototypeForProtein(protein, surface, exposedAtoms, context)).
+     */
+    FeatureExtractor createPrototypeForSurfaceRegion(Protein protein, Surface surface, Atoms exposedAtoms, Atoms points, ProcessedItemContext context) {
+        return createPrototype(protein, surface, exposedAtoms, points, context)
+    }
+
+    private FeatureExtractor createPrototype(Protein protein, Surface surface, Atoms exposedAtoms, Atoms regionPoints, ProcessedItemContext context) {
+        if (surface != null && params.point_sampling_strategy != "surface") {
+            throw new PrankException("Feature calculation for given surface requires point_sampling_strategy='surface'")
+        }
+
+        PrankFeatureExtractor res = new PrankFeatureExtractor(protein, params)
         res.forTraining = this.forTraining
+        res.surface = surface
+        res.exposedAtoms = exposedAtoms
 
-        protein.calcuateSurfaceAndExposedAtoms()
-        double thickness = max(params.protrusion_radius, params.pair_hist_radius)
-        res.deepLayer = protein.proteinAtoms.cutoutShell(protein.exposedAtoms, thickness).buildKdTree()
+        res.deepLayer = calcDeepLayer(protein.proteinAtoms, res.getExposedAtoms(), params, regionPoints)
+        res.getExposedAtoms().withKdTree() // shared by instances, features only read it
 
         // init features
         for (FeatureSetup.Feature feature : featureSetup.enabledFeatures) {
@@ -156,6 +235,26 @@ class PrankFeatureExtractor extends FeatureExtractor<PrankFeatureVector> impleme
         return res
     }
 
+    /**
+     * Protein atoms that are close enough to the surface to be in the neighbourhood of SAS points
+     */
+    static Atoms calcDeepLayer(Protein protein, Params params) {
+        return calcDeepLayer(protein.proteinAtoms, protein.exposedAtoms, params, null)
+    }
+
+    /**
+     * @param regionPoints if provided, only the part of the layer in the neighbourhood of these points is calculated
+     */
+    private static Atoms calcDeepLayer(Atoms atoms, Atoms exposedAtoms, Params params, Atoms regionPoints) {
+        double thickness = max(params.protrusion_radius, params.pair_hist_radius)
+
+        if (regionPoints != null) {
+            atoms = atoms.cutoutShell(regionPoints, thickness)
+            exposedAtoms = exposedAtoms.cutoutShell(regionPoints, 2 * thickness)
+        }
+        return atoms.cutoutShell(exposedAtoms, thickness).buildKdTree()
+    }
+
     @Override
     void prepareProteinPrototypeForPockets() {
         pocketPointSampler = PointSampler.create(protein, forTraining)
@@ -163,7 +262,7 @@ class PrankFeatureExtractor extends FeatureExtractor<PrankFeatureVector> impleme
         if (params.deep_surrounding) {
             surfaceLayerAtoms = deepLayer
         } else {
-            surfaceLayerAtoms = protein.exposedAtoms
+            surfaceLayerAtoms = getExposedAtoms()
         }
 
         log.debug "surfaceLayerAtoms: $surfaceLayerAtoms.count"
@@ -180,6 +279,8 @@ class PrankFeatureExtractor extends FeatureExtractor<PrankFeatureVector> impleme
     private PrankFeatureExtractor(Protein protein, Pocket pocket, PrankFeatureExtractor proteinPrototype) {
         this.protein = protein
         this.pocket = pocket
+        this.params = proteinPrototype.params
+        initParams()
 
         this.calculatedFeatureVectorHeader = proteinPrototype.calculatedFeatureVectorHeader
         this.finalFeatureVectorHeader      = proteinPrototype.finalFeatureVectorHeader
@@ -187,6 +288,8 @@ class PrankFeatureExtractor extends FeatureExtractor<PrankFeatureVector> impleme
         this.forTraining                   = proteinPrototype.forTraining
         this.featureSetup                  = proteinPrototype.featureSetup
 
+        this.surface            = proteinPrototype.surface
+        this.exposedAtoms       = proteinPrototype.exposedAtoms
         this.deepLayer          = proteinPrototype.deepLayer
         this.surfaceLayerAtoms  = proteinPrototype.surfaceLayerAtoms
         this.surfaceAtomVectors = proteinPrototype.surfaceAtomVectors
@@ -222,8 +325,7 @@ class PrankFeatureExtractor extends FeatureExtractor<PrankFeatureVector> impleme
         PrankFeatureExtractor res = new PrankFeatureExtractor(protein, null, this)
 
         // init for whole protein
-        protein.calcuateSurfaceAndExposedAtoms()
-        res.surfaceLayerAtoms = protein.exposedAtoms
+        res.surfaceLayerAtoms = getExposedAtoms()
 
         if (params.point_sampling_strategy != "surface") {
             res.surfaceLayerAtoms = protein.proteinAtoms
@@ -231,10 +333,12 @@ class PrankFeatureExtractor extends FeatureExtractor<PrankFeatureVector> impleme
 
         res.preCalculateVectorsForAtoms(res.surfaceLayerAtoms)
 
-        if (sampledPoints == null) {
-            res.sampledPoints = SampledPoints.fromProtein(protein, forTraining, params)
-        } else {
+        if (sampledPoints != null) {
             res.sampledPoints = new SampledPoints(sampledPoints)
+        } else if (surface != null) {
+            res.sampledPoints = new SampledPoints(surface.points)
+        } else {
+            res.sampledPoints = SampledPoints.fromProtein(protein, forTraining, params)
         }
 
         log.debug "proteinAtoms:$protein.proteinAtoms.count  exposedAtoms:$res.surfaceLayerAtoms.count  deepLayer:$res.deepLayer.count sasPoints:$res.sampledPoints.points.count"
@@ -242,6 +346,27 @@ class PrankFeatureExtractor extends FeatureExtractor<PrankFeatureVector> impleme
         return res
     }
 
+    /**
+     * Used for predictions on a part of the protein surface.
+     * Like createInstanceForWholeProtein(points), but atom vectors are calculated only for exposed atoms
+     * in the neighbourhood of given points (vectors of given points are the same).
+     */
+    FeatureExtractor createInstanceForSurfaceRegion(Atoms points) {
+        PrankFeatureExtractor res = new PrankFeatureExtractor(protein, null, this)
+
+        if (params.point_sampling_strategy != "surface") {
+            throw new PrankException("Feature calculation for surface region requires point_sampling_strategy='surface'")
+        }
+
+        res.surfaceLayerAtoms = getExposedAtoms().cutoutShell(points, NEIGH_CUTOFF_DIST)
+        res.preCalculateVectorsForAtoms(res.surfaceLayerAtoms)
+        res.sampledPoints = new SampledPoints(points)
+
+        log.debug "surface region - exposedAtoms:$res.surfaceLayerAtoms.count sasPoints:$points.count"
+
+        return res
+    }
+
     /**
      * finalize feature calculators and conditionally clear secondary data
      */
@@ -280,8 +405,9 @@ class PrankFeatureExtractor extends FeatureExtractor<PrankFeatureVector> impleme
      * @param fromVectors feature vectors of neighbouring atoms,  must match atoms
      * @return
      */
-    private PrankFeatureVector calcSasFeatVectorFromAtomVectors(Atom point, Atoms neighbourhoodAtoms, Map<Integer, PrankFeatureVector> fromVectors) {
-        PrankFeatureVector res = new PrankFeatureVector(calculatedFeatureVectorHeader)
+    private PrankFeatureVector calcSasFeatVectorFromAtomVectors(Atom point, Atoms neighbourhoodAtoms, Map<Integer, PrankFeatureVector> fromVectors, FeatureExtractionWorkspace workspace) {
+        PrankFeatureVector res = workspace.clearedSasVector(calculatedFeatureVectorHeader)
+        double[] resArray = res.array
 
         // aggregate vectors from neighbourhood atoms
 
@@ -303,7 +429,10 @@ class PrankFeatureExtractor extends FeatureExtractor<PrankFeatureVector> impleme
             double weight = calcWeight(dist)
             weightSum += weight
 
-            res.add( props.copy().multiply(weight) )
+            double[] propsArray = props.array
+            for (int i = 0; i != resArray.length; ++i) {
+                resArray[i] += propsArray[i] * weight
+            }
         }
 
         if (AVERAGE_FEAT_VECTORS) {
@@ -334,12 +463,15 @@ class PrankFeatureExtractor extends FeatureExtractor<PrankFeatureVector> impleme
 
         // calculate SAS features
 
-        SasFeatureCalculationContext context = new SasFeatureCalculationContext(protein, neighbourhoodAtoms, this)
+        SasFeatureCalculationContext context = workspace.sasContext
+        context.protein = protein
+        context.neighbourhoodAtoms = neighbourhoodAtoms
+        context.extractor = this
+        context.exposedAtoms = getExposedAtoms()
         for (FeatureSetup.Feature feature : featureSetup.enabledSasFeatures) {
             try {
-                double[] values = feature.calculator.calculateForSasPoint(point, context)
-                feature.checkCorrectLength(values)
-                res.valueVector.setValues(feature.startIndex, values)
+                int written = feature.calculator.calculateForSasPoint(point, context, resArray, feature.startIndex)
+                feature.checkCorrectLength(written)
             } catch (Exception e) {
                 throw new PrankException("Failed to calculate feature " + feature.name, e)
             }
@@ -356,7 +488,7 @@ class PrankFeatureExtractor extends FeatureExtractor<PrankFeatureVector> impleme
      * @param store
      * @return
      */
-    private PrankFeatureVector calcFeatureVectorForPoint(Atom point, Atoms neighbourhoodAtoms) {
+    private PrankFeatureVector calcFeatureVectorForPoint(Atom point, Atoms neighbourhoodAtoms, FeatureExtractionWorkspace workspace) {
         Map<Integer, PrankFeatureVector> fromVectors
 
         fromVectors = surfaceAtomVectors
@@ -365,7 +497,7 @@ class PrankFeatureExtractor extends FeatureExtractor<PrankFeatureVector> impleme
             log.error "!!! can't calculate representation from no vectors"
         }
 
-        return calcSasFeatVectorFromAtomVectors(point, neighbourhoodAtoms, fromVectors)
+        return calcSasFeatVectorFromAtomVectors(point, neighbourhoodAtoms, fromVectors, workspace)
     }
 
     private double calcWeight(double dist) {
@@ -382,18 +514,26 @@ class PrankFeatureExtractor extends FeatureExtractor<PrankFeatureVector> impleme
     }
 
     /**
+     * Intermediate vectors and contexts are taken from the workspace of the current thread,
+     * only the returned vector is newly allocated.
+     *
      * @param point SAS point
      * @return
      */
     @Override
     PrankFeatureVector calcFeatureVector(Atom point) {
+        FeatureExtractionWorkspace workspace = FeatureExtractionWorkspace.get()
 
         Atoms neighbourhood = surfaceLayerAtoms.cutoutSphere(point, NEIGH_CUTOFF_DIST)
 
-        PrankFeatureVector vector = calcFeatureVectorForPoint(point, neighbourhood)
+        PrankFeatureVector calculated = calcFeatureVectorForPoint(point, neighbourhood, workspace)
+        workspace.releaseContexts()
 
+        PrankFeatureVector vector
         if (featureSetup.filteringEnabled) {
-            vector = reduceToFilteredVector(vector)
+            vector = reduceToFilteredVector(calculated)
+        } else {
+            vector = calculated.copy()
         }
 
         if (CHECK_VECTORS) {
@@ -66,9 +66,26 @@ public class PrankFeatureVector extends FeatureVector implements Cloneable {
 
         // Calculate atom features
 
-        AtomFeatureCalculationContext context = new AtomFeatureCalculationContext(extractor.getProtein(), residueCode);
+        AtomFeatureCalculationContext context = FeatureExtractionWorkspace.get().getAtomContext();
+        context.setProtein(extractor.getProtein());
+        context.setExposedAtoms(extractor.getExposedAtoms());
+        context.setResidueCode(residueCode);
+
+        FeatureSetup setup = extractor.getFeatureSetup();
+
+        // memoized features depending only on atom type
+        AtomTypeFeatureTable atomTypeTable = setup.getAtomTypeTable();
+        if (atomTypeTable != null) {
+            double[] slice = atomTypeTable.getValues(atom, context);
+            double[] data = valueVector.getData();
+            int offset = 0;
+            for (FeatureSetup.Feature feature : setup.getEnabledAtomTypeFeatures()) {
+                System.arraycopy(slice, offset, data, feature.getStartIndex(), feature.getLength());
+                offset += feature.getLength();
+            }
+        }
 
-        for (FeatureSetup.Feature feature : extractor.getFeatureSetup().getEnabledAtomFeatures()) {
+        for (FeatureSetup.Feature feature : setup.getEnabledOtherAtomFeatures()) {
             double[] values = feature.getCalculator().calculateForAtom(atom, context);
 
             feature.checkCorrectLength(values);
@@ -3,6 +3,7 @@ package cz.siret.prank.features.api
 import cz.siret.prank.domain.Protein
 import cz.siret.prank.program.params.Parametrized
 import groovy.transform.CompileStatic
+import org.biojava.nbio.structure.Atom
 
 /**
  * Common FeatureCalculator implementation base.
@@ -35,4 +36,14 @@ abstract class AbstractFeatureCalculator implements FeatureCalculator, Parametri
         // implementation optional
     }
 
+    /**
+     * Default implementation delegates to calculateForSasPoint(sasPoint, context)
+     */
+    @Override
+    int calculateForSasPoint(Atom sasPoint, SasFeatureCalculationContext context, double[] out, int offset) {
+        double[] values = calculateForSasPoint(sasPoint, context)
+        System.arraycopy(values, 0, out, offset, values.length)
+        return values.length
+    }
+
 }
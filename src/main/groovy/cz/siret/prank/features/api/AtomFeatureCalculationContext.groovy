@@ -1,6 +1,7 @@
 package cz.siret.prank.features.api
 
 import cz.siret.prank.domain.Protein
+import cz.siret.prank.geom.Atoms
 import cz.siret.prank.utils.PdbUtils
 import groovy.transform.CompileStatic
 import org.biojava.nbio.structure.Atom
@@ -18,6 +19,12 @@ class AtomFeatureCalculationContext {
      */
     String residueCode
 
+    /**
+     * Solvent exposed atoms of the surface for which feature vectors are calculated.
+     * May differ from protein.exposedAtoms (e.g. coarse surface in coarse-to-fine prediction).
+     */
+    Atoms exposedAtoms
+
     AtomFeatureCalculationContext(Protein protein, String residueCode) {
         this.protein = protein
         this.residueCode = residueCode
@@ -26,5 +33,9 @@ class AtomFeatureCalculationContext {
     AtomFeatureCalculationContext(Protein protein, Atom atom) {
         this(protein, PdbUtils.getCorrectedAtomResidueCode(atom))
     }
+
+    Atoms getExposedAtoms() {
+        return exposedAtoms != null ? exposedAtoms : protein.exposedAtoms
+    }
     
 }
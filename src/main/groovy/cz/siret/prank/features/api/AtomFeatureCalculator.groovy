@@ -19,6 +19,22 @@ abstract class AtomFeatureCalculator extends AbstractFeatureCalculator {
         return FeatureCalculator.Type.ATOM
     }
 
+    /**
+     * Override to return true if values of the feature depend only on atom type (residue code, atom name and element)
+     * and on the configuration returned by getAtomTypeConfig(). Values of such features are calculated once per
+     * atom type and memoized in process-wide AtomTypeFeatureTable.
+     */
+    boolean isAtomTypeFeature() {
+        return false
+    }
+
+    /**
+     * Configuration of atom type feature (values of params it depends on), identifies memoized values.
+     */
+    String getAtomTypeConfig() {
+        return header.join(',')
+    }
+
     @Override
     double[] calculateForSasPoint(Atom sasPoint, SasFeatureCalculationContext context) {
         throw new UnsupportedOperationException()
@@ -67,6 +67,16 @@ interface FeatureCalculator {
      */
     double[] calculateForSasPoint(Atom sasPoint, SasFeatureCalculationContext context)
 
+    /**
+     * Variant of calculateForSasPoint() that writes values directly to the provided output array.
+     * Override to avoid allocating result array for every SAS point.
+     *
+     * @param out output array (feature vector of the SAS point)
+     * @param offset index in out where values of this feature start
+     * @return number of written values, must be the same as length of the header
+     */
+    int calculateForSasPoint(Atom sasPoint, SasFeatureCalculationContext context, double[] out, int offset)
+
 
     /**
      * Must return array of the same length for every atom and protein.
@@ -14,6 +14,12 @@ class SasFeatureCalculationContext {
     Protein protein
     Atoms neighbourhoodAtoms
 
+    /**
+     * Solvent exposed atoms of the surface for which feature vectors are calculated.
+     * May differ from protein.exposedAtoms (e.g. coarse surface in coarse-to-fine prediction).
+     */
+    Atoms exposedAtoms
+
     /**
      * this is kind of a backdoor, should be avoided when implementing new features
      */
@@ -25,5 +31,9 @@ class SasFeatureCalculationContext {
         this.neighbourhoodAtoms = neighbourhoodAtoms
         this.extractor = extractor
     }
+
+    Atoms getExposedAtoms() {
+        return exposedAtoms != null ? exposedAtoms : protein.exposedAtoms
+    }
     
 }
@@ -1,7 +1,9 @@
 package cz.siret.prank.features.api.wrappers
 
 import cz.siret.prank.domain.Protein
+import cz.siret.prank.features.FeatureExtractionWorkspace
 import cz.siret.prank.features.api.*
+import cz.siret.prank.utils.PdbUtils
 import groovy.transform.CompileStatic
 import org.biojava.nbio.structure.Atom
 
@@ -44,10 +46,35 @@ class AtomicToSasFeatWrapper extends SasFeatureCalculator {
         Atom closestAtom = context.neighbourhoodAtoms.findNearest(sasPoint)
 
         if (closestAtom != null) {
-            return delegate.calculateForAtom(closestAtom, new AtomFeatureCalculationContext(context.protein, closestAtom))
+            AtomFeatureCalculationContext atomContext = new AtomFeatureCalculationContext(context.protein, closestAtom)
+            atomContext.exposedAtoms = context.exposedAtoms
+            return delegate.calculateForAtom(closestAtom, atomContext)
         } else {
             return new double[header.size()]
         }
     }
 
+    /**
+     * Uses atom context from the workspace of the current thread
+     */
+    @Override
+    int calculateForSasPoint(Atom sasPoint, SasFeatureCalculationContext context, double[] out, int offset) {
+        Atom closestAtom = context.neighbourhoodAtoms.findNearest(sasPoint)
+
+        if (closestAtom != null) {
+            AtomFeatureCalculationContext atomContext = FeatureExtractionWorkspace.get().atomContext
+            atomContext.protein = context.protein
+            atomContext.exposedAtoms = context.exposedAtoms
+            atomContext.residueCode = PdbUtils.getCorrectedAtomResidueCode(closestAtom)
+
+            double[] values = delegate.calculateForAtom(closestAtom, atomContext)
+            System.arraycopy(values, 0, out, offset, values.length)
+            return values.length
+        } else {
+            int n = header.size()
+            Arrays.fill(out, offset, offset + n, 0d)
+            return n
+        }
+    }
+
 }
@@ -45,6 +45,7 @@ class SasToAtomicFeatWrapper extends AtomFeatureCalculator {
     double[] calculateForAtom(Atom proteinSurfaceAtom, AtomFeatureCalculationContext context) {
         SasFeatureCalculationContext ctx = new SasFeatureCalculationContext(context.protein,
                 null, null) // !! make sure wrapped feature doesn't use these
+        ctx.exposedAtoms = context.exposedAtoms
 
         return delegate.calculateForSasPoint(proteinSurfaceAtom, ctx)
     }
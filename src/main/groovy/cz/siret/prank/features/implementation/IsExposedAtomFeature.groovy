@@ -18,7 +18,7 @@ class IsExposedAtomFeature extends AtomFeatureCalculator {
 
     @Override
     double[] calculateForAtom(Atom proteinSurfaceAtom, AtomFeatureCalculationContext context) {
-        boolean exposed = context.protein.exposedAtoms.contains(proteinSurfaceAtom)
+        boolean exposed = context.exposedAtoms.contains(proteinSurfaceAtom)
         return [exposed ? 1d : 0d] as double[]
     }
     
@@ -19,7 +19,7 @@ class NearestExposedDistSasFeature extends SasFeatureCalculator {
 
     @Override
     double[] calculateForSasPoint(Atom sasPoint, SasFeatureCalculationContext context) {
-        double dist = context.protein.exposedAtoms.dist(sasPoint)
+        double dist = context.exposedAtoms.dist(sasPoint)
         return [dist] as double[]
     }
     
@@ -32,8 +32,18 @@ class ProtrusionFeature extends SasFeatureCalculator implements Parametrized {
         //int MAX_PROTRUSION_ATOMS = 250
         //Atoms deepLayer = this.deepLayer.withKdTree().kdTree.findNearestNAtoms(point, MAX_PROTRUSION_ATOMS, false)
 
-        double protAtoms = context.extractor.deepLayer.cutoutSphere(sasPoint, params.protrusion_radius).count  // deepLayer is previously generated in PrankFeatureExtractor, depth is params.protrusion_radius
-        return [protAtoms] as double[]
+        return [calcProtrusion(sasPoint, context)] as double[]
+    }
+
+    @Override
+    int calculateForSasPoint(Atom sasPoint, SasFeatureCalculationContext context, double[] out, int offset) {
+        out[offset] = calcProtrusion(sasPoint, context)
+        return 1
+    }
+
+    private double calcProtrusion(Atom sasPoint, SasFeatureCalculationContext context) {
+        // deepLayer is previously generated in PrankFeatureExtractor, depth is params.protrusion_radius
+        return context.extractor.deepLayer.cutoutSphere(sasPoint, params.protrusion_radius).count
     }
 
 }
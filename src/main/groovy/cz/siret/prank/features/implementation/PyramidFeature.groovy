@@ -1,7 +1,5 @@
 package cz.siret.prank.features.implementation
 
-import cz.siret.prank.domain.Protein
-import cz.siret.prank.features.api.ProcessedItemContext
 import cz.siret.prank.features.api.SasFeatureCalculationContext
 import cz.siret.prank.features.api.SasFeatureCalculator
 import cz.siret.prank.geom.Atoms
@@ -38,15 +36,10 @@ class PyramidFeature extends SasFeatureCalculator implements Parametrized {
         HEADER
     }
 
-    @Override
-    void preProcessProtein(Protein protein, ProcessedItemContext context) {
-        protein.exposedAtoms.buildKdTree()
-    }
-
     @Override
     double[] calculateForSasPoint(Atom sasPoint, SasFeatureCalculationContext context) {
 
-        Atoms nearest = context.protein.exposedAtoms.kdTree.findNearestNAtoms(sasPoint, 9, true)
+        Atoms nearest = context.exposedAtoms.withKdTree().kdTree.findNearestNAtoms(sasPoint, 9, true)
 
         Pyramid p1 = new Pyramid(sasPoint, nearest[0], nearest[1], nearest[2])
         Pyramid p2 = new Pyramid(sasPoint, nearest[3], nearest[4], nearest[5])
@@ -11,9 +11,6 @@ import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
 import org.biojava.nbio.structure.Atom
 
-import static AsaFeature.ProtAsa
-import static AsaFeature.calcProtAsa
-
 /**
  * Local protein solvent accessible surface area feature
  */
@@ -34,20 +31,22 @@ class Asa2Feature extends SasFeatureCalculator implements Parametrized, Writable
 
     @Override
     void preProcessProtein(Protein protein, ProcessedItemContext context) {
-        protein.secondaryData.computeIfAbsent("prot_atom_asa", { k -> calcProtAsa(protein, params.feat_asa_probe_radius) })
-        protein.secondaryData.computeIfAbsent("prot_atom_asa2", { k -> calcProtAsa(protein, params.feat_asa_probe_radius2) })
-
+        AtomAsa.forProtein(protein, params.feat_asa_probe_radius)
+        AtomAsa.forProtein(protein, params.feat_asa_probe_radius2)
     }
 
     @Override
     double[] calculateForSasPoint(Atom sasPoint, SasFeatureCalculationContext context) {
-        Atoms localAtoms = context.protein.exposedAtoms.cutoutSphere(sasPoint, params.feat_asa_neigh_radius)
-
-        ProtAsa protAsa = (ProtAsa) context.protein.secondaryData.get("prot_atom_asa")
-        double localAsa = (double) localAtoms.collect { Atom a -> protAsa.asaByAtom.get(a.PDBserial) ?: 0 }.sum(0)
-
-        ProtAsa protAsa2 = (ProtAsa) context.protein.secondaryData.get("prot_atom_asa2")
-        double localAsa2 = (double) localAtoms.collect { Atom a -> protAsa2.asaByAtom.get(a.PDBserial) ?: 0 }.sum(0)
+        Atoms localAtoms = context.exposedAtoms.cutoutSphere(sasPoint, params.feat_asa_neigh_radius)
+        AtomAsa asa = AtomAsa.forProtein(context.protein, params.feat_asa_probe_radius)
+        AtomAsa asa2 = AtomAsa.forProtein(context.protein, params.feat_asa_probe_radius2)
+
+        double localAsa = 0
+        double localAsa2 = 0
+        for (Atom a : localAtoms) {
+            localAsa += asa.get(a)
+            localAsa2 += asa2.get(a)
+        }
 
         return [localAsa, localAsa2] as double[]
     }
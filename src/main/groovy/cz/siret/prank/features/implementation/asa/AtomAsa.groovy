@@ -0,0 +1,162 @@
+package cz.siret.prank.features.implementation.asa
+
+import cz.siret.prank.domain.Protein
+import cz.siret.prank.geom.Atoms
+import cz.siret.prank.geom.Surface
+import cz.siret.prank.program.params.Params
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+import org.biojava.nbio.structure.Atom
+import org.biojava.nbio.structure.Group
+import org.biojava.nbio.structure.StructureTools
+import org.biojava.nbio.structure.asa.AsaCalculator
+
+/**
+ * Solvent accessible surface area of protein atoms, shared by ASA features through Protein.secondaryData.
+ *
+ * With feat_asa_from_surface it is taken from the numerical surface already computed for the protein
+ * (Protein.accessibleSurface) if it was computed with the same probe radius for all protein atoms.
+ * Otherwise it is calculated by BioJava AsaCalculator (using feat_asa_threads).
+ */
+@Slf4j
+@CompileStatic
+class AtomAsa {
+
+    private static final String KEY_PREFIX = "atom_asa_"
+
+    /** max vdw radius of protein atom */
+    private static final double MAX_ATOM_RADIUS = 2.5
+
+    /** ASA indexed by PDB serial number of the atom (0 for atoms not included) */
+    private final double[] asaBySerial
+
+    final double probeRadius
+
+    AtomAsa(double[] asaBySerial, double probeRadius) {
+        this.asaBySerial = asaBySerial
+        this.probeRadius = probeRadius
+    }
+
+    double get(Atom atom) {
+        int serial = atom.PDBserial
+        return (serial >= 0 && serial < asaBySerial.length) ? asaBySerial[serial] : 0d
+    }
+
+    /**
+     * @return sum of ASA of atoms of the group
+     */
+    double getGroupAsa(Group group) {
+        double sum = 0
+        for (Atom a : group.atoms) {
+            sum += get(a)
+        }
+        return sum
+    }
+
+//===========================================================================================================//
+
+    /**
+     * @return ASA for given probe radius (calculated once per protein)
+     */
+    static AtomAsa forProtein(Protein protein, double probeRadius) {
+        String key = KEY_PREFIX + probeRadius
+        AtomAsa res = (AtomAsa) protein.secondaryData.get(key)
+        if (res == null) {
+            res = calculate(protein, probeRadius)
+            protein.secondaryData.put(key, res)
+        }
+        return res
+    }
+
+    static AtomAsa calculate(Protein protein, double probeRadius) {
+        if (Params.inst.feat_asa_from_surface) {
+            Surface surface = protein.accessibleSurface
+            Atoms protAtoms = protein.proteinAtoms
+            if (surface.solventRadius == probeRadius && surface.tesselationLevel == Params.inst.tessellation
+                    && surface.atomAreas != null && surface.atoms != null
+                    && surface.atoms.count == protAtoms.count) {
+                return fromAtoms(surface.atoms.list.toArray(new Atom[0]), surface.atomAreas, probeRadius)
+            }
+            log.debug "Surface not usable for ASA with probe radius {}, calculating ASA", probeRadius
+        }
+
+        return calculateStandalone(protein, probeRadius)
+    }
+
+    static AtomAsa calculateStandalone(Protein protein, double probeRadius) {
+        int nSpherePoints = AsaCalculator.DEFAULT_N_SPHERE_POINTS
+        int threads = Math.max(1, Params.inst.feat_asa_threads)
+        boolean hetAtoms = false
+
+        Atom[] protAtoms = StructureTools.getAllNonHAtomArray(protein.structure, hetAtoms)
+        AsaCalculator asaCalculator = new AsaCalculator(protein.structure, probeRadius, nSpherePoints, threads, hetAtoms)
+        double[] atomAsas = asaCalculator.calculateAsas()
+
+        return fromAtoms(protAtoms, atomAsas, probeRadius)
+    }
+
+    /**
+     * ASA for the next frame of a trajectory (structure with the same atoms and serial numbers, see IncrementalFrames).
+     * ASA is recalculated only for atoms within reach of moved atoms, other values are reused.
+     *
+     * @param moved previous and current positions of moved atoms
+     */
+    AtomAsa updateForFrame(Protein frame, Atoms moved) {
+        // atoms further apart than this do not occlude each other
+        double reach = 2 * (MAX_ATOM_RADIUS + probeRadius)
+
+        Atom[] allAtoms = StructureTools.getAllNonHAtomArray(frame.structure, false)
+        double[] res = Arrays.copyOf(asaBySerial, Math.max(asaBySerial.length, maxSerial(allAtoms) + 1))
+
+        Atoms affected = new Atoms(Arrays.asList(allAtoms)).cutoutShell(moved, reach)
+        if (!affected.empty) {
+            // affected atoms together with all atoms that can occlude them
+            Atom[] localAtoms = new Atoms(Arrays.asList(allAtoms)).cutoutShell(affected, reach).list.toArray(new Atom[0])
+            int threads = Math.max(1, Params.inst.feat_asa_threads)
+            double[] localAsas = new AsaCalculator(localAtoms, probeRadius, AsaCalculator.DEFAULT_N_SPHERE_POINTS, threads).calculateAsas()
+
+            Set<Atom> affectedSet = Collections.newSetFromMap(new IdentityHashMap<Atom, Boolean>())
+            affectedSet.addAll(affected.list)
+            for (int i = 0; i != localAtoms.length; ++i) {
+                int serial = localAtoms[i].PDBserial
+                if (serial >= 0 && affectedSet.contains(localAtoms[i])) {
+                    res[serial] = localAsas[i]
+                }
+            }
+        }
+
+        log.debug "ASA updated for {} atoms", affected.count
+        return new AtomAsa(res, probeRadius)
+    }
+
+    private static int maxSerial(Atom[] atoms) {
+        int res = 0
+        for (Atom a : atoms) {
+            res = Math.max(res, a.PDBserial)
+        }
+        return res
+    }
+
+    private static AtomAsa fromAtoms(Atom[] atoms, double[] asas, double probeRadius) {
+        double[] asaBySerial = new double[maxSerial(atoms) + 1]
+        for (int i = 0; i != atoms.length; ++i) {
+            int serial = atoms[i].PDBserial
+            if (serial >= 0) {
+                asaBySerial[serial] = asas[i]
+            }
+        }
+        return new AtomAsa(asaBySerial, probeRadius)
+    }
+
+    /**
+     * Carries ASA over from the previous frame of a trajectory (see updateForFrame()).
+     */
+    static void carryOverToFrame(Protein previousFrame, Protein frame, Atoms moved) {
+        for (Map.Entry<String, Object> e : previousFrame.secondaryData.entrySet()) {
+            if (e.key.startsWith(KEY_PREFIX) && e.value instanceof AtomAsa) {
+                frame.secondaryData.put(e.key, ((AtomAsa) e.value).updateForFrame(frame, moved))
+            }
+        }
+    }
+
+}
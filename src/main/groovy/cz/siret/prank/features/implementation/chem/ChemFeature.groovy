@@ -21,6 +21,11 @@ class ChemFeature extends AtomFeatureCalculator {
         return ChemVector.getHeader()
     }
 
+    @Override
+    boolean isAtomTypeFeature() {
+        return true
+    }
+
     @Override
     double[] calculateForAtom(Atom proteinSurfaceAtom, AtomFeatureCalculationContext context) {
 
@@ -41,7 +41,7 @@ class ConservCloud2SF extends SasFeatureCalculator implements Parametrized {
         double exp = params.conservation_exponent
 
 
-        Atoms exp_atoms = context.protein.exposedAtoms.cutoutSphere(sasPoint, radius)
+        Atoms exp_atoms = context.exposedAtoms.cutoutSphere(sasPoint, radius)
         List<Residue> exp_residues = context.protein.residues.getDistinctForAtoms(exp_atoms)
 
         List<Double> scores = exp_residues.collect {
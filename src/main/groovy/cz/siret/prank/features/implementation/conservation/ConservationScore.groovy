@@ -1,5 +1,7 @@
 package cz.siret.prank.features.implementation.conservation
 
+import com.google.common.hash.Hasher
+import com.google.common.hash.Hashing
 import com.univocity.parsers.tsv.TsvParser
 import com.univocity.parsers.tsv.TsvParserSettings
 import cz.siret.prank.domain.Protein
@@ -15,12 +17,16 @@ import cz.siret.prank.program.params.Params
 import cz.siret.prank.utils.Futils
 import cz.siret.prank.utils.PdbUtils
 import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
 import groovy.util.logging.Slf4j
 import org.biojava.nbio.structure.Chain
 import org.biojava.nbio.structure.Group
 import org.biojava.nbio.structure.GroupType
 import org.biojava.nbio.structure.ResidueNumber
 
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+
 @Slf4j
 @CompileStatic
 class ConservationScore implements Parametrized {
@@ -29,9 +35,14 @@ class ConservationScore implements Parametrized {
     public static final String CONSERV_LOADED_KEY = "CONSERVATION_LOADED"
     public static final String CONSERV_SCORE_KEY = "CONSERVATION_SCORE"
 
-    private Map<ResidueNumberWrapper, Double> scores
+    /** conservation scores of matched residues indexed by residue ordinal */
+    private final double[] scores
+
+    /** residue number -> ordinal in scores */
+    private final Map<ResidueNumber, Integer> index
 
-    private ConservationScore(Map<ResidueNumberWrapper, Double> scores) {
+    private ConservationScore(Map<ResidueNumber, Integer> index, double[] scores) {
+        this.index = index
         this.scores = scores
     }
 
@@ -47,19 +58,32 @@ class ConservationScore implements Parametrized {
         }
     }
 
-    double getScoreForResidue(ResidueNumber residueNum) {
-        return getScoreForResidue(new ResidueNumberWrapper(residueNum))
+    /**
+     * Scores of one chain aligned to amino acid groups of the chain (NaN = not matched)
+     */
+    static class AlignedScores {
+        double[] scores
+        boolean exactMatch
+
+        AlignedScores(double[] scores, boolean exactMatch) {
+            this.scores = scores
+            this.exactMatch = exactMatch
+        }
     }
 
-    double getScoreForResidue(ResidueNumberWrapper residueNum) {
-        Double res = this.scores.get(residueNum)
-        if (res == null) {
+    double getScoreForResidue(ResidueNumber residueNum) {
+        Integer i = index.get(residueNum)
+        if (i == null) {
             return 0
         } else {
-            return res.doubleValue()
+            return scores[i]
         }
     }
 
+    double getScoreForResidue(ResidueNumberWrapper residueNum) {
+        return getScoreForResidue(residueNum.resNum)
+    }
+
     ResidueLabeling<Double> toDoubleLabeling(Protein p) {
         ResidueLabeling<Double> labeling = new ResidueLabeling<>(p.residues.size())
         for (Residue r : p.residues) {
@@ -69,11 +93,15 @@ class ConservationScore implements Parametrized {
     }
 
     Map<ResidueNumberWrapper, Double> getScoreMap() {
-        return this.scores
+        Map<ResidueNumberWrapper, Double> res = new HashMap<>()
+        index.each { ResidueNumber resNum, Integer i ->
+            res.put(new ResidueNumberWrapper(resNum), scores[i])
+        }
+        return res
     }
 
     int size() {
-        return this.scores.size()
+        return this.index.size()
     }
 
     static enum ScoreFormat {
@@ -118,53 +146,68 @@ class ConservationScore implements Parametrized {
 
 
     /**
-     * @param chain Chain from PDB Structure
+     * @param chain amino acid groups of the chain from PDB Structure
      * @param scores Parsed conservation scores.
-     * @param outResult Add matched scores to map (residual number -> conservation score)
+     * @return scores aligned to groups of the chain
      */
-    static void matchSequences(String chainId, List<Group> chain, List<AAScore> scores,
-                               Map<ResidueNumberWrapper, Double> outResult) {
+    static AlignedScores matchSequences(String chainId, List<Group> chain, List<AAScore> scores) {
         log.info "Matching pdb chain $chainId (n={}) with score chain (n={})", chain.size(), scores.size()
 
         // Check if the strings match
-        String pdbChain = chain.collect { group -> PdbUtils.getStandardOneLetterCode(group) }.join("")
+        String pdbChain = chainSequence(chain)
         String scoreChain = scores.collect { ch -> ch.letter.toUpperCase() }.join("")
 
-        log.info "chain $chainId in structure: {}", pdbChain
         log.info "chain $chainId in scoreFile: {}", scoreChain
 
-        pdbChain = FastaExporter.maskFastaChain(pdbChain)
         scoreChain = FastaExporter.maskFastaChain(scoreChain) // note '-' are ignored when loading scoreChain
 
         log.info "masked chain $chainId in structure: {}", pdbChain
         log.info "masked chain $chainId in scoreFile: {}", scoreChain
 
+        double[] res = new double[chain.size()]
+        Arrays.fill(res, Double.NaN)
 
         if (pdbChain.equals(scoreChain)) {  // exact match
             log.info("Exact score sequence match")
             for (int i = 0; i < scores.size(); i++) {
-                outResult.put(new ResidueNumberWrapper(chain.get(i).getResidueNumber()), scores.get(i).score)
+                res[i] = scores.get(i).score
             }
-            return
+            return new AlignedScores(res, true)
         }
 
-        String mismatchMsg = "Score sequence for chain $chainId doesn't match exactly"
-        if (Params.inst.fail_on_conserv_seq_mismatch) { // conditionally fail
-            P2Rank.failStatic(mismatchMsg, log)
-        }
+        failOnMismatch(chainId)
 
-        log.info(mismatchMsg + ". Aligning chains using LCS...")
+        log.info("Aligning chains using LCS...")
         int[][] lcs = calcLongestCommonSubSequence(pdbChain, scoreChain);
 
-        Map<ResidueNumberWrapper, Double> result = matchUsingLcs(chain, scores, pdbChain, scoreChain, lcs)
+        int matched = matchUsingLcs(chain, scores, pdbChain, scoreChain, lcs, res)
 
-        log.info("Score matched for {} residues", result.size())
+        log.info("Score matched for {} residues", matched)
 
-        outResult.putAll(result)
+        return new AlignedScores(res, false)
     }
 
-    private static Map<ResidueNumberWrapper, Double> matchUsingLcs(List<Group> chain, List<AAScore> scores, String pdbChain, String scoreChain, int[][] lcs) {
-        Map<ResidueNumberWrapper, Double> result = new HashMap<>()
+    private static void failOnMismatch(String chainId) {
+        String mismatchMsg = "Score sequence for chain $chainId doesn't match exactly"
+        if (Params.inst.fail_on_conserv_seq_mismatch) { // conditionally fail
+            P2Rank.failStatic(mismatchMsg, log)
+        }
+        log.info(mismatchMsg)
+    }
+
+    /**
+     * @return masked sequence of amino acid groups of the chain
+     */
+    private static String chainSequence(List<Group> chain) {
+        return FastaExporter.maskFastaChain(chain.collect { group -> PdbUtils.getStandardOneLetterCode(group) }.join(""))
+    }
+
+    /**
+     * @param result scores aligned to groups of the chain
+     * @return number of matched residues
+     */
+    private static int matchUsingLcs(List<Group> chain, List<AAScore> scores, String pdbChain, String scoreChain, int[][] lcs, double[] result) {
+        int matched = 0
 
         // debug strings
         StringBuilder sCommom = new StringBuilder(scoreChain.length())
@@ -175,8 +218,8 @@ class ConservationScore implements Parametrized {
         int i = chain.size(), j = scores.size();
         while (i > 0 && j > 0) {
             if (pdbChain.charAt(i - 1) == scoreChain.charAt(j - 1)) {  // Letters are equal.
-                result.put(new ResidueNumberWrapper(chain.get(i - 1).getResidueNumber()),
-                        scores.get(j - 1).score)
+                result[i - 1] = scores.get(j - 1).score
+                matched++
 
                 char c = pdbChain.charAt(i - 1)
                 sCommom.append(c)
@@ -209,7 +252,7 @@ class ConservationScore implements Parametrized {
             log.info "matchSequences/score : " + sScore.toString().reverse()
         }
 
-        return result
+        return matched
     }
 
     static int[][] calcLongestCommonSubSequence(String pdbChain, String scoreChian) {
@@ -240,14 +283,15 @@ class ConservationScore implements Parametrized {
      * @return new instance of ConservationScore (map from residual numbers to conservation scores)
      */
     static ConservationScore loadForProtein(Protein protein, ProcessedItemContext itemContext, ScoreFormat format) throws FileNotFoundException {
-        Map<ResidueNumberWrapper, Double> scores = new HashMap<>()
-
+        Map<ResidueNumber, Integer> index = new HashMap<>()
+        double[] scores = new double[64]
 
         // TODO use protein.getResidueChains() instead and compare, masked sequences should give better match
         
         for (Chain chain : protein.structure.getChains()) {
             String chainId = Struct.getAuthorId(chain) // authorId == chain letter in old PDB model
-            if (chain.getAtomGroups(GroupType.AMINOACID).size() <= 0) {       // TODO this also includes some ligand chains
+            List<Group> groups = chain.getAtomGroups(GroupType.AMINOACID)
+            if (groups.size() <= 0) {       // TODO this also includes some ligand chains
                 log.debug "Skip chain '{}': no amino acids", chainId
                 continue // skip non-amino acid chains
             }
@@ -257,13 +301,22 @@ class ConservationScore implements Parametrized {
                 File scoreFile = ConservationLoader.instance.findConservationFile(itemContext, protein.fileName, chainId)
                 log.info "Loading conservation scores from file [{}]", scoreFile
                 if (scoreFile!=null && scoreFile.exists()) {
-                    List<AAScore> chainScores = loadScoreFile(scoreFile, format)
-
-                    if (log.traceEnabled) {
-                        log.trace "loaded chain scores:\n  {}", chainScores.collect { "$it.index $it.letter $it.score" }.join("\n")
+                    double[] chainScores = loadAlignedScores(chainId, groups, scoreFile, format)
+
+                    for (int i = 0; i < groups.size(); i++) {
+                        if (Double.isNaN(chainScores[i])) continue
+
+                        ResidueNumber resNum = groups.get(i).residueNumber
+                        Integer ord = index.get(resNum)
+                        if (ord == null) {
+                            ord = index.size()
+                            index.put(resNum, ord)
+                            if (ord == scores.length) {
+                                scores = Arrays.copyOf(scores, scores.length * 2)
+                            }
+                        }
+                        scores[ord] = chainScores[i]
                     }
-
-                    matchSequences(chainId, chain.getAtomGroups(GroupType.AMINOACID), chainScores, scores)
                 } else {
                     P2Rank.failStatic("Conservation score file doesn't exist for [protein:$protein.name chain:$chainId] file:[$scoreFile]", log)
                 }
@@ -271,7 +324,106 @@ class ConservationScore implements Parametrized {
                 P2Rank.failStatic("Failed to load conservation file for [protein:$protein.name chain:$chainId]", e, log)
             }
         }
-        return new ConservationScore(scores)
+        return new ConservationScore(index, Arrays.copyOf(scores, index.size()))
+    }
+
+    /**
+     * Loads scores of the chain aligned to its amino acid groups (NaN = not matched),
+     * uses on-disk cache (see params.conservation_cache) if enabled.
+     */
+    @PackageScope
+    static double[] loadAlignedScores(String chainId, List<Group> groups, File scoreFile, ScoreFormat format) {
+        Params params = Params.inst
+        if (!params.conservation_cache) {
+            return matchSequences(chainId, groups, loadScoreFile(scoreFile, format)).scores
+        }
+
+        String cacheFile = null
+        try {
+            String dir = params.conservation_cache_dir ?: System.getProperty('user.home') + '/.p2rank/conservation_cache'
+            if (Futils.preparePrivateDir(dir)) {
+                cacheFile = "$dir/${cacheKey(groups, scoreFile, format)}.bin"
+            } else {
+                log.warn "Conservation cache dir [{}] is not safe to use, conservation cache disabled", dir
+            }
+            if (cacheFile != null && Futils.exists(cacheFile)) {
+                AlignedScores cached = readCached(cacheFile)
+                if (cached.scores.length == groups.size()) {
+                    log.info "Using cached aligned conservation scores [{}]", cacheFile
+                    if (!cached.exactMatch) {
+                        failOnMismatch(chainId)
+                    }
+                    return cached.scores
+                }
+            }
+        } catch (Exception e) {
+            log.debug("Failed to load cached conservation scores [$cacheFile]", e)
+        }
+
+        AlignedScores aligned = matchSequences(chainId, groups, loadScoreFile(scoreFile, format))
+
+        if (cacheFile != null) {
+            storeCached(cacheFile, aligned)
+        }
+        return aligned.scores
+    }
+
+//===========================================================================================================//
+
+    private static final int CACHE_FORMAT_VERSION = 1
+
+    /**
+     * Key depends on the sequence of the chain in the structure and on the content of the score file.
+     */
+    private static String cacheKey(List<Group> groups, File scoreFile, ScoreFormat format) {
+        Hasher hasher = Hashing.sha256().newHasher()
+        hasher.putInt(CACHE_FORMAT_VERSION)
+        hasher.putString(format.name(), StandardCharsets.UTF_8)
+        hasher.putInt(groups.size())
+        hasher.putString(chainSequence(groups), StandardCharsets.UTF_8)
+        hasher.putBytes(Files.readAllBytes(scoreFile.toPath()))
+        return hasher.hash().toString()
+    }
+
+    private static AlignedScores readCached(String file) {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))
+        try {
+            if (input.readInt() != CACHE_FORMAT_VERSION) {
+                throw new IOException("Invalid format version")
+            }
+            boolean exactMatch = input.readBoolean()
+            int n = input.readInt()
+            double[] scores = new double[n]
+            for (int i = 0; i < n; i++) {
+                scores[i] = input.readDouble()
+            }
+            return new AlignedScores(scores, exactMatch)
+        } finally {
+            input.close()
+        }
+    }
+
+    private static void storeCached(String file, AlignedScores aligned) {
+        try {
+            Futils.mkdirs(Futils.dir(file))
+            String tmpFile = file + '.' + UUID.randomUUID() + '.tmp'
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))
+            try {
+                out.writeInt(CACHE_FORMAT_VERSION)
+                out.writeBoolean(aligned.exactMatch)
+                out.writeInt(aligned.scores.length)
+                for (double score : aligned.scores) {
+                    out.writeDouble(score)
+                }
+            } finally {
+                out.close()
+            }
+            if (!new File(tmpFile).renameTo(new File(file))) {
+                Futils.delete(tmpFile)
+            }
+        } catch (Exception e) {
+            log.debug("Failed to store aligned conservation scores to cache [$file]", e)
+        }
     }
 
-}
\ No newline at end of file
+}
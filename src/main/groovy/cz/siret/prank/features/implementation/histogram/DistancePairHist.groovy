@@ -67,6 +67,19 @@ class DistancePairHist {
         return this
     }
 
+    /**
+     * @return index of the bin a distance is added to (only for sharp binning)
+     */
+    int sharpBinIndex(double dist) {
+        if (dist<=min) {
+            return 0
+        }
+        if (dist>=max) {
+            return size-1
+        }
+        return (int) ((dist - min) / step)
+    }
+
     double[] getNormalizedBins() {
         double[] res = new double[size]
         for (int i=0; i!=size; ++i) {
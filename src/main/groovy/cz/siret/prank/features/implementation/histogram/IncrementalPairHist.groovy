@@ -0,0 +1,146 @@
+package cz.siret.prank.features.implementation.histogram
+
+import cz.siret.prank.geom.Atoms
+import groovy.transform.CompileStatic
+import org.biojava.nbio.structure.Atom
+
+import static cz.siret.prank.geom.Struct.dist
+
+/**
+ * Sharp pair distance histogram of a set of atoms that is updated incrementally when the set changes.
+ *
+ * Neighbourhoods of consecutive SAS points share most of their atoms, so instead of adding all O(n^2) pairs
+ * for every point only pairs of removed and added atoms are subtracted/added (when it is cheaper than recalculation).
+ * Bins hold exact pair counts, so the result is the same as of DistancePairHist with all pairs.
+ *
+ * Works over atoms of one source layer (atoms of the set must be from the source). Not thread safe.
+ */
+@CompileStatic
+class IncrementalPairHist {
+
+    final Atoms source
+    final DistancePairHist binning
+
+    private final IdentityHashMap<Atom, Integer> ids
+    private final Atom[] atoms
+
+    /** ids of atoms in the current set */
+    private final int[] members
+    /** position of atom in members, -1 if not a member */
+    private final int[] positions
+    private int memberCount = 0
+
+    private final int[] mark
+    private int epoch = 0
+
+    private final long[] counts
+    private long pairs = 0
+
+    IncrementalPairHist(Atoms source, DistancePairHist binning) {
+        this.source = source
+        this.binning = binning
+
+        int n = source.count
+        this.atoms = source.list.toArray(new Atom[0])
+        this.ids = new IdentityHashMap<>(n)
+        for (int i = 0; i < n; i++) {
+            ids.put(atoms[i], i)
+        }
+        this.members = new int[n]
+        this.positions = new int[n]
+        Arrays.fill(positions, -1)
+        this.mark = new int[n]
+        this.counts = new long[binning.size]
+    }
+
+    /**
+     * Changes the set of atoms to given atoms of the source.
+     *
+     * @return histogram of all pairs (including pairs of atom with itself) of given atoms
+     */
+    DistancePairHist update(List<Atom> setAtoms) {
+        int m = setAtoms.size()
+        int[] newIds = new int[m]
+        epoch++
+        for (int k = 0; k < m; k++) {
+            Integer id = ids.get(setAtoms[k])
+            if (id == null) {
+                throw new IllegalArgumentException("Atom is not from the source layer")
+            }
+            newIds[k] = id
+            mark[id] = epoch
+        }
+
+        int kept = 0
+        for (int k = 0; k < m; k++) {
+            if (positions[newIds[k]] >= 0) kept++
+        }
+        int changes = (memberCount - kept) + (m - kept)
+
+        if ((long) changes * (memberCount + m) < (long) m * m / 2) {
+            // remove atoms not in the new set
+            int k = 0
+            while (k < memberCount) {
+                int id = members[k]
+                if (mark[id] != epoch) {
+                    remove(id)   // moves the last member to position k
+                } else {
+                    k++
+                }
+            }
+        } else {
+            clear()
+        }
+
+        for (int k = 0; k < m; k++) {
+            if (positions[newIds[k]] < 0) {
+                add(newIds[k])
+            }
+        }
+
+        return toHist()
+    }
+
+    private void add(int id) {
+        positions[id] = memberCount
+        members[memberCount++] = id
+        Atom a = atoms[id]
+        for (int k = 0; k < memberCount; k++) {
+            counts[binning.sharpBinIndex(dist(a, atoms[members[k]]))]++
+        }
+        pairs += memberCount
+    }
+
+    private void remove(int id) {
+        Atom a = atoms[id]
+        for (int k = 0; k < memberCount; k++) {
+            counts[binning.sharpBinIndex(dist(a, atoms[members[k]]))]--
+        }
+        pairs -= memberCount
+
+        int pos = positions[id]
+        int last = members[--memberCount]
+        members[pos] = last
+        positions[last] = pos
+        positions[id] = -1
+    }
+
+    private void clear() {
+        for (int k = 0; k < memberCount; k++) {
+            positions[members[k]] = -1
+        }
+        memberCount = 0
+        Arrays.fill(counts, 0L)
+        pairs = 0
+    }
+
+    private DistancePairHist toHist() {
+        DistancePairHist res = new DistancePairHist(binning.size, binning.min, binning.max, false)
+        for (int i = 0; i < counts.length; i++) {
+            res.bins[i] = counts[i]
+        }
+        res.count = (int) pairs
+        return res
+    }
+
+}
@@ -1,5 +1,6 @@
 package cz.siret.prank.features.implementation.histogram
 
+import cz.siret.prank.domain.Protein
 import cz.siret.prank.features.api.SasFeatureCalculationContext
 import cz.siret.prank.features.api.SasFeatureCalculator
 import cz.siret.prank.geom.Atoms
@@ -17,9 +18,11 @@ import static cz.siret.prank.geom.Struct.dist
 @CompileStatic
 class PairHistogramFeature extends SasFeatureCalculator implements Parametrized {
 
+    static final String NAME = "pair_hist"
+
     @Override
     String getName() {
-        return "pair_hist"
+        return NAME
     }
 
     @Override
@@ -29,21 +32,39 @@ class PairHistogramFeature extends SasFeatureCalculator implements Parametrized
     }
 
     private Atoms getAtoms(Atom sasPoint, SasFeatureCalculationContext context) {
-        if (params.pair_hist_deep) {
-            return context.extractor.deepLayer.cutoutSphere(sasPoint, params.pair_hist_radius)
-        } else {
-            return context.protein.exposedAtoms.cutoutSphere(sasPoint, params.pair_hist_radius)
-        }
+        return getSourceLayer(context).cutoutSphere(sasPoint, params.pair_hist_radius)
+    }
+
+    private Atoms getSourceLayer(SasFeatureCalculationContext context) {
+        return params.pair_hist_deep ? context.extractor.deepLayer : context.exposedAtoms
+    }
+
+    /**
+     * Histogram of the last calculated point of the protein processed by the thread
+     */
+    private final ThreadLocal<IncrementalPairHist> incrementalHist = new ThreadLocal<>()
+
+    @Override
+    void postProcessProtein(Protein protein) {
+        incrementalHist.remove()
     }
 
     @Override
     double[] calculateForSasPoint(Atom sasPoint, SasFeatureCalculationContext context) {
 
         final List<Atom> atoms = getAtoms(sasPoint, context).list
-        final DistancePairHist hist = new DistancePairHist(params.pair_hist_bins, 0, params.pair_hist_radius * 2, params.pair_hist_smooth)
+        DistancePairHist hist = new DistancePairHist(params.pair_hist_bins, 0, params.pair_hist_radius * 2, params.pair_hist_smooth)
 
         int n = atoms.size()
-        if (params.pair_hist_subsample_limit == 0                          // all
+        if (!params.pair_hist_smooth && params.pair_hist_subsample_limit == 0) {   // all, exact incremental update
+            Atoms source = getSourceLayer(context)
+            IncrementalPairHist incremental = incrementalHist.get()
+            if (incremental == null || !incremental.source.is(source) || incremental.binning.size != hist.size || incremental.binning.max != hist.max) {
+                incremental = new IncrementalPairHist(source, hist)
+                incrementalHist.set(incremental)
+            }
+            hist = incremental.update(atoms)
+        } else if (params.pair_hist_subsample_limit == 0                  // all
                 || params.pair_hist_subsample_limit >= (n*(n-1)/2)) {
             for (int i=0; i!=n; ++i) {
                 for (int j=i; j!=n; ++j) {
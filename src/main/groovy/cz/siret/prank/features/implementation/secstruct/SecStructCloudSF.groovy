@@ -39,7 +39,7 @@ class SecStructCloudSF extends SasFeatureCalculator implements Parametrized {
 
         double radius = params.ss_cloud_radius
 
-        Atoms atoms = context.protein.exposedAtoms.cutoutSphere(sasPoint, radius)
+        Atoms atoms = context.exposedAtoms.cutoutSphere(sasPoint, radius)
         List<Residue> residues = context.protein.residues.getDistinctForAtoms(atoms)
         List<SecStrucType> types = residues.collect { it.ss.type }.asList()
 
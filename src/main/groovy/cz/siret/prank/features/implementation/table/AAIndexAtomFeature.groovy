@@ -30,6 +30,11 @@ class AAIndexAtomFeature extends AtomFeatureCalculator implements Parametrized {
         return params.feat_aa_properties ?: []
     }
 
+    @Override
+    boolean isAtomTypeFeature() {
+        return true
+    }
+
     private Double getTableValue(Atom atom, String property) {
         Double val = aaIndex.getValue(PdbUtils.getCorrectedAtomResidueCode(atom), property)
         return val==null ? 0d : val
@@ -30,6 +30,16 @@ class AtomTableFeature extends AtomFeatureCalculator implements Parametrized {
         return params.atom_table_features
     }
 
+    @Override
+    boolean isAtomTypeFeature() {
+        return true
+    }
+
+    @Override
+    String getAtomTypeConfig() {
+        return header.join(',') + ';' + params.atom_table_feat_pow + ';' + params.atom_table_feat_keep_sgn
+    }
+
 //===========================================================================================================//
 
     static final PropertyTable atomPropertyTable = PropertyTable.parse(Futils.readResource("/tables/atomic-properties.csv"))
@@ -31,6 +31,11 @@ public class VolsiteFeature extends AtomFeatureCalculator {
         return HEADER;
     }
 
+    @Override
+    public boolean isAtomTypeFeature() {
+        return true;
+    }
+
     @Override
     public double[] calculateForAtom(Atom proteinSurfaceAtom, AtomFeatureCalculationContext context) {
         VolSitePharmacophore.AtomProps va = VolSitePharmacophore.getAtomProperties(proteinSurfaceAtom.getName(), context.getResidueCode());
@@ -9,6 +9,7 @@ import groovy.util.logging.Slf4j
 import org.openscience.cdk.geometry.surface.NumericalSurface
 import org.openscience.cdk.interfaces.IAtomContainer
 
+import javax.annotation.Nullable
 import javax.vecmath.Point3d
 
 /**
@@ -27,6 +28,18 @@ class Surface implements Parametrized {
     double solventRadius
     int tesselationLevel
 
+    /**
+     * atoms the surface was computed for
+     */
+    @Nullable
+    Atoms atoms
+
+    /**
+     * accessible surface area of each of the atoms (same order)
+     */
+    @Nullable
+    double[] atomAreas
+
     Surface(double surfaceArea, Atoms surfacePoints, double solventRadius, int tesselationLevel) {
         this.surfaceArea = surfaceArea
         this.points = surfacePoints
@@ -50,15 +63,18 @@ class Surface implements Parametrized {
 
         double totalSurfaceArea
         Point3d[] allSurfacePoints
+        double[] atomAreas
 
         if (Params.inst.use_optimized_surface) {
             FasterNumericalSurface numericalSurface = new FasterNumericalSurface(container, solventRadius, tesselationLevel)
             totalSurfaceArea = numericalSurface.totalSurfaceArea
             allSurfacePoints = numericalSurface.allSurfacePoints
+            atomAreas = numericalSurface.allSurfaceAreas
         } else {
             NumericalSurface numericalSurface = new NumericalSurface(container, solventRadius, tesselationLevel)
             totalSurfaceArea = numericalSurface.totalSurfaceArea
             allSurfacePoints = numericalSurface.allSurfacePoints
+            atomAreas = numericalSurface.allSurfaceAreas
         }
 
 
@@ -71,6 +87,8 @@ class Surface implements Parametrized {
         log.debug "surface after consolidation: {} points", surfacePoints.count
 
         Surface res = new Surface(totalSurfaceArea, surfacePoints, solventRadius, tesselationLevel)
+        res.atoms = proteinAtoms
+        res.atomAreas = atomAreas
 
         return res
     }
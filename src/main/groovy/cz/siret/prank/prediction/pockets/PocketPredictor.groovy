@@ -5,9 +5,9 @@ import cz.siret.prank.domain.Protein
 import cz.siret.prank.domain.labeling.LabeledPoint
 import cz.siret.prank.features.implementation.conservation.ConservationScore
 import cz.siret.prank.geom.Atoms
-import cz.siret.prank.geom.Struct
 import cz.siret.prank.prediction.transformation.ScoreTransformer
 import cz.siret.prank.program.params.Parametrized
+import cz.siret.prank.program.params.Params
 import cz.siret.prank.utils.Cutils
 import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
@@ -20,6 +20,9 @@ import groovy.util.logging.Slf4j
 @CompileStatic
 class PocketPredictor implements Parametrized {
 
+    /** params that were current when the predictor was created */
+    private final Params params = Params.inst
+
     private final PointScoreCalculator pointScoreCalculator = new PointScoreCalculator()
 
     private double POCKET_PROT_SURFACE_CUTOFF = params.pred_protein_surface_cutoff
@@ -31,13 +34,19 @@ class PocketPredictor implements Parametrized {
     private double BALANCE_RADIUS = params.balance_density_radius
     private int SCORE_POINT_LIMIT = params.score_point_limit
 
-    private double scorePoint(LabeledPoint point, Atoms surfacePoints) {
+    @Override
+    Params getParams() {
+        return params
+    }
+
+    private double scorePoint(int pointIdx, SasPointGraph graph) {
+        LabeledPoint point = graph.points.get(pointIdx)
 
         //double score = pointScoreCalculator.transformScore(point.score)
         double score = point.transformedScore
 
         if (BALANCE_POINT_DENSITY) {
-            int pts = surfacePoints.cutoutSphere(point, BALANCE_RADIUS).count
+            int pts = graph.countWithin(pointIdx, BALANCE_RADIUS)
             score = score / pts
         }
 
@@ -50,12 +59,17 @@ class PocketPredictor implements Parametrized {
         point.predicted
     }
 
-    double pocketScore(Atoms pocketPoints, Atoms allSasPoints, Protein protein, Atoms pocketSurfaceAtoms)  {
+    /**
+     * @param pocketPoints indexes of pocket points in the graph
+     */
+    double pocketScore(int[] pocketPoints, SasPointGraph graph, Protein protein, Atoms pocketSurfaceAtoms)  {
         double score = 0
         try {
-            List<LabeledPoint> sasPoints = pocketPoints.collect { (LabeledPoint)it }.toList()
-            for (LabeledPoint p : sasPoints) {
-                p.score = scorePoint(p, allSasPoints)
+            List<LabeledPoint> sasPoints = new ArrayList<>(pocketPoints.length)
+            for (int i : pocketPoints) {
+                LabeledPoint p = graph.points.get(i)
+                p.score = scorePoint(i, graph)
+                sasPoints.add(p)
             }
 
             sasPoints = sasPoints.sort { // descending
@@ -96,17 +110,33 @@ class PocketPredictor implements Parametrized {
      * @return
      */
     public List<? extends Pocket> predictPockets(List<LabeledPoint> allLabeledPoints, Protein protein) {
+        return predictPockets(allLabeledPoints, protein, protein.exposedAtoms)
+    }
+
+    /**
+     * @param exposedAtoms exposed atoms of the surface of labeled points
+     */
+    public List<? extends Pocket> predictPockets(List<LabeledPoint> allLabeledPoints, Protein protein, Atoms exposedAtoms) {
 
-        Atoms labeledPoints = new Atoms(allLabeledPoints).withKdTree()
+        double graphRadius = Math.max(CLUSTERING_DIST, EXTENDED_POCKET_CUTOFF)
+        if (BALANCE_POINT_DENSITY) {
+            graphRadius = Math.max(graphRadius, BALANCE_RADIUS)
+        }
+        SasPointGraph graph = SasPointGraph.build(allLabeledPoints, graphRadius, exposedAtoms, POCKET_PROT_SURFACE_CUTOFF)
 
         // filter
-        List<LabeledPoint> ligandablePoints = allLabeledPoints.findAll { admitPoint(it) }.toList()
-        List<Atoms> clusters = Struct.clusterAtoms(new Atoms(ligandablePoints), CLUSTERING_DIST)
-        List<Atoms> filteredClusters = clusters.findAll { it.count >= MIN_CLUSTER_SIZE  }.toList()
+        boolean[] admitted = new boolean[graph.size]
+        int ligandablePoints = 0
+        for (int i = 0; i < graph.size; i++) {
+            admitted[i] = admitPoint(allLabeledPoints.get(i))
+            if (admitted[i]) ligandablePoints++
+        }
+        List<int[]> clusters = graph.clusters(admitted, CLUSTERING_DIST)
+        List<int[]> filteredClusters = clusters.findAll { it.length >= MIN_CLUSTER_SIZE  }.toList()
 
         log.info "PREDICTING POCKETS.... ===================================="
-        log.info "SAS POINTS: {}", labeledPoints.count
-        log.info "LIGANDABLE POINTS: {}", ligandablePoints.size()
+        log.info "SAS POINTS: {}", graph.size
+        log.info "LIGANDABLE POINTS: {}", ligandablePoints
         log.info "CLUSTERS: {}", clusters.size()
         log.info "FILTERED CLUSTERS: {}", filteredClusters.size()
 
@@ -114,21 +144,22 @@ class PocketPredictor implements Parametrized {
         ScoreTransformer zscoreTpTransformer = ScoreTransformer.load(params.zscoretp_transformer)
         ScoreTransformer probaTpTransformer = ScoreTransformer.load(params.probatp_transformer)
 
-        List<PrankPocket> pockets = filteredClusters.collect { Atoms clusterPoints ->
+        List<PrankPocket> pockets = filteredClusters.collect { int[] cluster ->
+
+            Atoms clusterPoints = graph.toAtoms(cluster)
 
-            Atoms pocketPoints = clusterPoints
+            int[] pocketPointIdxs = cluster
             if (EXTENDED_POCKET_CUTOFF > 0d) {
-                Atoms extendedPocketPoints = labeledPoints.cutoutShell(clusterPoints, EXTENDED_POCKET_CUTOFF)
-                pocketPoints = extendedPocketPoints
+                pocketPointIdxs = graph.extend(cluster, EXTENDED_POCKET_CUTOFF)
             }
-            
-//          double score = (double) pocketPoints.collect { scorePoint((LabeledPoint)it, allSasPoints) }.sum(0)
-            Atoms pocketSurfaceAtoms = protein.exposedAtoms.cutoutShell(pocketPoints, POCKET_PROT_SURFACE_CUTOFF)
-            double score = pocketScore(pocketPoints, labeledPoints, protein, pocketSurfaceAtoms)
+            List<LabeledPoint> pocketPoints = graph.toPoints(pocketPointIdxs)
+
+            Atoms pocketSurfaceAtoms = graph.surfaceAtoms(pocketPointIdxs)
+            double score = pocketScore(pocketPointIdxs, graph, protein, pocketSurfaceAtoms)
 
-            Atoms pocketSasPoints = new Atoms( pocketPoints.collect { ((LabeledPoint)it).point }.toList() )  // we want exact objects from protein.accessibleSurface
+            Atoms pocketSasPoints = new Atoms( pocketPoints.collect { it.point }.toList() )  // we want exact objects from protein.accessibleSurface
 
-            PrankPocket p = new PrankPocket(clusterPoints.centroid, score, pocketSasPoints, (List<LabeledPoint>) pocketPoints.list)
+            PrankPocket p = new PrankPocket(clusterPoints.centroid, score, pocketSasPoints, pocketPoints)
             p.surfaceAtoms = pocketSurfaceAtoms
             p.auxInfo.samplePoints = clusterPoints.count
             p.cache.count = clusterPoints.count
@@ -0,0 +1,338 @@
+package cz.siret.prank.prediction.pockets
+
+import cz.siret.prank.domain.labeling.LabeledPoint
+import cz.siret.prank.geom.Atoms
+import groovy.transform.CompileStatic
+import org.biojava.nbio.structure.Atom
+
+/**
+ * Sparse neighbourhood graph over SAS points of a protein (points within given radius are connected)
+ * and adjacency of points to exposed protein atoms.
+ *
+ * Built once per protein with a uniform grid, then clustering, extension of pockets, density balancing
+ * and lookup of pocket surface atoms are graph traversals instead of separate geometric queries.
+ */
+@CompileStatic
+class SasPointGraph {
+
+    final List<LabeledPoint> points
+    final Atoms exposedAtoms
+
+    /** max distance of connected points */
+    final double radius
+
+    /** neighbours of point i: nbIdx[nbOffsets[i]..nbOffsets[i+1]) with squared distances in nbSqrDist */
+    private final Adjacency neighbours
+
+    /** exposed atoms within surface atom cutoff from point i */
+    private final Adjacency surfaceAtoms
+
+    private SasPointGraph(List<LabeledPoint> points, Atoms exposedAtoms, double radius, Adjacency neighbours, Adjacency surfaceAtoms) {
+        this.points = points
+        this.exposedAtoms = exposedAtoms
+        this.radius = radius
+        this.neighbours = neighbours
+        this.surfaceAtoms = surfaceAtoms
+    }
+
+    /**
+     * @param radius max distance of connected points (max of all distances later used in queries)
+     * @param surfaceAtomCutoff max distance of exposed atom from point
+     */
+    static SasPointGraph build(List<LabeledPoint> points, double radius, Atoms exposedAtoms, double surfaceAtomCutoff) {
+        double[] pointCoords = coords(points)
+        double[] atomCoords = coords(exposedAtoms.list)
+
+        Adjacency neighbours = Adjacency.build(pointCoords, pointCoords, radius, true)
+        Adjacency surfaceAtoms = Adjacency.build(pointCoords, atomCoords, surfaceAtomCutoff, false)
+
+        return new SasPointGraph(points, exposedAtoms, radius, neighbours, surfaceAtoms)
+    }
+
+    int getSize() {
+        return points.size()
+    }
+
+//===========================================================================================================//
+
+    /**
+     * Single linkage clustering of admitted points (connected components of the graph restricted to admitted
+     * points and edges not longer than dist).
+     *
+     * @return clusters ordered by their first point, points in clusters ordered by index
+     */
+    List<int[]> clusters(boolean[] admitted, double dist) {
+        checkDist(dist)
+        double sqrDist = dist * dist
+
+        int n = size
+        boolean[] visited = new boolean[n]
+        int[] stack = new int[n]
+        List<int[]> res = new ArrayList<>()
+
+        for (int start = 0; start < n; start++) {
+            if (!admitted[start] || visited[start]) continue
+
+            int top = 0
+            int count = 0
+            int[] members = new int[16]
+
+            visited[start] = true
+            stack[top++] = start
+            while (top > 0) {
+                int i = stack[--top]
+                if (count == members.length) {
+                    members = Arrays.copyOf(members, count * 2)
+                }
+                members[count++] = i
+
+                for (int k = neighbours.offsets[i]; k < neighbours.offsets[i + 1]; k++) {
+                    int j = neighbours.idx[k]
+                    if (admitted[j] && !visited[j] && neighbours.sqrDist[k] <= sqrDist) {
+                        visited[j] = true
+                        stack[top++] = j
+                    }
+                }
+            }
+
+            int[] cluster = Arrays.copyOf(members, count)
+            Arrays.sort(cluster)
+            res.add(cluster)
+        }
+
+        return res
+    }
+
+    /**
+     * @return points within dist from any of given points (including them), ordered by index
+     */
+    int[] extend(int[] pointIdxs, double dist) {
+        checkDist(dist)
+        double sqrDist = dist * dist
+
+        boolean[] selected = new boolean[size]
+        for (int i : pointIdxs) {
+            selected[i] = true
+            for (int k = neighbours.offsets[i]; k < neighbours.offsets[i + 1]; k++) {
+                if (neighbours.sqrDist[k] <= sqrDist) {
+                    selected[neighbours.idx[k]] = true
+                }
+            }
+        }
+        return selectedIndexes(selected)
+    }
+
+    /**
+     * @return number of points within dist from point i (including point i)
+     */
+    int countWithin(int i, double dist) {
+        checkDist(dist)
+        double sqrDist = dist * dist
+
+        int count = 1
+        for (int k = neighbours.offsets[i]; k < neighbours.offsets[i + 1]; k++) {
+            if (neighbours.sqrDist[k] <= sqrDist) {
+                count++
+            }
+        }
+        return count
+    }
+
+    /**
+     * @return exposed atoms within surfaceAtomCutoff from any of given points (in the order of exposedAtoms)
+     */
+    Atoms surfaceAtoms(int[] pointIdxs) {
+        boolean[] selected = new boolean[exposedAtoms.count]
+        for (int i : pointIdxs) {
+            for (int k = surfaceAtoms.offsets[i]; k < surfaceAtoms.offsets[i + 1]; k++) {
+                selected[surfaceAtoms.idx[k]] = true
+            }
+        }
+        Atoms res = new Atoms()
+        for (int j = 0; j < selected.length; j++) {
+            if (selected[j]) {
+                res.add(exposedAtoms.list.get(j))
+            }
+        }
+        return res
+    }
+
+    Atoms toAtoms(int[] pointIdxs) {
+        Atoms res = new Atoms(pointIdxs.length)
+        for (int i : pointIdxs) {
+            res.add(points.get(i))
+        }
+        return res
+    }
+
+    List<LabeledPoint> toPoints(int[] pointIdxs) {
+        List<LabeledPoint> res = new ArrayList<>(pointIdxs.length)
+        for (int i : pointIdxs) {
+            res.add(points.get(i))
+        }
+        return res
+    }
+
+//===========================================================================================================//
+
+    private void checkDist(double dist) {
+        if (dist > radius) {
+            throw new IllegalArgumentException("Distance $dist is larger than the radius of the graph ($radius)")
+        }
+    }
+
+    private static int[] selectedIndexes(boolean[] selected) {
+        int n = 0
+        for (boolean b : selected) {
+            if (b) n++
+        }
+        int[] res = new int[n]
+        int k = 0
+        for (int i = 0; i < selected.length; i++) {
+            if (selected[i]) {
+                res[k++] = i
+            }
+        }
+        return res
+    }
+
+    private static double[] coords(List<? extends Atom> atoms) {
+        double[] res = new double[atoms.size() * 3]
+        int k = 0
+        for (Atom a : atoms) {
+            res[k++] = a.x
+            res[k++] = a.y
+            res[k++] = a.z
+        }
+        return res
+    }
+
+    /**
+     * Compressed adjacency lists: items within radius from query i are idx[offsets[i]..offsets[i+1]).
+     */
+    private static class Adjacency {
+        int[] offsets
+        int[] idx
+        double[] sqrDist
+
+        /**
+         * @param sameSet queries and items are the same set (query point is not its own neighbour)
+         */
+        static Adjacency build(double[] queries, double[] items, double radius, boolean sameSet) {
+            int nq = queries.length.intdiv(3)
+            Grid grid = new Grid(items, radius)
+            double sqrRadius = radius * radius
+
+            Adjacency res = new Adjacency()
+            res.offsets = new int[nq + 1]
+            res.idx = new int[Math.max(16, nq * 8)]
+            res.sqrDist = new double[res.idx.length]
+            int n = 0
+
+            for (int i = 0; i < nq; i++) {
+                double x = queries[3*i]
+                double y = queries[3*i + 1]
+                double z = queries[3*i + 2]
+                int cx = grid.cellX(x)
+                int cy = grid.cellY(y)
+                int cz = grid.cellZ(z)
+
+                for (int ix = Math.max(0, cx - 1); ix <= Math.min(grid.nx - 1, cx + 1); ix++) {
+                    for (int iy = Math.max(0, cy - 1); iy <= Math.min(grid.ny - 1, cy + 1); iy++) {
+                        for (int iz = Math.max(0, cz - 1); iz <= Math.min(grid.nz - 1, cz + 1); iz++) {
+                            int cell = grid.cellIndex(ix, iy, iz)
+                            for (int k = grid.cellStart[cell]; k < grid.cellStart[cell + 1]; k++) {
+                                int j = grid.cellItems[k]
+                                if (sameSet && j == i) continue
+
+                                double dx = items[3*j] - x
+                                double dy = items[3*j + 1] - y
+                                double dz = items[3*j + 2] - z
+                                double d = dx*dx + dy*dy + dz*dz
+                                if (d <= sqrRadius) {
+                                    if (n == res.idx.length) {
+                                        res.idx = Arrays.copyOf(res.idx, n * 2)
+                                        res.sqrDist = Arrays.copyOf(res.sqrDist, n * 2)
+                                    }
+                                    res.idx[n] = j
+                                    res.sqrDist[n] = d
+                                    n++
+                                }
+                            }
+                        }
+                    }
+                }
+                res.offsets[i + 1] = n
+            }
+
+            return res
+        }
+    }
+
+    /**
+     * Uniform grid of items with cell edge >= radius (so items within radius are in neighbouring cells)
+     */
+    private static class Grid {
+        private static final int MAX_CELLS = 1 << 22
+
+        double minX, minY, minZ
+        double cell
+        int nx, ny, nz
+        int[] cellStart
+        int[] cellItems
+
+        Grid(double[] items, double radius) {
+            int n = items.length.intdiv(3)
+            double maxX = 0, maxY = 0, maxZ = 0
+            minX = minY = minZ = 0
+            if (n > 0) {
+                minX = maxX = items[0]
+                minY = maxY = items[1]
+                minZ = maxZ = items[2]
+            }
+            for (int i = 1; i < n; i++) {
+                minX = Math.min(minX, items[3*i]);     maxX = Math.max(maxX, items[3*i])
+                minY = Math.min(minY, items[3*i + 1]); maxY = Math.max(maxY, items[3*i + 1])
+                minZ = Math.min(minZ, items[3*i + 2]); maxZ = Math.max(maxZ, items[3*i + 2])
+            }
+
+            cell = Math.max(radius, 0.1d)
+            while (true) {
+                nx = (int) ((maxX - minX) / cell) + 1
+                ny = (int) ((maxY - minY) / cell) + 1
+                nz = (int) ((maxZ - minZ) / cell) + 1
+                if ((long) nx * ny * nz <= MAX_CELLS) break
+                cell *= 2
+            }
+
+            int ncells = nx * ny * nz
+            int[] itemCell = new int[n]
+            cellStart = new int[ncells + 1]
+            for (int i = 0; i < n; i++) {
+                itemCell[i] = cellIndex(cellX(items[3*i]), cellY(items[3*i + 1]), cellZ(items[3*i + 2]))
+                cellStart[itemCell[i] + 1]++
+            }
+            for (int c = 0; c < ncells; c++) {
+                cellStart[c + 1] += cellStart[c]
+            }
+            cellItems = new int[n]
+            int[] next = Arrays.copyOf(cellStart, ncells)
+            for (int i = 0; i < n; i++) {
+                cellItems[next[itemCell[i]]++] = i
+            }
+        }
+
+        int cellX(double x) { clamp((int) Math.floor((x - minX) / cell), nx) }
+        int cellY(double y) { clamp((int) Math.floor((y - minY) / cell), ny) }
+        int cellZ(double z) { clamp((int) Math.floor((z - minZ) / cell), nz) }
+
+        int cellIndex(int ix, int iy, int iz) {
+            return (ix * ny + iy) * nz + iz
+        }
+
+        private static int clamp(int i, int n) {
+            return (i < 0) ? 0 : (i >= n ? n - 1 : i)
+        }
+    }
+
+}
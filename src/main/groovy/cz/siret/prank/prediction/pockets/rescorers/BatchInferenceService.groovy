@@ -0,0 +1,196 @@
+package cz.siret.prank.prediction.pockets.rescorers
+
+import cz.siret.prank.features.FeatureExtractor
+import cz.siret.prank.features.FeatureVector
+import cz.siret.prank.program.PrankException
+import cz.siret.prank.program.ml.Model
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+import java.util.concurrent.CompletableFuture
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.LinkedBlockingQueue
+import java.util.concurrent.TimeUnit
+
+/**
+ * Dedicated inference stage shared by worker threads.
+ *
+ * Workers submit feature rows of (possibly small) proteins, inference threads collect rows of many requests
+ * into micro-batches of inference_batch_size rows and classify them together, so forest stays in the cache
+ * of inference threads and is not evicted by feature extraction. Micro-batch is classified when it is full
+ * or inference_max_wait_ms after its first request arrived.
+ *
+ * Only for thread safe predictors (forests with batch prediction), see create().
+ */
+@Slf4j
+@CompileStatic
+class BatchInferenceService implements Closeable {
+
+    private final InstancePredictor predictor
+    private final int batchSize
+    private final long maxWaitNanos
+
+    private final LinkedBlockingQueue<Request> queue = new LinkedBlockingQueue<>()
+    private final List<Thread> threads = new ArrayList<>()
+    private volatile boolean closed = false
+
+    private static class Request {
+        final double[][] rows
+        final CompletableFuture<double[]> result = new CompletableFuture<>()
+
+        Request(double[][] rows) {
+            this.rows = rows
+        }
+    }
+
+    /**
+     * @param predictor thread safe predictor
+     */
+    BatchInferenceService(InstancePredictor predictor, int threads, int batchSize, long maxWaitMs) {
+        this.predictor = predictor
+        this.batchSize = Math.max(1, batchSize)
+        this.maxWaitNanos = TimeUnit.MILLISECONDS.toNanos(maxWaitMs)
+
+        for (int i = 0; i < threads; i++) {
+            Thread t = new Thread({ runInferenceLoop() } as Runnable, "prank-inference-" + (i + 1))
+            t.daemon = true
+            t.start()
+            this.threads.add(t)
+        }
+    }
+
+    /**
+     * @return service according to params (inference_threads, inference_batch_size, inference_max_wait_ms),
+     *         null if disabled or not supported by the model
+     */
+    static BatchInferenceService create(Model model, FeatureExtractor extractorFactory, int threads, int batchSize, long maxWaitMs) {
+        if (threads <= 0) {
+            return null
+        }
+        InstancePredictor predictor = InstancePredictor.create(model, extractorFactory)
+        if (predictor instanceof InstancePredictor.WekaInstancePredictor) {
+            log.warn "Batch inference service is not supported for classifier {}, inference_threads ignored", model.classifier.class.simpleName
+            return null
+        }
+        log.info "Starting batch inference service (threads: {}, batch size: {}, max wait: {} ms)", threads, batchSize, maxWaitMs
+        return new BatchInferenceService(predictor, threads, batchSize, maxWaitMs)
+    }
+
+    /**
+     * @param local predictor used for single points (predictPositive(), getDistributionForPoint())
+     * @return predictor that classifies batches in this service
+     */
+    InstancePredictor wrap(InstancePredictor local) {
+        return new InstancePredictor() {
+            @Override
+            double predictPositive(FeatureVector vect) throws Exception {
+                return local.predictPositive(vect)
+            }
+
+            @Override
+            double[] predictBatchArrays(double[][] arrays) throws Exception {
+                return predict(arrays)
+            }
+
+            @Override
+            double[] getDistributionForPoint(FeatureVector vect) throws Exception {
+                return local.getDistributionForPoint(vect)
+            }
+        }
+    }
+
+    CompletableFuture<double[]> submit(double[][] rows) {
+        if (closed) {
+            throw new PrankException("Batch inference service is closed")
+        }
+        Request request = new Request(rows)
+        queue.put(request)
+        return request.result
+    }
+
+    /**
+     * Submits rows and waits for the scores.
+     */
+    double[] predict(double[][] rows) throws Exception {
+        if (rows.length == 0) {
+            return new double[0]
+        }
+        try {
+            return submit(rows).get()
+        } catch (ExecutionException e) {
+            throw (e.cause instanceof Exception) ? (Exception) e.cause : e
+        }
+    }
+
+//===========================================================================================================//
+
+    private void runInferenceLoop() {
+        List<Request> batch = new ArrayList<>()
+        while (true) {
+            Request first = queue.poll(100, TimeUnit.MILLISECONDS)
+            if (first == null) {
+                if (closed && queue.isEmpty()) {
+                    break
+                }
+                continue
+            }
+
+            batch.clear()
+            batch.add(first)
+            int rows = first.rows.length
+            long deadline = System.nanoTime() + maxWaitNanos
+            while (rows < batchSize) {
+                long remaining = deadline - System.nanoTime()
+                Request next = (remaining > 0) ? queue.poll(remaining, TimeUnit.NANOSECONDS) : queue.poll()
+                if (next == null) {
+                    break
+                }
+                batch.add(next)
+                rows += next.rows.length
+            }
+
+            classify(batch, rows)
+        }
+    }
+
+    private void classify(List<Request> batch, int nrows) {
+        try {
+            double[][] rows = new double[nrows][]
+            int k = 0
+            for (Request request : batch) {
+                System.arraycopy(request.rows, 0, rows, k, request.rows.length)
+                k += request.rows.length
+            }
+
+            double[] scores = new double[nrows]
+            for (int start = 0; start < nrows; start += batchSize) {
+                int end = Math.min(nrows, start + batchSize)
+                double[][] block = (start == 0 && end == nrows) ? rows : Arrays.copyOfRange(rows, start, end)
+                double[] blockScores = predictor.predictBatchArrays(block)
+                System.arraycopy(blockScores, 0, scores, start, blockScores.length)
+            }
+
+            k = 0
+            for (Request request : batch) {
+                request.result.complete(Arrays.copyOfRange(scores, k, k + request.rows.length))
+                k += request.rows.length
+            }
+        } catch (Throwable e) {
+            for (Request request : batch) {
+                request.result.completeExceptionally(e)
+            }
+        }
+    }
+
+    /**
+     * Classifies remaining requests and stops inference threads.
+     */
+    @Override
+    void close() {
+        closed = true
+        for (Thread t : threads) {
+            t.join()
+        }
+    }
+
+}
@@ -0,0 +1,309 @@
+package cz.siret.prank.prediction.pockets.rescorers
+
+import cz.siret.prank.domain.Protein
+import cz.siret.prank.features.FeatureExtractor
+import cz.siret.prank.features.FeatureVector
+import cz.siret.prank.features.PrankFeatureExtractor
+import cz.siret.prank.features.api.ProcessedItemContext
+import cz.siret.prank.features.implementation.asa.AtomAsa
+import cz.siret.prank.geom.Atoms
+import cz.siret.prank.geom.Point
+import cz.siret.prank.geom.Surface
+import cz.siret.prank.program.PrankException
+import cz.siret.prank.program.params.Parametrized
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+import org.biojava.nbio.structure.Atom
+
+import static cz.siret.prank.features.implementation.conservation.ConservationScore.CONSERV_LOADED_KEY
+import static cz.siret.prank.features.implementation.conservation.ConservationScore.CONSERV_SCORE_KEY
+
+/**
+ * Incremental calculation of SAS point scores for consecutive frames of a trajectory
+ * (or structure variants with the same atoms).
+ *
+ * SAS points and their scores are kept from the previous frame. In the next frame SAS points are recalculated
+ * only around atoms that moved more than frame_move_tolerance (points further away are generated and occluded
+ * by the same atoms) and only points with a moved atom within frame_reuse_radius get new feature vectors and scores.
+ *
+ * Reuse assumes that features of a point depend only on atoms within frame_reuse_radius.
+ * Surface area of the protein is taken from the last fully calculated frame.
+ *
+ * Whole-protein work is also limited to the neighbourhood of moved atoms: exposure of atoms, deep layer of the
+ * feature extractor and ASA are recalculated only there. Conservation is carried over from the previous frame.
+ *
+ * Not thread safe, frames must be processed in order.
+ */
+@Slf4j
+@CompileStatic
+class IncrementalFrames implements Parametrized {
+
+    /** max vdw radius of protein atom, SAS point is affected only by atoms within solvent_radius + this */
+    private static final double MAX_ATOM_RADIUS = 2.5
+
+    static class FrameScores {
+        final Atoms points
+        final double[] scores
+
+        FrameScores(Atoms points, double[] scores) {
+            this.points = points
+            this.scores = scores
+        }
+    }
+
+    // previous frame
+    private Protein previousProtein
+    private String[] atomKeys
+    private int[] atomSerials
+    /** exposure of atoms (by index) */
+    private boolean[] exposed
+    /** reference positions of atoms (updated only when atom moves more than frame_move_tolerance, so small moves accumulate) */
+    private double[] atomCoords
+    private FrameScores previous
+    private double surfaceArea
+
+    // statistics of the last frame
+    int lastRescoredPoints
+    boolean lastCalculatedFully
+
+    /**
+     * Calculates SAS points and their scores for the next frame.
+     * Replaces prediction surface of the protein if the frame is calculated incrementally.
+     */
+    FrameScores calcFrameScores(Protein protein, ProcessedItemContext context, FeatureExtractor extractorFactory, InstancePredictor predictor) {
+        if (params.point_sampling_strategy != "surface") {
+            throw new PrankException("Incremental prediction of frames requires point_sampling_strategy='surface'")
+        }
+
+        Atoms atoms = protein.proteinAtoms
+        String[] keys = atomKeys(atoms)
+        double[] coords = coords(atoms)
+
+        Atoms moved = null
+        if (previous != null && Arrays.equals(keys, atomKeys)) {
+            moved = movedPositions(atoms, coords)
+        }
+
+        int[] serials = serials(atoms)
+
+        FrameScores res
+        try {
+            if (moved == null || moved.count > 2 * params.frame_max_moved_ratio * atoms.count) { // moved contains old and new positions
+                res = calcFully(protein, context, extractorFactory, predictor)
+                atomKeys = keys
+                atomCoords = coords
+            } else {
+                boolean sameSerials = Arrays.equals(serials, atomSerials)
+                res = calcIncrementally(protein, moved, sameSerials, context, extractorFactory, predictor)
+            }
+        } catch (Exception e) {
+            previous = null // next frame is calculated from scratch
+            previousProtein = null
+            throw e
+        }
+
+        previous = res
+        previousProtein = protein
+        atomSerials = serials
+
+        return res
+    }
+
+    private FrameScores calcFully(Protein protein, ProcessedItemContext context, FeatureExtractor extractorFactory, InstancePredictor predictor) {
+        FeatureExtractor proteinExtractor = extractorFactory.createPrototypeForProtein(protein, context)
+        try {
+            FeatureExtractor extractor = (proteinExtractor as PrankFeatureExtractor).createInstanceForWholeProtein()
+            Atoms points = extractor.sampledPoints.points
+            double[] scores = predictor.predictBatch(calcVectors(extractor, points))
+
+            surfaceArea = protein.accessibleSurface.surfaceArea
+            exposed = exposureFlags(protein.proteinAtoms, protein.exposedAtoms)
+            lastRescoredPoints = points.count
+            lastCalculatedFully = true
+
+            return new FrameScores(points, scores)
+        } finally {
+            proteinExtractor.finalizeProteinPrototype()
+        }
+    }
+
+    /**
+     * @param moved previous and current positions of moved atoms
+     */
+    private FrameScores calcIncrementally(Protein protein, Atoms moved, boolean sameSerials, ProcessedItemContext context, FeatureExtractor extractorFactory, InstancePredictor predictor) {
+        double sasDist = params.solvent_radius + MAX_ATOM_RADIUS
+        double sqrSasDist = sasDist * sasDist
+        double sqrReuseDist = params.frame_reuse_radius * params.frame_reuse_radius
+
+        Atoms points = new Atoms(previous.points.count + 64)
+        double[] reusedScores = new double[previous.points.count]
+        Atoms rescored = new Atoms()
+
+        // previous points far from moved atoms are still valid, near ones keep their scores
+        moved.withKdTreeConditional()
+        int i = 0
+        int nreused = 0
+        for (Atom p : previous.points) {
+            double sqrDist = moved.empty ? Double.MAX_VALUE : moved.sqrDist(p)
+            if (sqrDist > sqrSasDist) {
+                if (sqrDist > sqrReuseDist) {
+                    points.add(p)
+                    reusedScores[nreused++] = previous.scores[i]
+                } else {
+                    rescored.add(p)
+                }
+            }
+            i++
+        }
+
+        // new points around moved atoms
+        if (!moved.empty) {
+            Atoms regionAtoms = protein.proteinAtoms.cutoutShell(moved, 2 * sasDist)
+            Surface regionSurface = Surface.computeAccessibleSurface(regionAtoms, params.solvent_radius, params.tessellation)
+            rescored.addAll(regionSurface.points.cutoutShell(moved, sasDist))
+        }
+
+        points.addAll(rescored)
+
+        Surface surface = new Surface(surfaceArea, points, params.solvent_radius, params.tessellation)
+        protein.setPredictionSurface(surface, updateExposedAtoms(protein.proteinAtoms, points, moved, sasDist))
+        carryOverFeatureData(protein, moved, sameSerials)
+
+        double[] scores = new double[points.count]
+        System.arraycopy(reusedScores, 0, scores, 0, nreused)
+
+        if (!rescored.empty) {
+            FeatureExtractor proteinExtractor = (extractorFactory as PrankFeatureExtractor).createPrototypeForSurfaceRegion(protein, rescored, context)
+            try {
+                FeatureExtractor extractor = (proteinExtractor as PrankFeatureExtractor).createInstanceForSurfaceRegion(rescored)
+                double[] newScores = predictor.predictBatch(calcVectors(extractor, rescored))
+                System.arraycopy(newScores, 0, scores, nreused, newScores.length)
+            } finally {
+                proteinExtractor.finalizeProteinPrototype()
+            }
+        }
+
+        log.info "frame [{}]: {} moved atoms, {} of {} SAS points rescored", protein.name, moved.count.intdiv(2), rescored.count, points.count
+
+        lastRescoredPoints = rescored.count
+        lastCalculatedFully = false
+
+        return new FrameScores(points, scores)
+    }
+
+    /**
+     * Exposure is recalculated only for atoms that can be near changed SAS points, other atoms keep
+     * exposure from the previous frame (as in Surface.computeExposedAtoms()).
+     * @param sasDist max distance of changed SAS points from moved atoms
+     */
+    private Atoms updateExposedAtoms(Atoms atoms, Atoms points, Atoms moved, double sasDist) {
+        double cutoff = params.solvent_radius + params.surface_additional_cutoff
+        double sqrCutoff = cutoff * cutoff
+        double sqrReach = (sasDist + cutoff) * (sasDist + cutoff)
+
+        Atoms nearPoints = points.cutoutShell(moved, sasDist + 2 * cutoff).withKdTreeConditional()
+
+        Atoms res = new Atoms()
+        for (int i = 0; i < atoms.count; i++) {
+            Atom a = atoms.list.get(i)
+            if (!moved.empty && moved.sqrDist(a) <= sqrReach) {
+                exposed[i] = !nearPoints.empty && nearPoints.sqrDist(a) <= sqrCutoff
+            }
+            if (exposed[i]) {
+                res.add(a)
+            }
+        }
+        return res
+    }
+
+    /**
+     * Reuses data of feature calculators from the previous frame instead of calculating them for the whole protein
+     * (conservation is bound to residue numbers, ASA is recalculated only around moved atoms).
+     */
+    private void carryOverFeatureData(Protein protein, Atoms moved, boolean sameSerials) {
+        if (previousProtein == null) {
+            return
+        }
+        Map<String, Object> previousData = previousProtein.secondaryData
+
+        if (previousData.get(CONSERV_LOADED_KEY) == Boolean.TRUE) {
+            protein.secondaryData.put(CONSERV_SCORE_KEY, previousData.get(CONSERV_SCORE_KEY))
+            protein.secondaryData.put(CONSERV_LOADED_KEY, true)
+        }
+        if (sameSerials && !params.feat_asa_from_surface) { // ASA is indexed by serial numbers, updated by AsaCalculator
+            AtomAsa.carryOverToFrame(previousProtein, protein, moved)
+        }
+    }
+
+    private static boolean[] exposureFlags(Atoms atoms, Atoms exposedAtoms) {
+        Set<Atom> exposedSet = Collections.newSetFromMap(new IdentityHashMap<Atom, Boolean>())
+        exposedSet.addAll(exposedAtoms.list)
+
+        boolean[] res = new boolean[atoms.count]
+        for (int i = 0; i < atoms.count; i++) {
+            res[i] = exposedSet.contains(atoms.list.get(i))
+        }
+        return res
+    }
+
+    private static List<FeatureVector> calcVectors(FeatureExtractor extractor, Atoms points) {
+        List<FeatureVector> vectors = new ArrayList<>(points.count)
+        for (Atom point : points) {
+            vectors.add(extractor.calcFeatureVector(point))
+        }
+        return vectors
+    }
+
+    /**
+     * Updates reference positions of moved atoms.
+     * @return previous and current positions of atoms that moved more than frame_move_tolerance
+     */
+    private Atoms movedPositions(Atoms atoms, double[] coords) {
+        double sqrTolerance = params.frame_move_tolerance * params.frame_move_tolerance
+
+        Atoms res = new Atoms()
+        for (int i = 0; i < atoms.count; i++) {
+            double dx = coords[3*i]     - atomCoords[3*i]
+            double dy = coords[3*i + 1] - atomCoords[3*i + 1]
+            double dz = coords[3*i + 2] - atomCoords[3*i + 2]
+            if (dx*dx + dy*dy + dz*dz > sqrTolerance) {
+                res.add(new Point(atomCoords[3*i], atomCoords[3*i + 1], atomCoords[3*i + 2]))
+                res.add(atoms.list.get(i))
+                atomCoords[3*i]     = coords[3*i]
+                atomCoords[3*i + 1] = coords[3*i + 1]
+                atomCoords[3*i + 2] = coords[3*i + 2]
+            }
+        }
+        return res
+    }
+
+    private static String[] atomKeys(Atoms atoms) {
+        String[] res = new String[atoms.count]
+        int i = 0
+        for (Atom a : atoms) {
+            res[i++] = a.group?.residueNumber?.toString() + ":" + a.name
+        }
+        return res
+    }
+
+    private static int[] serials(Atoms atoms) {
+        int[] res = new int[atoms.count]
+        int i = 0
+        for (Atom a : atoms) {
+            res[i++] = a.PDBserial
+        }
+        return res
+    }
+
+    private static double[] coords(Atoms atoms) {
+        double[] res = new double[atoms.count * 3]
+        int k = 0
+        for (Atom a : atoms) {
+            res[k++] = a.x
+            res[k++] = a.y
+            res[k++] = a.z
+        }
+        return res
+    }
+
+}
@@ -120,6 +120,15 @@ public interface InstancePredictor {
                 }
             };
         } else if (classifier instanceof FlatBinaryForest) {
+            if (Params.getInst().getRf_blocked_inference()) {
+                try {
+                    res = new BlockedForestPredictor((FlatBinaryForest) classifier);
+                } catch (Exception e) {
+                    log.warn("Cannot create blocked inference kernel, using FlatBinaryForest.predict()", e);
+                }
+            }
+        }
+        if (res == null && classifier instanceof FlatBinaryForest) {
             res = new InstancePredictor() { // predictor using faster distributionForAttributes()
                 final FlatBinaryForest ff = (FlatBinaryForest) classifier;
 
@@ -128,9 +137,17 @@ public interface InstancePredictor {
                     return ff.predict(vect.getArray());
                 }
 
+                /**
+                 * Not using ff.predictForBatch(): it does not accumulate scores of the trees (FasterForest 2.5.2).
+                 */
                 @Override
                 public double[] predictBatchArrays(double[][] arrays) {
-                    return ff.predictForBatch(arrays);
+                    int n = arrays.length;
+                    double[] res = new double[n];
+                    for (int i=0; i!=n; ++i) {
+                        res[i] = ff.predict(arrays[i]);
+                    }
+                    return res;
                 }
 
                 @Override
@@ -149,6 +166,36 @@ public interface InstancePredictor {
         return res;
     }
 
+    /**
+     * Flattened forest with batches classified by cache-blocked BlockedForest
+     */
+    static class BlockedForestPredictor implements InstancePredictor {
+
+        private final FlatBinaryForest ff;
+        private final BlockedForest blocked;
+
+        public BlockedForestPredictor(FlatBinaryForest ff) {
+            this.ff = ff;
+            this.blocked = BlockedForest.from(ff);
+        }
+
+        @Override
+        public double predictPositive(FeatureVector vect) {
+            return ff.predict(vect.getArray());
+        }
+
+        @Override
+        public double[] predictBatchArrays(double[][] arrays) {
+            return blocked.predictForBatch(arrays);
+        }
+
+        @Override
+        public double[] getDistributionForPoint(FeatureVector vect) {
+            double p = predictPositive(vect);
+            return new double[] {1d-p, p};
+        }
+    }
+
     static class WekaInstancePredictor implements InstancePredictor {
 
         private final Classifier classifier;
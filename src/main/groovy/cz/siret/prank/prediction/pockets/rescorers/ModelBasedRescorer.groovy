@@ -2,23 +2,31 @@ package cz.siret.prank.prediction.pockets.rescorers
 
 import cz.siret.prank.domain.Pocket
 import cz.siret.prank.domain.Prediction
+import cz.siret.prank.domain.Protein
 import cz.siret.prank.domain.labeling.LabeledPoint
+import cz.siret.prank.domain.labeling.PointResults
 import cz.siret.prank.domain.labeling.ResidueLabelings
 import cz.siret.prank.features.FeatureExtractor
 import cz.siret.prank.features.FeatureVector
+import cz.siret.prank.features.FeatureVectorCache
 import cz.siret.prank.features.PrankFeatureExtractor
 import cz.siret.prank.features.api.ProcessedItemContext
 import cz.siret.prank.geom.Atoms
+import cz.siret.prank.geom.Surface
 import cz.siret.prank.prediction.metrics.ClassifierStats
 import cz.siret.prank.prediction.pockets.PocketPredictor
 import cz.siret.prank.prediction.pockets.PointScoreCalculator
 import cz.siret.prank.prediction.transformation.ScoreTransformer
 import cz.siret.prank.program.ml.Model
 import cz.siret.prank.program.params.Parametrized
+import cz.siret.prank.program.params.Params
 import groovy.transform.CompileStatic
+import groovy.transform.EqualsAndHashCode
 import groovy.util.logging.Slf4j
 import org.biojava.nbio.structure.Atom
 
+import java.util.function.Supplier
+
 import static cz.siret.prank.prediction.pockets.PointScoreCalculator.applyPointScoreThreshold
 
 /**
@@ -33,6 +41,9 @@ import static cz.siret.prank.prediction.pockets.PointScoreCalculator.applyPointS
 @CompileStatic
 class ModelBasedRescorer extends PocketRescorer implements Parametrized  {
 
+    /** params that were current when the rescorer was created */
+    private final Params params = Params.inst
+
     private final double POSITIVE_POINT_LIGAND_DISTANCE = params.positive_point_ligand_distance
 
     private final PointScoreCalculator calculator = new PointScoreCalculator()
@@ -44,6 +55,12 @@ class ModelBasedRescorer extends PocketRescorer implements Parametrized  {
     boolean collectPoints = params.visualizations || params.predictions
     boolean visualizeAllSurface = params.vis_all_surface
 
+    /** if set, consecutive proteins are treated as frames of a trajectory (see IncrementalFrames) */
+    IncrementalFrames frames = null
+
+    /** if set, batches of points are classified by the shared inference stage */
+    BatchInferenceService inferenceService = null
+
     // SAS points with ligandability score for prediction and visualization
     List<LabeledPoint> labeledPoints = new ArrayList<>()
 
@@ -53,69 +70,182 @@ class ModelBasedRescorer extends PocketRescorer implements Parametrized  {
         this.model = model
     }
 
+    @Override
+    Params getParams() {
+        return params
+    }
+
     /**
      * @param prediction
      */
     @Override
     void rescorePockets(Prediction prediction, ProcessedItemContext context) {
 
-        FeatureExtractor proteinExtractor = extractorFactory.createPrototypeForProtein(prediction.protein, context)
+        FeatureExtractor proteinExtractor = null
 
-        InstancePredictor instancePredictor = InstancePredictor.create(model, proteinExtractor)
+        InstancePredictor instancePredictor = InstancePredictor.create(model, extractorFactory)
+        if (inferenceService != null) {
+            instancePredictor = inferenceService.wrap(instancePredictor)
+        }
 
         // PRANK (just rescoring existing pockets)
         if (!params.predictions) {
+            proteinExtractor = extractorFactory.createPrototypeForProtein(prediction.protein, context)
             doRescore(prediction, proteinExtractor, instancePredictor)
         }
 
         // compute ligandability scores of SAS points for predictions and visualization
         if (params.predictions || visualizeAllSurface) {
 
-            FeatureExtractor extractor = (proteinExtractor as PrankFeatureExtractor).createInstanceForWholeProtein()
-
+            if (proteinExtractor == null && frames != null) {
+                // scores of points are partly reused from the previous frame
+                IncrementalFrames.FrameScores frame = frames.calcFrameScores(prediction.protein, context, extractorFactory, instancePredictor)
+                labelPoints(prediction, frame.points, frame.scores, prediction.protein.exposedAtoms, context)
+            } else if (proteinExtractor == null && isCoarseToFine()) {
+                // refined surface depends on the model, so it is not cached
+                proteinExtractor = predictCoarseToFine(prediction, context, instancePredictor)
+            } else {
+                FeatureVectorCache.SurfaceVectors surface
+                if (proteinExtractor == null) {
+                    // protein prototype is created only if vectors are not cached
+                    surface = FeatureVectorCache.instance.get('surface', context?.item, params, {
+                        proteinExtractor = extractorFactory.createPrototypeForProtein(prediction.protein, context)
+                        return calcSurfaceVectors(proteinExtractor)
+                    } as Supplier<FeatureVectorCache.SurfaceVectors>)
+                } else {
+                    surface = calcSurfaceVectors(proteinExtractor)
+                }
 
-            int n_points = extractor.sampledPoints.points.count
-            labeledPoints = new ArrayList<>(n_points)
-            for (Atom point : extractor.sampledPoints.points) {
-                labeledPoints.add(new LabeledPoint(point))
+                // classification
+                double[] scores = instancePredictor.predictBatch(surface.vectors)
+                labelPoints(prediction, surface.points, scores, prediction.protein.exposedAtoms, context)
             }
+        }
 
-            List<FeatureVector> vectors = new ArrayList<>(n_points)
-            for (LabeledPoint point : labeledPoints) {
-                vectors.add(extractor.calcFeatureVector(point.point))
-            }
+        if (proteinExtractor != null) {
+            proteinExtractor.finalizeProteinPrototype()
+        }
+    }
 
-            // classification
-            double[] scores = instancePredictor.predictBatch(vectors)
+    /**
+     * Labels scored SAS points and generates predictions (pockets and residue labelings)
+     * @param exposedAtoms protein atoms exposed to the surface of sasPoints
+     */
+    private void labelPoints(Prediction prediction, Atoms sasPoints, double[] scores, Atoms exposedAtoms, ProcessedItemContext context) {
+        int n_points = sasPoints.count
+        labeledPoints = new ArrayList<>(n_points)
+        for (Atom point : sasPoints) {
+            labeledPoints.add(new LabeledPoint(point))
+        }
 
-            // TODO refactor: use ModelBasedPointLabeler instead of this loop
-            for (int i=0; i!=n_points; ++i) {
-                LabeledPoint point = labeledPoints.get(i)
+        // TODO refactor: use ModelBasedPointLabeler instead of this loop
+        for (int i=0; i!=n_points; ++i) {
+            LabeledPoint point = labeledPoints.get(i)
 
-                // labels and statistics
-                calculator.scorePoint(point, scores[i])
+            // labels and statistics
+            calculator.scorePoint(point, scores[i])
 
-                point.predicted = applyPointScoreThreshold(point.score)
-                point.observed = isPositivePoint(point.point, ligandAtoms)
+            point.predicted = applyPointScoreThreshold(point.score)
+            point.observed = isPositivePoint(point.point, ligandAtoms)
 
-                if (collectStats) {
-                    stats.addPrediction(point.observed, point.predicted, point.score)
-                }
+            if (collectStats) {
+                stats.addPrediction(point.observed, point.predicted, point.score)
             }
+        }
 
-            // generate predictions
-            if (params.predictions) {
-                prediction.pockets = new PocketPredictor().predictPockets(labeledPoints, prediction.protein)
-                prediction.reorderedPockets = prediction.pockets
-                prediction.labeledPoints = labeledPoints
+        // generate predictions
+        if (params.predictions) {
+            prediction.pockets = new PocketPredictor().predictPockets(labeledPoints, prediction.protein, exposedAtoms)
+            prediction.reorderedPockets = prediction.pockets
+            prediction.pointResults = PointResults.of(labeledPoints)
 
-                if (params.label_residues) {
-                    prediction.residueLabelings = ResidueLabelings.calculate(prediction, model, extractor.sampledPoints.points, labeledPoints, context)
-                }
+            if (params.label_residues) {
+                prediction.residueLabelings = ResidueLabelings.calculate(prediction, model, sasPoints, exposedAtoms, labeledPoints, context)
             }
         }
+    }
 
-        proteinExtractor.finalizeProteinPrototype()
+    /**
+     * Calculates feature vectors for SAS points of the whole protein,
+     * or only for given points if regionPoints are provided
+     */
+    private static FeatureVectorCache.SurfaceVectors calcSurfaceVectors(FeatureExtractor proteinExtractor, Atoms regionPoints = null) {
+        PrankFeatureExtractor prototype = proteinExtractor as PrankFeatureExtractor
+        FeatureExtractor extractor = (regionPoints == null)
+                ? prototype.createInstanceForWholeProtein()
+                : prototype.createInstanceForSurfaceRegion(regionPoints)
+
+        Atoms points = extractor.sampledPoints.points
+        List<FeatureVector> vectors = new ArrayList<>(points.count)
+        for (Atom point : points) {
+            vectors.add(extractor.calcFeatureVector(point))
+        }
+
+        return new FeatureVectorCache.SurfaceVectors(points, vectors)
+    }
+
+    private boolean isCoarseToFine() {
+        return params.coarse_tessellation > 0 && params.coarse_tessellation < params.tessellation
+                && params.point_sampling_strategy == "surface"
+    }
+
+    /**
+     * Coarse-to-fine prediction (see Params.coarse_tessellation):
+     * classifies points of the coarse surface and calculates fine surface and its feature vectors only around
+     * coarse points with score >= coarse_point_threshold. Pockets are predicted from the fine points.
+     *
+     * Coarse and refined surfaces are given to feature extractor prototypes, the (possibly cached and shared)
+     * protein is not modified. Its full surface is calculated only on demand (e.g. in evaluation,
+     * or for ASA with feat_asa_from_surface).
+     *
+     * @return protein prototype (to be finalized)
+     */
+    private FeatureExtractor predictCoarseToFine(Prediction prediction, ProcessedItemContext context, InstancePredictor instancePredictor) {
+        Protein protein = prediction.protein
+
+        Surface coarseSurface = Surface.computeAccessibleSurface(protein.proteinAtoms, params.solvent_radius, params.coarse_tessellation)
+        Atoms coarseExposedAtoms = coarseSurface.computeExposedAtoms(protein.proteinAtoms)
+
+        // prototype is created with the coarse surface, so fine surface of the whole protein is never calculated
+        PrankFeatureExtractor factory = extractorFactory as PrankFeatureExtractor
+        FeatureExtractor coarseExtractor = factory.createPrototypeForProtein(protein, coarseSurface, coarseExposedAtoms, context)
+        FeatureVectorCache.SurfaceVectors coarse = calcSurfaceVectors(coarseExtractor)
+        double[] coarseScores = instancePredictor.predictBatch(coarse.vectors)
+
+        Atoms hotPoints = new Atoms()
+        for (int i = 0; i != coarseScores.length; ++i) {
+            if (coarseScores[i] >= params.coarse_point_threshold) {
+                hotPoints.add(coarse.points.list.get(i))
+            }
+        }
+
+        Atoms finePoints = new Atoms(0)
+        if (!hotPoints.empty) {
+            // atoms that can occlude fine points around hot points: margin + max atom radius + solvent radius
+            double occlusionDist = params.coarse_refine_margin + params.solvent_radius + 2.5
+            Atoms regionAtoms = protein.proteinAtoms.cutoutShell(hotPoints, occlusionDist)
+            Surface regionSurface = Surface.computeAccessibleSurface(regionAtoms, params.solvent_radius, params.tessellation)
+            finePoints = regionSurface.points.cutoutShell(hotPoints, params.coarse_refine_margin)
+        }
+
+        log.info "coarse-to-fine: {} coarse points ({} selected), {} fine points", coarse.points.count, hotPoints.count, finePoints.count
+
+        // exposed atoms are kept for the whole protein (residue labeling considers all exposed residues)
+        Atoms exposedAtoms = protein.proteinAtoms.cutoutShell(coarseSurface.points.joinWith(finePoints),
+                params.solvent_radius + coarseSurface.VAN_DER_WAALS_COMPENSATION)
+        Surface fineSurface = new Surface(coarseSurface.surfaceArea, finePoints, params.solvent_radius, params.tessellation)
+
+        if (finePoints.empty) {
+            labelPoints(prediction, finePoints, new double[0], exposedAtoms, context)
+            return coarseExtractor
+        }
+
+        // atom vectors and deep layer are calculated only in the neighbourhood of fine points
+        FeatureExtractor fineExtractor = factory.createPrototypeForSurfaceRegion(protein, fineSurface, exposedAtoms, finePoints, context)
+        List<FeatureVector> vectors = calcSurfaceVectors(fineExtractor, finePoints).vectors
+        labelPoints(prediction, finePoints, instancePredictor.predictBatch(vectors), exposedAtoms, context)
+
+        return fineExtractor
     }
 
     boolean isPositivePoint(Atom point, Atoms ligandAtoms) {
@@ -127,6 +257,10 @@ class ModelBasedRescorer extends PocketRescorer implements Parametrized  {
 
     /**
      * Rescore predictions of other methods
+     *
+     * Sampled points of all pockets are deduplicated (overlapping pockets often share points),
+     * feature vectors are calculated once per unique point and classified in one batch.
+     *
      * TODO refactor to use PointScoreCalculator
      */
     private void doRescore(Prediction prediction, FeatureExtractor proteinExtractor, InstancePredictor instancePredictor) {
@@ -136,20 +270,66 @@ class ModelBasedRescorer extends PocketRescorer implements Parametrized  {
         // pocket score transformers
         ScoreTransformer probaTpTransformer = ScoreTransformer.load(params.probatp_transformer)
 
+        // collect unique points of all pockets
+
+        Map<PointKey, Integer> uniqueIndex = new HashMap<>()
+        List<Atom> uniquePoints = new ArrayList<>()
+        List<FeatureExtractor> uniquePointExtractors = new ArrayList<>()
+        List<Atoms> pocketPoints = new ArrayList<>(prediction.pockets.size())
+        List<int[]> pocketPointIndexes = new ArrayList<>(prediction.pockets.size())
+        int sampledCount = 0
+
         for (Pocket pocket : prediction.pockets) {
             FeatureExtractor extractor = proteinExtractor.createInstanceForPocket(pocket)
+            Atoms points = extractor.sampledPoints.points
+
+            int[] indexes = new int[points.count]
+            int i = 0
+            for (Atom point : points) {
+                PointKey key = new PointKey(point)
+                Integer idx = uniqueIndex.get(key)
+                if (idx == null) {
+                    idx = uniquePoints.size()
+                    uniqueIndex.put(key, idx)
+                    uniquePoints.add(point)
+                    uniquePointExtractors.add(extractor)
+                }
+                indexes[i++] = idx
+            }
+
+            pocketPoints.add(points)
+            pocketPointIndexes.add(indexes)
+            sampledCount += indexes.length
+        }
+
+        log.debug "rescoring {} pockets: {} unique points of {} sampled", prediction.pockets.size(), uniquePoints.size(), sampledCount
+
+        // calculate features once per unique point and classify in one batch
+
+        List<FeatureVector> vectors = new ArrayList<>(uniquePoints.size())
+        for (int i = 0; i != uniquePoints.size(); ++i) {
+            vectors.add(uniquePointExtractors.get(i).calcFeatureVector(uniquePoints.get(i)))
+        }
+        double[] scores = instancePredictor.predictBatch(vectors)
+
+        // scatter scores back to pockets
+
+        int pi = 0
+        for (Pocket pocket : prediction.pockets) {
+            Atoms points = pocketPoints.get(pi)
+            int[] indexes = pocketPointIndexes.get(pi)
+            pi++
 
             double sum = 0
             double rawSum = 0
 
-            List<LabeledPoint> pocketLabeledPoints = new ArrayList<>(extractor.sampledPoints.points.count)
-
-            for (Atom point : extractor.sampledPoints.points) {
+            List<LabeledPoint> pocketLabeledPoints = new ArrayList<>(points.count)
 
-                FeatureVector vector = extractor.calcFeatureVector(point)
+            int i = 0
+            for (Atom point : points) {
 
                 // not all classifiers give histogram that sums up to 1
-                double pointScore = instancePredictor.predictPositive(vector)
+                double pointScore = scores[indexes[i++]]
                 boolean predicted = applyPointScoreThreshold(pointScore)
                 boolean observed = false
 
@@ -171,10 +351,10 @@ class ModelBasedRescorer extends PocketRescorer implements Parametrized  {
 
             double pocketScore = sum
             pocket.newScore = pocketScore
-            pocket.sasPoints = extractor.sampledPoints.points
+            pocket.sasPoints = points
             pocket.labeledPoints = pocketLabeledPoints
-            pocket.auxInfo.rawNewScore = rawSum / extractor.sampledPoints.points.count // ratio of predicted ligandable points
-            pocket.auxInfo.samplePoints = extractor.sampledPoints.points.count
+            pocket.auxInfo.rawNewScore = rawSum / points.count // ratio of predicted ligandable points
+            pocket.auxInfo.samplePoints = points.count
 
             if (probaTpTransformer!=null) {
                 pocket.auxInfo.probaTP = probaTpTransformer.transformScore(pocketScore)
@@ -183,6 +363,22 @@ class ModelBasedRescorer extends PocketRescorer implements Parametrized  {
 
     }
 
+    /**
+     * Identifies point by its coordinates
+     */
+    @EqualsAndHashCode
+    private static class PointKey {
+        final double x
+        final double y
+        final double z
+
+        PointKey(Atom point) {
+            this.x = point.x
+            this.y = point.y
+            this.z = point.z
+        }
+    }
+
     ClassifierStats getStats() {
         return stats
     }
@@ -0,0 +1,77 @@
+package cz.siret.prank.prediction.pockets.rescorers;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Vectorized tree traversal kernel of BlockedForest (Vector API, jdk.incubator.vector).
+ *
+ * Lanes are consecutive rows of the block: split attributes, row values, split points and children
+ * of current nodes are gathered and compared for all lanes at once.
+ *
+ * Loaded only if the module is available (JVM option --add-modules jdk.incubator.vector),
+ * otherwise BlockedForest uses the scalar kernel.
+ */
+final class VectorTreeTraversal {
+
+    private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+    private static final VectorSpecies<Integer> INTS = VectorSpecies.of(int.class, VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+
+    static final int LANES = DOUBLES.length();
+
+    private VectorTreeTraversal() {}
+
+    /**
+     * @return true if the kernel can be used with given block size on this platform
+     */
+    static boolean isSupported(int blockSize) {
+        return LANES >= 2 && INTS.length() == LANES && blockSize % LANES == 0;
+    }
+
+    /**
+     * Same as BlockedForest.traverseTree(), but processes LANES rows per step.
+     *
+     * @param rowOffsets offset of row r in the block
+     * @param nodes current nodes of the rows, has length of the block, rows at len and above must be set to -1
+     * @param scratch at least 2*LANES ints
+     */
+    static void traverseTree(double[] block, int[] rowOffsets, int len, int[] nodes, int[] scratch,
+                             int[] attributeIndex, double[] splitPoint, int[] children) {
+
+        IntVector zero = IntVector.zero(INTS);
+
+        int active = len;
+        while (active > 0) {
+            active = 0;
+            for (int r = 0; r < len; r += LANES) {
+                IntVector node = IntVector.fromArray(INTS, nodes, r);
+                VectorMask<Integer> inner = node.compare(VectorOperators.GE, 0);
+                if (!inner.anyTrue()) {
+                    continue;
+                }
+                // lanes already in a leaf read node 0 and keep their value
+                IntVector safeNode = node.blend(0, inner.not());
+                safeNode.intoArray(scratch, 0);
+
+                IntVector attribute = IntVector.fromArray(INTS, attributeIndex, 0, scratch, 0);
+                IntVector.fromArray(INTS, rowOffsets, r).add(attribute).intoArray(scratch, LANES);
+                DoubleVector values = DoubleVector.fromArray(DOUBLES, block, 0, scratch, LANES);
+                DoubleVector splits = DoubleVector.fromArray(DOUBLES, splitPoint, 0, scratch, 0);
+
+                // NaN goes right (as in FlatBinaryForest)
+                VectorMask<Integer> right = values.compare(VectorOperators.LT, splits).cast(INTS).not();
+                safeNode.add(safeNode).add(zero.blend(1, right)).intoArray(scratch, LANES);
+                IntVector next = IntVector.fromArray(INTS, children, 0, scratch, LANES);
+
+                IntVector updated = node.blend(next, inner);
+                updated.intoArray(nodes, r);
+                active += updated.compare(VectorOperators.GE, 0).trueCount();
+            }
+        }
+    }
+
+}
@@ -11,9 +11,11 @@ import cz.siret.prank.program.routines.analyze.AnalyzeRoutine
 import cz.siret.prank.program.routines.analyze.PrintRoutine
 import cz.siret.prank.program.routines.analyze.TransformRoutine
 import cz.siret.prank.program.routines.benchmark.Benchmarks
+import cz.siret.prank.program.routines.predict.PredictFramesRoutine
 import cz.siret.prank.program.routines.predict.PredictPocketsRoutine
 import cz.siret.prank.program.routines.predict.PredictResiduesRoutine
 import cz.siret.prank.program.routines.predict.RescorePocketsRoutine
+import cz.siret.prank.program.routines.predict.ServeRoutine
 import cz.siret.prank.program.routines.results.EvalResults
 import cz.siret.prank.program.routines.traineval.*
 import cz.siret.prank.utils.*
@@ -296,6 +298,22 @@ class Main implements Parametrized, Writable {
         doRunPredict("eval_predict", true)
     }
 
+    void runPredictFrames() {
+        Dataset dataset = loadDatasetOrFile()
+        String outdir = findOutdir("predict_frames_$dataset.label")
+        configureLoggers(outdir)
+
+        Dataset.Result result = new PredictFramesRoutine(dataset, findModel(), outdir).execute()
+        finalizeDatasetResult(result)
+    }
+
+    void runServe() {
+        String outdir = findOutdir("serve")
+        configureLoggers(outdir)
+
+        new ServeRoutine(findModel(), outdir).execute()
+    }
+
     void runRescore() {
         initRescoreDefaultParams()
         Dataset dataset = loadDatasetOrFile()
@@ -356,8 +374,8 @@ class Main implements Parametrized, Writable {
 
         configureLoggers(outdir)
 
-        CrossValidation routine = new CrossValidation(outdir, dataset)
-        new SeedLoop(routine, outdir).execute()
+        Closure<EvalRoutine> routineFactory = { new CrossValidation(outdir, dataset) as EvalRoutine }
+        new SeedLoop(routineFactory, outdir).execute()
     }
 
     private runExperiment(String routineName) {
@@ -420,6 +438,10 @@ class Main implements Parametrized, Writable {
                 break
             case 'eval-predict':    runEvalPredict()
                 break
+            case 'predict-frames':  runPredictFrames()
+                break
+            case 'serve':           runServe()
+                break
             case 'rescore':         runRescore()
                 break
             case 'fpocket-rescore': runFpocketRescore()
@@ -0,0 +1,62 @@
+package cz.siret.prank.program
+
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+/**
+ * Admission control of concurrently processed work by estimated memory footprint.
+ *
+ * Work is admitted while the sum of estimates of work in progress fits the budget.
+ * Work larger than the whole budget is admitted only when nothing else is in progress (so it is never blocked forever).
+ *
+ * Process-wide budget is shared by all datasets processed at the same time (see Dataset.processItems()).
+ */
+@Slf4j
+@CompileStatic
+class MemoryBudget {
+
+    private static MemoryBudget SHARED
+    private static long SHARED_BUDGET_MB
+
+    private final long budget
+    private long used = 0
+
+    MemoryBudget(long budgetBytes) {
+        this.budget = budgetBytes
+    }
+
+    /**
+     * @return process-wide budget of given size (recreated when size changes)
+     */
+    synchronized static MemoryBudget shared(long budgetMb) {
+        if (SHARED == null || SHARED_BUDGET_MB != budgetMb) {
+            SHARED = new MemoryBudget(budgetMb * 1024L * 1024L)
+            SHARED_BUDGET_MB = budgetMb
+        }
+        return SHARED
+    }
+
+    /**
+     * Blocks until the work of given size fits the budget.
+     */
+    synchronized void acquire(long bytes) throws InterruptedException {
+        while (used > 0 && used + bytes > budget) {
+            wait()
+        }
+        used += bytes
+    }
+
+    synchronized void release(long bytes) {
+        used -= bytes
+        notifyAll()
+    }
+
+    synchronized long getUsed() {
+        return used
+    }
+
+    long getBudget() {
+        return budget
+    }
+
+}
@@ -13,7 +13,7 @@ public abstract class PrankPredictor {
 
     /**
      * Get config object used by this predictor.
-     * (For now still uses global static config object :/)
+     * Each predictor has its own config object, changes don't affect other predictors or global Params.INSTANCE.
      */
     public abstract Params getParams();
 
@@ -14,16 +14,21 @@ import java.nio.file.Path
 
 /**
  * Implementation of prediction API
+ *
+ * Each predictor has its own params (initialized as a copy of current params) that are bound to the calling thread
+ * (and dataset worker threads) for the duration of each call. Multiple differently configured predictors
+ * can therefore be used side by side in one JVM.
  */
 @CompileStatic
 class DafaultPrankPredictor extends PrankPredictor {
 
-    private Params params = Params.INSTANCE
+    private Params params
     private Path installDir
 
     DafaultPrankPredictor(Path installDir) {
         this.installDir = installDir
-        Params.inst.installDir = installDir // TODO refactor
+        this.params = Params.inst.snapshot()
+        this.params.installDir = installDir
     }
 
     @Override
@@ -50,7 +55,9 @@ class DafaultPrankPredictor extends PrankPredictor {
         dataset.cached = true
         params.fail_fast = true
 
-        predict(dataset)
+        Params.withParams(params) {
+            predict(dataset)
+        }
 
         return dataset.getItems().get(0).predictionPair.prediction
     }
@@ -70,13 +77,16 @@ class DafaultPrankPredictor extends PrankPredictor {
         dataset.cached = true
         params.fail_fast = true
 
-        runPrediction(dataset, outDir)
+        Params.withParams(params) {
+            runPrediction(dataset, outDir)
+        }
 
         return dataset.getItems().get(0).predictionPair.prediction // TODO refactor so it's not dependent on dataset caching
     }
 
     /**
      * Run predictions and write results to the filesystem to outDir.
+     * Expects predictor params to be bound to the current thread.
      *
      * @param dataset
      * @param outDir
@@ -95,6 +105,7 @@ class DafaultPrankPredictor extends PrankPredictor {
 
     /**
      * Run predictions in memory. No filesystem output is produced.
+     * Expects predictor params to be bound to the current thread.
      *
      * @param dataset
      * @return
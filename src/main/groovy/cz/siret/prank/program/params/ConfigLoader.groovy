@@ -1,21 +1,92 @@
 package cz.siret.prank.program.params
 
+import com.google.common.hash.Hasher
+import com.google.common.hash.Hashing
+import com.google.gson.Gson
+import com.google.gson.reflect.TypeToken
+import cz.siret.prank.program.Main
 import cz.siret.prank.program.PrankException
+import cz.siret.prank.utils.Futils
 import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
 import org.codehaus.groovy.control.CompilerConfiguration
 import org.codehaus.groovy.control.customizers.ImportCustomizer
 
+import java.lang.reflect.Field
+import java.lang.reflect.Modifier
+import java.lang.reflect.ParameterizedType
+import java.lang.reflect.Type
+import java.nio.charset.StandardCharsets
+import java.nio.file.Files
+
 @Slf4j
 @CompileStatic
 class ConfigLoader {
 
+    /**
+     * Resolved config files can be cached (as JSON maps of changed param values) so that the Groovy compiler
+     * doesn't need to be invoked on every start.
+     * Disabled by default, enable with -Dprank.config_cache=true.
+     *
+     * Only use with config files that do nothing but assign params: on a cache hit the config script
+     * is not executed, so its other side effects do not happen.
+     */
+    static boolean cacheEnabled = 'true'.equalsIgnoreCase(System.getProperty('prank.config_cache'))
+
+    /**
+     * Per-user directory for cached resolved configs (created with 0700 permissions).
+     * Can be set with -Dprank.config_cache_dir=...
+     */
+    static String cacheDir = System.getProperty('prank.config_cache_dir', System.getProperty('user.home') + '/.p2rank/config_cache')
+
+    private static final int CACHE_FORMAT_VERSION = 2
+
+    /** differs for every run with different arguments */
+    private static final Set<String> KEY_IGNORED_PROPERTIES = ['sun.java.command'] as Set<String>
+
+    private static final Gson GSON = new Gson()
+
     static overrideConfig(Params ps, File paramsGroovyFile) {
 
         log.debug("Overriding default config with [$paramsGroovyFile.path]")
 
         assert paramsGroovyFile.exists(), "config file not found! ($paramsGroovyFile.path)"
 
+        if (!cacheEnabled) {
+            evaluateConfig(ps, paramsGroovyFile)
+            return true
+        }
+
+        Map<String, Object> before = paramValues(ps)
+        String cacheFile = null
+        try {
+            if (!Futils.preparePrivateDir(cacheDir)) {
+                log.warn("Config cache dir [$cacheDir] is not safe to use, config cache disabled")
+                evaluateConfig(ps, paramsGroovyFile)
+                return true
+            }
+            cacheFile = "$cacheDir/${cacheKey(paramsGroovyFile, before)}.json"
+            if (Futils.exists(cacheFile)) {
+                Map<String, Object> changed = GSON.fromJson(Futils.readFile(cacheFile), new TypeToken<Map<String, Object>>(){}.type)
+                applyParamValues(ps, changed)
+                log.debug("Config [$paramsGroovyFile.path] applied from cache [$cacheFile]")
+                return true
+            }
+        } catch (Exception e) {
+            log.debug("Failed to load cached config [$cacheFile], evaluating config file", e)
+            cacheFile = null
+        }
+
+        evaluateConfig(ps, paramsGroovyFile)
+
+        if (cacheFile != null) {
+            storeInCache(cacheFile, before, paramValues(ps))
+        }
+
+        return true
+    }
+
+    private static void evaluateConfig(Params ps, File paramsGroovyFile) {
         def imports = new ImportCustomizer()
         imports.addImport(Params.class.simpleName, Params.class.name)
 
@@ -33,8 +104,160 @@ class ConfigLoader {
         } catch (Exception e) {
             throw new PrankException("Error in the config file [$paramsGroovyFile.path]: " + e.message, e)
         }
+    }
 
-        return true
+//===========================================================================================================//
+
+    /**
+     * Key depends on config file content, on the state of params before applying the config (config files
+     * may refer to previous values) and on the environment that config files may refer to:
+     * number of processors, working directory, environment variables and system properties
+     * (except sun.java.command).
+     */
+    private static String cacheKey(File configFile, Map<String, Object> before) {
+        Hasher hasher = Hashing.sha256().newHasher()
+        hasher.putInt(CACHE_FORMAT_VERSION)
+        hasher.putString(Main.version ?: "", StandardCharsets.UTF_8)
+        hasher.putInt(Runtime.getRuntime().availableProcessors())
+        hasher.putString(new File('').absolutePath, StandardCharsets.UTF_8)
+        hasher.putString(new TreeMap<String, String>(System.getenv()).toString(), StandardCharsets.UTF_8)
+        Map<String, String> props = new TreeMap<>()
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (!KEY_IGNORED_PROPERTIES.contains(name)) {
+                props.put(name, System.getProperty(name))
+            }
+        }
+        hasher.putString(props.toString(), StandardCharsets.UTF_8)
+        hasher.putString(configFile.absolutePath, StandardCharsets.UTF_8)
+        hasher.putBytes(Files.readAllBytes(configFile.toPath()))
+        hasher.putString(before.toString(), StandardCharsets.UTF_8)
+        return hasher.hash().toString()
+    }
+
+    private static void storeInCache(String cacheFile, Map<String, Object> before, Map<String, Object> after) {
+        Map<String, Object> changed = new LinkedHashMap<>()
+        after.each { String name, Object value ->
+            if (!Objects.equals(before.get(name), value)) {
+                changed.put(name, value)
+            }
+        }
+
+        for (Map.Entry<String, Object> e : changed.entrySet()) {
+            if (!isPlainValue(e.value)) {
+                log.debug("Resolved config not cached: value of param [$e.key] is not a primitive or a list of primitives")
+                return
+            }
+        }
+
+        try {
+            String tmpFile = cacheFile + '.' + UUID.randomUUID() + '.tmp'
+            Futils.writeFile(tmpFile, GSON.toJson(changed))
+            if (!new File(tmpFile).renameTo(new File(cacheFile))) {
+                Futils.delete(tmpFile)
+            }
+        } catch (Exception e) {
+            // unwritable cache dir: config will be evaluated next time
+            log.debug("Failed to store resolved config to cache [$cacheFile]", e)
+        }
+    }
+
+    private static boolean isPrimitiveValue(Object value) {
+        return value == null || value instanceof String || value instanceof Number || value instanceof Boolean
+    }
+
+    private static boolean isPlainValue(Object value) {
+        if (value instanceof List) {
+            return ((List) value).every { isPrimitiveValue(it) }
+        }
+        return isPrimitiveValue(value)
+    }
+
+    private static List<Field> paramFields() {
+        List<Field> res = new ArrayList<>()
+        for (Field f : Params.class.declaredFields) {
+            if (Modifier.isStatic(f.modifiers) || Modifier.isTransient(f.modifiers) || f.synthetic || f.name.startsWith('$') || f.name.startsWith('__')) {
+                continue
+            }
+            f.setAccessible(true)
+            res.add(f)
+        }
+        return res
+    }
+
+    /**
+     * @return copy of current values of all param fields (collections are copied so that in-place modifications can be detected)
+     */
+    private static Map<String, Object> paramValues(Params ps) {
+        Map<String, Object> res = new TreeMap<>()
+        for (Field f : paramFields()) {
+            res.put(f.name, copyValue(f.get(ps)))
+        }
+        return res
+    }
+
+    private static void applyParamValues(Params ps, Map<String, Object> values) {
+        Map<String, Field> fields = new HashMap<>()
+        for (Field f : paramFields()) {
+            fields.put(f.name, f)
+        }
+        if (!fields.keySet().containsAll(values.keySet())) {
+            throw new PrankException("Unknown parameters in cached config: " + (values.keySet() - fields.keySet()))
+        }
+        values.each { String name, Object value ->
+            Field f = fields.get(name)
+            f.set(ps, fromJsonValue(value, f.type, f.genericType))
+        }
+    }
+
+    /**
+     * Converts value parsed from JSON (numbers are parsed as doubles) to the type of the param field.
+     */
+    private static Object fromJsonValue(Object value, Class type, Type genericType) {
+        if (value == null) {
+            if (type.primitive) {
+                throw new PrankException("Null value for primitive param in cached config")
+            }
+            return null
+        }
+        if (List.isAssignableFrom(type)) {
+            Class elemType = Object
+            if (genericType instanceof ParameterizedType) {
+                Type arg = ((ParameterizedType) genericType).actualTypeArguments[0]
+                if (arg instanceof Class) {
+                    elemType = (Class) arg
+                }
+            }
+            List res = new ArrayList()
+            for (Object elem : (List) value) {
+                res.add(fromJsonValue(elem, elemType, elemType))
+            }
+            return res
+        }
+        if (type == int || type == Integer) {
+            return ((Number) value).intValue()
+        } else if (type == long || type == Long) {
+            return ((Number) value).longValue()
+        } else if (type == float || type == Float) {
+            return ((Number) value).floatValue()
+        } else if (type == double || type == Double) {
+            return ((Number) value).doubleValue()
+        } else if (type == boolean || type == Boolean) {
+            return (Boolean) value
+        } else if (type == String) {
+            return (String) value
+        } else if (type == Object && isPrimitiveValue(value)) {
+            return value
+        }
+        throw new PrankException("Unsupported param type in cached config: " + type.name)
+    }
+
+    private static Object copyValue(Object value) {
+        if (value instanceof List) {
+            return new ArrayList((List) value)
+        } else if (value instanceof Map) {
+            return new LinkedHashMap((Map) value)
+        }
+        return value
     }
 
 }
@@ -0,0 +1,19 @@
+package cz.siret.prank.program.params
+
+import java.lang.annotation.ElementType
+import java.lang.annotation.Retention
+import java.lang.annotation.RetentionPolicy
+import java.lang.annotation.Target
+
+/**
+ * Marks parameters that may influence loading of structures, point sampling, labeling of training points
+ * or feature extraction.
+ *
+ * Values of these parameters are part of the key of cached feature vectors (see FeatureVectorCache),
+ * a new parameter that influences calculated vectors must be marked, otherwise stale vectors are reused.
+ */
+@Retention(RetentionPolicy.RUNTIME)
+@Target(ElementType.FIELD)
+@interface ExtractionParam {
+
+}
@@ -4,12 +4,13 @@ import groovy.transform.CompileStatic
 
 /**
  * provides params property for easy access to global parameters
+ * (or to parameters bound to the current thread, see Params.withParams())
  */
 @CompileStatic
 trait Parametrized {
 
     Params getParams() {
-        return Params.INSTANCE
+        return Params.inst
     }
 
 }
\ No newline at end of file
@@ -21,6 +21,7 @@ import groovy.util.logging.Slf4j
  * @ModelParam              ... Actual parameters of the algorithm, related to extracting features and calculating results.
  *                              It is important that those parameters stay the same when training a model and then using it for inference.
  * @ModelParam // training  ... Model params used only in training phase but not during inference.
+ * @ExtractionParam         ... Params that may influence calculated feature vectors (part of the key in FeatureVectorCache).
  */
 @Slf4j
 @AutoClone
@@ -29,14 +30,52 @@ class Params {
 
     public static Params INSTANCE = new Params()
 
+    /**
+     * Params bound to the current thread by withParams(). When set, they take precedence over global INSTANCE.
+     */
+    private static final ThreadLocal<Params> THREAD_PARAMS = new ThreadLocal<>()
+
+    /**
+     * @return params bound to the current thread (see withParams()) or global INSTANCE
+     */
     public static Params getInst() {
-        return INSTANCE
+        Params bound = THREAD_PARAMS.get()
+        return (bound != null) ? bound : INSTANCE
+    }
+
+    /**
+     * Run closure with params bound to the current thread.
+     * Code running in the closure (on this thread) sees provided params through Params.inst and Parametrized.getParams().
+     *
+     * Params are not propagated to other threads automatically. Code that hands work to other threads
+     * must capture Params.inst and bind it again in the worker (see Dataset.processItems()).
+     */
+    public static <T> T withParams(Params ps, Closure<T> closure) {
+        Params previous = THREAD_PARAMS.get()
+        THREAD_PARAMS.set(ps)
+        try {
+            return closure.call()
+        } finally {
+            if (previous == null) {
+                THREAD_PARAMS.remove()
+            } else {
+                THREAD_PARAMS.set(previous)
+            }
+        }
+    }
+
+    /**
+     * @return independent copy of this params object
+     */
+    Params snapshot() {
+        return (Params) this.clone()
     }
 
     /**
      * define this if you want dataset program parameters to be evaluated relative to this directory
      * (set absolute path or path relative to install dir, null defaults to working dir)
      */
+    @ExtractionParam
     @RuntimeParam
     String dataset_base_dir = null
 
@@ -67,6 +106,33 @@ class Params {
     @RuntimeParam
     boolean parallel = true
 
+    /**
+     * When processing datasets in parallel, start items with the largest estimated cost (size of structure files) first
+     */
+    @RuntimeParam
+    boolean schedule_largest_first = true
+
+    /**
+     * Memory budget (in MB) for items processed in parallel. Items are started only while the sum of their
+     * estimated memory footprints (from size of structure files and tessellation) fits the budget.
+     * Item larger than the budget is processed alone. 0 = no limit.
+     */
+    @RuntimeParam
+    int memory_budget_mb = 0
+
+    /**
+     * Number of dataset items whose structures are loaded (read, decompressed and parsed) ahead of processing
+     * in separate I/O threads. 0 = no prefetching, structures are loaded by computing threads.
+     */
+    @RuntimeParam
+    int prefetch_items = 0
+
+    /**
+     * Number of I/O threads loading structures ahead (see prefetch_items)
+     */
+    @RuntimeParam
+    int prefetch_threads = 2
+
     /**
      * Number of computing threads
      */
@@ -102,6 +168,7 @@ class Params {
      * defines witch atoms around the ligand are considered to be part of the pocket
      * (ligands with longer distance are considered 'distant', i.e. irrelevant floating ligands)
      */
+    @ExtractionParam
     @ModelParam // training
     double ligand_protein_contact_distance = 4
 
@@ -109,6 +176,7 @@ class Params {
      * acceptable distance between ligand center and closest protein atom for relevant ligands
      * (ligands with longer distance are considered 'distant', i.e. irrelevant floating ligands)
      */
+    @ExtractionParam
     @ModelParam // training
     double ligc_prot_dist = 5.5
 
@@ -117,6 +185,7 @@ class Params {
     /**
      * List of general calculated features
      */
+    @ExtractionParam
     @ModelParam
     List<String> features = ["chem", "protrusion", "bfactor", "atom_table", "residue_table"]
 
@@ -124,6 +193,7 @@ class Params {
      * List that is added to the features list on runtime.
      * Useful in grid optimization mode for comparing different new features.
      */
+    @ExtractionParam
     @ModelParam
     List<String> extra_features = []
 
@@ -131,12 +201,14 @@ class Params {
      * List of features that come directly from atom type tables
      * see atomic-properties.csv
      */
+    @ExtractionParam
     @ModelParam
     List<String> atom_table_features = ["apRawValids","apRawInvalids","atomicHydrophobicity"]
 
     /**
      * List of features that come directly from residue tables
      */
+    @ExtractionParam
     @ModelParam
     List<String> residue_table_features = []
 
@@ -167,12 +239,14 @@ class Params {
      *   <li> ["chem.*","-chem.hydrophobicity","-chem.atoms"] - include only those with prefix "chem.", except "chem.hydrophobicity" and "chem.atoms"
      * </ul>
      */
+    @ExtractionParam
     @ModelParam
     List<String> feature_filters = []
 
     /**
      * Exponent applied to all atom table features // TODO change default to 1
      */
+    @ExtractionParam
     @ModelParam
     double atom_table_feat_pow = 2
 
@@ -182,12 +256,14 @@ class Params {
      *
      * If true sign of value is reapplied after transformation by atom_table_feat_pow
      */
+    @ExtractionParam
     @ModelParam
     boolean atom_table_feat_keep_sgn = false
 
     /**
      * radius for calculation protrusion feature
      */
+    @ExtractionParam
     @ModelParam
     double protrusion_radius = 10
 
@@ -196,54 +272,63 @@ class Params {
     /**
      * Number of bins for protr_hist feature, must be >=2
      */
+    @ExtractionParam
     @ModelParam
     int protr_hist_bins = 5
 
     /**
      * Param of protr_hist feature
      */
+    @ExtractionParam
     @ModelParam
     boolean protr_hist_cumulative = false
 
     /**
      * Param of protr_hist feature
      */
+    @ExtractionParam
     @ModelParam
     boolean protr_hist_relative = false
 
     /**
      * Number of bins for Atom Pair distance histogram (pair_hist) feature, must be >=2
      */
+    @ExtractionParam
     @ModelParam
     int pair_hist_bins = 5
 
     /**
      * Radius capturing atoms considered in pair_hist feature
      */
+    @ExtractionParam
     @ModelParam
     double pair_hist_radius = 6
 
     /**
      * smooth vs. sharp binning
      */
+    @ExtractionParam
     @ModelParam
     boolean pair_hist_smooth = false
 
     /**
      * apply normalization to histogram
      */
+    @ExtractionParam
     @ModelParam
     boolean pair_hist_normalize = false
 
     /**
      * if false only protein exposed atoms are considered
      */
+    @ExtractionParam
     @ModelParam
     boolean pair_hist_deep = true
 
     /**
      * size of random subsample of atom pairs, 0 = all
      */
+    @ExtractionParam
     @ModelParam
     int pair_hist_subsample_limit = 0
 
@@ -252,6 +337,7 @@ class Params {
     /**
      * Load sequence conservation data
      */
+    @ExtractionParam
     @Deprecated
     @RuntimeParam
     boolean load_conservation = false
@@ -266,18 +352,21 @@ class Params {
     /**
      * Conservation exponent for re-scoring pockets
      */
+    @ExtractionParam
     @ModelParam
     int conservation_exponent = 1
 
     /**
      * Radius for calculating conservation cloud related features
      */
+    @ExtractionParam
     @ModelParam
     double conserv_cloud_radius = 10
 
     /**
      * Radius for calculating secondary structure cloud related features
      */
+    @ExtractionParam
     @ModelParam
     double ss_cloud_radius = 10
 
@@ -286,9 +375,11 @@ class Params {
      * Path is absolute or relative to the dataset directory.
      * If null or empty: look in the same directory as protein file
      */
+    @ExtractionParam
     @RuntimeParam
     List<String> conservation_dirs = []
 
+    @ExtractionParam
     @RuntimeParam
     List<String> electrostatics_dirs = []
 
@@ -385,6 +476,17 @@ class Params {
     @RuntimeParam
     boolean rf_batch_prediction = true
 
+    /**
+     * use cache-blocked batch inference kernel (BlockedForest) for flattened forests (see rf_flatten)
+     *
+     * With both values batch scores of flattened models are equal to FlatBinaryForest.predict().
+     * Note: this changes batch scores of flattened models against versions that used FlatBinaryForest.predictForBatch()
+     * (FasterForest 2.5.2), which returned score of the last tree divided by the number of trees (res[i] = instead of +=).
+     * Uses SIMD kernel on JDK 21+ if started with JVM option --add-modules jdk.incubator.vector (add it to JAVA_OPTS).
+     */
+    @RuntimeParam
+    boolean rf_blocked_inference = true
+
 
     /**
      * Fix bug in RF libraries where class probabilities on leaves were not properly normalized.
@@ -396,12 +498,14 @@ class Params {
     /**
      * cutoff for joining ligand atom groups into one ligand
      */
+    @ExtractionParam
     @ModelParam // training
     double ligand_clustering_distance = 1.7 // ~= covalent bond length
 
     /**
      * cutoff around ligand that defines positives
      */
+    @ExtractionParam
     @ModelParam
     double positive_point_ligand_distance = 2.5
 
@@ -409,24 +513,28 @@ class Params {
      * distance around ligand atoms that define ligand induced volume
      * (for evaluation by some criteria, DSO, ligand coverage...)
      */
+    @ExtractionParam
     @ModelParam
     double ligand_induced_volume_cutoff = 2.5
 
     /**
      * points between (positive_point_ligand_distance, positive_point_ligand_distance + neutral_point_margin) will not be considered positives or negatives and will be left out form training
      */
+    @ExtractionParam
     @ModelParam // training
     double neutral_points_margin = 5.5
 
     /**
      * Neighbourhood radius (A) used for calculating most of the features.
      */
+    @ExtractionParam
     @ModelParam
     double neighbourhood_radius = 8
 
     /**
      * HETATM groups that are ignored (not marked as relevant ligands, e.g because they are cofactors or part of a substrate)
      */
+    @ExtractionParam
     @ModelParam // training
     List<String> ignore_het_groups = ["HOH","DOD","WAT","NAG","MAN","UNK","GLC","ABA","MPD","GOL","SO4","PO4"]
 
@@ -434,12 +542,14 @@ class Params {
      * Which ligand types define positive SAS points.
      * accepted values: "relevant", "ignored", "small", "distant"
      */
+    @ExtractionParam
     @ModelParam // training
     List<String> positive_def_ligtypes = ["relevant"]
 
     /**
      * Minimal heavy atom count for relevant ligands, other ligands are considered too small and ignored
      */
+    @ExtractionParam
     @ModelParam // training
     int min_ligand_atoms = 5
 
@@ -448,24 +558,28 @@ class Params {
      * P2Rank and PRANK use SurfacePointSampler that produces SAS points.
      * Others like GridPointSampler are experimental, and also deprecated. see point_sampling_strategy
      */
+    @ExtractionParam
     @ModelParam
     String point_sampler = "SurfacePointSampler"
 
     /**
      * surface | atoms | grid
      */
+    @ExtractionParam
     @Beta
     String point_sampling_strategy = "surface"
 
     /**
      * multiplier for random point sampling
      */
+    @ExtractionParam
     @ModelParam // training
     int sampling_multiplier = 3
 
     /**
      * solvent radius for SAS surface
      */
+    @ExtractionParam
     @ModelParam
     double solvent_radius = 1.6
 
@@ -473,6 +587,7 @@ class Params {
      * SAS tessellation (~density) used in prediction step.
      * Higher tessellation = higher density (+1 ~~ x4 points)
      */
+    @ExtractionParam
     @ModelParam
     int tessellation = 2
 
@@ -480,6 +595,7 @@ class Params {
      * SAS tessellation (~density) used in training step
      * 0 = use value of tessellation
      */
+    @ExtractionParam
     @ModelParam // training
     int train_tessellation = 2
 
@@ -488,30 +604,35 @@ class Params {
      * Allows denser positive sampling than negative sampling and thus deal with class imbalance and train faster.
      * 0 = use value of effective train_tessellation
      */
+    @ExtractionParam
     @ModelParam // training
     int train_tessellation_negatives = 2
 
     /**
      * for grid and random sampling
      */
+    @ExtractionParam
     @ModelParam
     double point_min_distfrom_protein = 2.5
 
     /**
      * for grid and random sampling
      */
+    @ExtractionParam
     @ModelParam
     double point_max_distfrom_pocket = 4.5
 
     /**
      * grid cell size for grid sampling strategy (and old GridPointSampler)
      */
+    @ExtractionParam
     @ModelParam
     double grid_cell_edge = 2
 
     /**
      * Cutoff radius around protein atoms. Grid points with higher distance to closest protein atom are discarded.
      */
+    @ExtractionParam
     @ModelParam
     double grid_cutoff_radius = 3.4
 
@@ -524,36 +645,42 @@ class Params {
     /**
      * Param of SAS score weighting function (see WeightFun)
      */
+    @ExtractionParam
     @ModelParam
     double weight_power = 2
 
     /**
      * Param of SAS score weighting function (see WeightFun)
      */
+    @ExtractionParam
     @ModelParam
     double weight_sigma = 2.2
 
     /**
      * Param of SAS score weighting function (see WeightFun)
      */
+    @ExtractionParam
     @ModelParam
     double weight_dist_param = 4.5
 
     /**
      * Choice of SAS score weighting function (see WeightFun)
      */
+    @ExtractionParam
     @ModelParam
     String weight_function = "INV"
 
     /**
      * If false only single layer of proteins solvent exposed atoms is used for calculating features that are projected from protein atoms to SAS points
      */
+    @ExtractionParam
     @ModelParam
     boolean deep_surrounding = false
 
     /** calculate feature vectors from smooth atom feature representation
      * (instead of directly from atom properties)
      */
+    @ExtractionParam
     @Deprecated
     @ModelParam
     boolean smooth_representation = false
@@ -561,6 +688,7 @@ class Params {
     /**
      * related to smooth_representation
      */
+    @ExtractionParam
     @Deprecated
     @ModelParam
     double smoothing_radius = 4.5
@@ -570,6 +698,7 @@ class Params {
      * if true, atom feature vectors are averaged
      * else they are only summed up
      */
+    @ExtractionParam
     @ModelParam
     boolean average_feat_vectors = false
 
@@ -578,6 +707,7 @@ class Params {
      * only applicable when average_feat_vectors=true
      * <0,1> goes from 'no average, just sum' -> 'full average'
      */
+    @ExtractionParam
     @ModelParam
     double avg_pow = 1
 
@@ -585,6 +715,7 @@ class Params {
      * regarding feature projection from atoms to SAS points: calculate weighted average
      * (should be true by default, kept false for backward compatibility reasons)
      */
+    @ExtractionParam
     @ModelParam
     boolean avg_weighted = false
 
@@ -670,6 +801,15 @@ class Params {
     @RuntimeParam
     int loop = 1
 
+    /**
+     * Number of random seed iterations (see loop) that run concurrently.
+     * Each iteration runs with its own copy of params and gets threads/loop_parallel threads.
+     * Iterations share loaded datasets, so it cannot be combined with cache_datasets or clear_sec_caches.
+     * Multiplies required memory.
+     */
+    @RuntimeParam
+    int loop_parallel = 1
+
     /**
      * keep datasets (structures and SAS points) in memory between crossval/seedloop iterations
      */
@@ -733,6 +873,7 @@ class Params {
     /**
      * use strictly inner pocket points or more wider pocket neighbourhood
      */
+    @ExtractionParam
     @RuntimeParam
     boolean strict_inner_points = false
 
@@ -758,6 +899,7 @@ class Params {
     /**
      * Residue prediction mode (as opposed to full pocket prediction mode)
      */
+    @ExtractionParam
     @RuntimeParam
     boolean predict_residues = false
 
@@ -766,6 +908,7 @@ class Params {
      * If false, assign class based the class of nearest residue.
      * Distinction only makes sense running in residue prediction mode (predict_residues = true).
      */
+    @ExtractionParam
     @RuntimeParam
     boolean ligand_derived_point_labeling = true
 
@@ -878,6 +1021,7 @@ class Params {
     /**
      * cutoff for protein exposed atoms calculation (distance from SAS surface is solv.radius. + surf_cutoff)
      */
+    @ExtractionParam
     @ModelParam
     double surface_additional_cutoff = 1.8
 
@@ -885,6 +1029,7 @@ class Params {
      * collect negatives just from decoy pockets found by other method
      * (alternatively take negative points from all of the protein's surface)
      */
+    @ExtractionParam
     @ModelParam // training
     boolean sample_negatives_from_decoys = false
 
@@ -892,12 +1037,14 @@ class Params {
      * cutoff around ligand atoms to select negatives, 0=all
      * valid if training from whole surface (sample_negatives_from_decoys=false)
      */
+    @ExtractionParam
     @ModelParam // training
     double train_lig_cutoff = 0
 
     /**
      * n, use only top-n pockets to select training instances, 0=all
      */
+    @ExtractionParam
     @ModelParam // training
     int train_pockets = 0
 
@@ -918,12 +1065,14 @@ class Params {
      *
      * Published PRANK (2015) = "ModelBasedRescorer"
      */
+    @ExtractionParam
     @ModelParam
     String rescorer = "ModelBasedRescorer"
 
     /**
      * Parameter of the PLBIndexRescorer algorithm.
      */
+    @ExtractionParam
     @ModelParam
     boolean plb_rescorer_atomic = false
 
@@ -937,6 +1086,7 @@ class Params {
      * Fail when (X-masked) sequences in the structure and in the conservation score file do not match exactly.
      * Has effect only when fail_fast = true.
      */
+    @ExtractionParam
     @RuntimeParam
     boolean fail_on_conserv_seq_mismatch = false
 
@@ -1058,48 +1208,72 @@ class Params {
     /**
      * Contact residues distance cutoff (see ContactResiduesPositionFeature)
      */
+    @ExtractionParam
     @ModelParam
     double feat_crang_contact_dist = 3
 
     /**
      * probe radius for calculating accessible surface area for asa feature
      */
+    @ExtractionParam
     @ModelParam
     double feat_asa_probe_radius = 1.4
 
     /**
      * probe radius for calculating accessible surface area for asa feature
      */
+    @ExtractionParam
     @ModelParam
     double feat_asa_probe_radius2 = 3
 
     /**
      * radius of the neighbourhood considered in asa feature
      */
+    @ExtractionParam
     @ModelParam
     double feat_asa_neigh_radius = 6
 
+    /**
+     * asa features: take atom ASA from the SAS computed for the protein (see solvent_radius) when its probe radius
+     * matches feat_asa_probe_radius / feat_asa_probe_radius2, instead of a separate ASA calculation
+     * (values differ slightly: different atom radii and sphere density)
+     */
+    @ExtractionParam
+    @ModelParam
+    boolean feat_asa_from_surface = false
+
+    /**
+     * Number of threads used by standalone ASA calculation of one protein in asa features.
+     * Keep 1 when dataset items are processed in parallel (parallel=1) to avoid oversubscription.
+     */
+    @RuntimeParam
+    int feat_asa_threads = 1
+
     /**
      * radius for calculating of the pmass feature
      */
+    @ExtractionParam
     @ModelParam
     double feat_pmass_radius = 11
 
     /**
      * parameter of the pmass feature
      */
+    @ExtractionParam
     @ModelParam
     int feat_pmass_natoms = 70
 
     /**
      * parameter of the pmass feature
      */
+    @ExtractionParam
     @ModelParam
     int feat_pmass_nsasp = 40
 
     /**
      * selected sub-features in aa index feature
      */
+    @ExtractionParam
     @ModelParam
     List<String> feat_aa_properties = []
 
@@ -1239,6 +1413,7 @@ class Params {
      *
      * TODO: move to dist dir on release
      */
+    @ExtractionParam
     @ModelParam
     String feat_propensity_tables = "SprintT1070"
 
@@ -1246,6 +1421,7 @@ class Params {
     /**
      * When identifying which protein chains are peptides consider provided binary residue labeling (that comes with the dataset).
      */
+    @ExtractionParam
     @ModelParam // training
     boolean identify_peptides_by_labeling = false
 
@@ -1258,12 +1434,14 @@ class Params {
     /**
      * Directories where to find csv files for csv_file_atom_feature.
      */
+    @ExtractionParam
     @ModelParam
     List<String> feat_csv_directories = []
 
     /**
      * Names of enabled value columns from csv files used by csv_file feature. Value columns not listed here are ignored.
      */
+    @ExtractionParam
     @ModelParam
     List<String> feat_csv_columns = []
 
@@ -1276,6 +1454,7 @@ class Params {
      *   <li> missing rows for atoms or residues
      * <ul>
      */
+    @ExtractionParam
     @ModelParam
     boolean feat_csv_ignore_missing = false
 
@@ -1283,6 +1462,7 @@ class Params {
      * Structural motifs for stmotif feature.
      * e.g.: C2H2 D1H1 C4 H2
      */
+    @ExtractionParam
     @ModelParam
     List<String> feat_stmotif_motifs = ["C2H2","C4","C3H1","E1H2","C2H1","H3","D1H2","C3","D1H1","E1H1","C1H3","C2","H2"]
 
@@ -1290,18 +1470,21 @@ class Params {
      * When matching motifs, consider all residues within feat_stmotif_radius around the SAS point.
      * If false, only closest n residues are considered and must match exactly (n = lenght of a motif).
      */
+    @ExtractionParam
     @ModelParam
     boolean feat_stmotif_useradius = true
 
     /**
      * Radius related to feat_stmotif_useradius param.
      */
+    @ExtractionParam
     @ModelParam
     double feat_stmotif_radius = 4d
 
     /**
      *
      */
+    @ExtractionParam
     @RuntimeParam
     String chains = "keep"
 
@@ -1314,30 +1497,35 @@ class Params {
     /**
      * When using Apo-Holo train dataset enable Apo structures, if false use Holo structures instead.
      */
+    @ExtractionParam
     @RuntimeParam
     boolean apoholo_use_for_train = false
 
     /**
      * When using Apo-Holo eval/main dataset enable Apo structures, if false use Holo structures instead.
      */
+    @ExtractionParam
     @RuntimeParam
     boolean apoholo_use_for_eval = false
 
     /**
      * limit number of loaded pockets predicted by other methods per protein. 0 = no limit
      */
+    @ExtractionParam
     @RuntimeParam
     int loaded_pockets_limit = 0
 
     /**
      * Add random rotations of each protein (from training dataset) to the training dataset
      */
+    @ExtractionParam
     @RuntimeParam // training
     int train_random_rotated_copies = 0
 
     /**
      * Use optimized library for solvent accessible surface calculation
      */
+    @ExtractionParam
     @RuntimeParam
     boolean use_optimized_surface = true
 
@@ -1353,6 +1541,136 @@ class Params {
     @RuntimeParam
     boolean fpocket_keep_output = true
 
+    /**
+     * Number of grid optimization steps (prank ploop) processed concurrently.
+     * Each step runs with its own copy of params and gets threads/ploop_parallel_steps threads.
+     * Concurrent steps share loaded datasets, so it cannot be combined with cache_datasets or clear_sec_caches
+     * (each step loads its own proteins). Multiplies required memory.
+     * Relevant only for ploop with a list of static values (not for generative iterative params).
+     */
+    @RuntimeParam
+    int ploop_parallel_steps = 1
+
+    /**
+     * Local TCP port (on loopback interface) for prank serve command.
+     * If 0, requests are read from stdin and responses written to stdout.
+     */
+    @RuntimeParam
+    int serve_port = 0
+
+    /**
+     * Max number of concurrently served TCP connections of prank serve command (see serve_port).
+     * Further connections get an error response and are closed.
+     */
+    @RuntimeParam
+    int serve_max_connections = 8
+
+    /**
+     * Keep calculated feature vectors (training vectors and SAS point vectors of eval proteins) in memory
+     * and reuse them in subsequent runs with the same values of params that influence feature extraction.
+     * Useful for seedloop, ploop and hopt over classifier params (e.g. rf_trees, rf_depth, pred_point_threshold).
+     * Vectors are keyed by values of @ExtractionParam params, the cache is cleared when they change.
+     * Can require a lot of memory.
+     */
+    @RuntimeParam
+    boolean feature_vector_cache = false
+
+    /**
+     * Apply max_train_instances and subsampling (incl. subsampl_high_protrusion_negatives) to labeled training points
+     * before feature extraction, so that feature vectors are calculated only for points that are kept.
+     * Selection is deterministic for given seed (but not the same as the selection made after extraction).
+     * Supported only when sampling points from the whole protein surface (sample_negatives_from_decoys=false).
+     */
+    @ExtractionParam
+    @ModelParam // training
+    boolean sample_before_extraction = false
+
+    /**
+     * Number of threads that format and write prediction output files and visualizations (in predict and eval-predict),
+     * so that compute threads don't wait for the filesystem. 0 = write files in compute threads.
+     */
+    @RuntimeParam
+    int output_threads = 2
+
+    /**
+     * Cache per-residue conservation scores aligned to structure chains on disk (keyed by chain sequence and score file content),
+     * so that score files don't need to be parsed and aligned every time a protein is loaded.
+     * Cache directory must be owned by the current user and not accessible by others, otherwise the cache is not used.
+     */
+    @RuntimeParam
+    boolean conservation_cache = false
+
+    /**
+     * Directory for cached conservation scores (see conservation_cache).
+     * If empty, ~/.p2rank/conservation_cache is used. Created with 0700 permissions.
+     */
+    @RuntimeParam
+    String conservation_cache_dir = null
+
+    /**
+     * Coarse-to-fine prediction: if > 0 (and lower than tessellation), SAS points of the surface with this tessellation
+     * are classified first and fine surface (with feature vectors and classification) is calculated only around coarse
+     * points with score >= coarse_point_threshold. Pockets are predicted from fine points.
+     * 0 = disabled (whole fine surface is calculated). Compare with full prediction by running eval-predict with both.
+     */
+    @ExtractionParam
+    @RuntimeParam
+    int coarse_tessellation = 0
+
+    /**
+     * Coarse-to-fine prediction: minimal score of coarse SAS point to refine its neighbourhood (see coarse_tessellation)
+     */
+    @ExtractionParam
+    @RuntimeParam
+    double coarse_point_threshold = 0.1
+
+    /**
+     * Coarse-to-fine prediction: fine SAS points within this distance (in A) from selected coarse points are calculated
+     */
+    @ExtractionParam
+    @RuntimeParam
+    double coarse_refine_margin = 4
+
+    /**
+     * Incremental prediction of trajectory frames (command predict-frames): atoms that moved less than this distance (in A)
+     * since the previous frame are considered unchanged
+     */
+    @RuntimeParam
+    double frame_move_tolerance = 0.1
+
+    /**
+     * Incremental prediction of trajectory frames: scores of SAS points are reused from the previous frame if no atom moved
+     * within this distance (in A). Should cover the range of all features (see neighbourhood_radius, protrusion_radius).
+     */
+    @RuntimeParam
+    double frame_reuse_radius = 12
+
+    /**
+     * Incremental prediction of trajectory frames: frame is calculated from scratch if larger fraction of atoms moved
+     */
+    @RuntimeParam
+    double frame_max_moved_ratio = 0.3
+
+    /**
+     * Number of threads of dedicated inference stage in pocket prediction. Worker threads submit feature vectors
+     * of proteins and inference threads classify vectors of many proteins together in micro-batches.
+     * Helps on datasets of many small proteins. 0 = disabled (every worker classifies its vectors).
+     */
+    @RuntimeParam
+    int inference_threads = 0
+
+    /**
+     * Size of micro-batches of the inference stage (see inference_threads)
+     */
+    @RuntimeParam
+    int inference_batch_size = 8192
+
+    /**
+     * Max time (in ms) the inference stage waits for more vectors before classifying incomplete micro-batch
+     */
+    @RuntimeParam
+    int inference_max_wait_ms = 2
+
 //===========================================================================================================//
 // Derived parameters
 //===========================================================================================================//
@@ -1467,6 +1785,20 @@ class Params {
         }
     }
 
+    /**
+     * Concurrent runs (ploop_parallel_steps, loop_parallel) share loaded datasets.
+     * Proteins of cached datasets and their lazily calculated state (surfaces, secondary data) are not thread safe,
+     * so concurrent runs are allowed only if each run loads its own proteins and no run clears them.
+     *
+     * @param parallelParam name of the param that enables concurrent runs
+     */
+    void checkConcurrentRunsAllowed(String parallelParam) {
+        if (cache_datasets || clear_sec_caches) {
+            throw new PrankException("$parallelParam > 1 cannot be combined with cache_datasets or clear_sec_caches " +
+                    "(concurrent runs would share proteins of cached datasets)")
+        }
+    }
+
     @CompileDynamic
     private void applyCmdLineArgs(CmdLineArgs args) {
 
@@ -4,7 +4,13 @@ import cz.cuni.cusbg.surface.FasterNumericalSurface
 import cz.siret.prank.domain.Protein
 import cz.siret.prank.domain.loaders.electrostatics.DelphiCubeLoader
 import cz.siret.prank.domain.loaders.electrostatics.GaussianCube
+import cz.siret.prank.fforest.FasterForest
+import cz.siret.prank.fforest.api.FlatBinaryForest
+import cz.siret.prank.fforest2.FasterForest2
+import cz.siret.prank.prediction.pockets.rescorers.BlockedForest
 import cz.siret.prank.program.Main
+import cz.siret.prank.program.PrankException
+import cz.siret.prank.program.ml.Model
 import cz.siret.prank.program.routines.Routine
 import cz.siret.prank.utils.Bench
 import cz.siret.prank.utils.CdkUtils
@@ -14,6 +20,9 @@ import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
 import org.openscience.cdk.geometry.surface.NumericalSurface
 import org.openscience.cdk.interfaces.IAtomContainer
+import weka.classifiers.Classifier
+
+import java.lang.reflect.Field
 
 import static cz.siret.prank.utils.Bench.timeitLog
 import static cz.siret.prank.utils.Futils.*
@@ -139,6 +148,82 @@ class Benchmarks extends Routine {
         }
     }
 
+    /**
+     * Benchmark batch inference of flattened forest: FlatBinaryForest.predictForBatch() against BlockedForest
+     * (on the model given by -m, converted to FlatBinaryForest if necessary)
+     */
+    void bench_forest_inference() {
+        Model model = Model.load(main.findModel())
+        Classifier c = model.classifier
+        FlatBinaryForest forest
+        if (c instanceof FlatBinaryForest) {
+            forest = (FlatBinaryForest) c
+        } else if (c instanceof FasterForest) {
+            forest = ((FasterForest) c).toFlatBinaryForest(params.rf_flatten_as_legacy)
+        } else if (c instanceof FasterForest2) {
+            forest = ((FasterForest2) c).toFlatBinaryForest(params.rf_flatten_as_legacy)
+        } else {
+            throw new PrankException("Cannot flatten classifier of type ${c.class.simpleName}")
+        }
+        BlockedForest blocked = BlockedForest.from(forest)
+
+        double[][] rows = sampleRowsFromSplitPoints(forest, 100_000, new Random(params.seed))
+        int outerReps = 5
+
+        double[] expected = rows.collect { forest.predict(it) } as double[]
+        if (!Arrays.equals(expected, blocked.predictForBatch(rows))) {
+            throw new PrankException("BlockedForest predictions differ from FlatBinaryForest")
+        }
+
+        log.info "Benchmarking forest inference (trees: {}, attributes: {}, rows: {})", forest.numTrees, forest.numAttributes, rows.length
+
+        double flatTime = Bench.timeitLogWithHeatup("FlatBinaryForest", outerReps, {
+            forest.predictForBatch(rows)
+        })
+        double blockedTime = Bench.timeitLogWithHeatup("BlockedForest", outerReps, {
+            blocked.predictForBatch(rows)
+        })
+
+        log.info "FlatBinaryForest: {} rows/s", Math.round(rows.length * 1000d / flatTime)
+        log.info "BlockedForest:    {} rows/s", Math.round(rows.length * 1000d / blockedTime)
+        log.info "SPEEDUP: {}", Math.round(flatTime / blockedTime * 1000) / 1000
+    }
+
+    /**
+     * Rows with values of each attribute drawn from split points of the forest on that attribute,
+     * so rows follow realistic paths through the trees.
+     */
+    private static double[][] sampleRowsFromSplitPoints(FlatBinaryForest forest, int n, Random rnd) {
+        int[] attributeIndex = (int[]) readForestField(forest, 'attributeIndex')
+        double[] splitPoint = (double[]) readForestField(forest, 'splitPoint')
+
+        List<List<Double>> splits = (0..<forest.numAttributes).collect { new ArrayList<Double>() }
+        for (int i = 0; i < attributeIndex.length; i++) {
+            if (attributeIndex[i] >= 0 && attributeIndex[i] < forest.numAttributes) {
+                splits[attributeIndex[i]].add(splitPoint[i])
+            }
+        }
+
+        double[][] rows = new double[n][]
+        for (int r = 0; r < n; r++) {
+            double[] row = new double[forest.numAttributes]
+            for (int a = 0; a < row.length; a++) {
+                List<Double> s = splits[a]
+                row[a] = s.empty ? 0d : s[rnd.nextInt(s.size())] + rnd.nextGaussian() * 0.01
+            }
+            rows[r] = row
+        }
+        return rows
+    }
+
+    private static Object readForestField(FlatBinaryForest forest, String name) {
+        Field field = FlatBinaryForest.getDeclaredField(name)
+        field.setAccessible(true)
+        return field.get(forest)
+    }
+
+//===========================================================================================================//
+
 //    def bench_model_loading() {
 //        String modelf = main.findModel()
 //
@@ -3,6 +3,7 @@ package cz.siret.prank.program.routines.optimize
 import cz.siret.prank.program.PrankException
 import cz.siret.prank.program.params.IterativeParam
 import cz.siret.prank.program.params.ListParam
+import cz.siret.prank.program.params.Params
 import cz.siret.prank.program.routines.results.EvalResults
 import cz.siret.prank.utils.Cutils
 import cz.siret.prank.utils.Futils
@@ -12,6 +13,12 @@ import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
 import groovyx.gpars.GParsPool
 
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
 import static cz.siret.prank.utils.ATimer.startTimer
 import static cz.siret.prank.utils.Futils.mkdirs
 import static cz.siret.prank.utils.Futils.sanitizeFilename
@@ -121,13 +128,65 @@ class GridOptimizerRoutine extends ParamLooper {
             steps = generateSteps(listParams)
             log.info "STEPS: " + steps.toListString().replace("Step","\nStep")
 
-            for (Step step in steps) {
-                processStep(step, prepareDirLabel(step), eval)
+            if (params.ploop_parallel_steps > 1 && steps.size() > 1) {
+                processStepsConcurrently(steps, eval)
+            } else {
+                for (Step step in steps) {
+                    processStep(step, prepareDirLabel(step), eval)
 
-                make1DOr2DTables(steps)
+                    make1DOr2DTables(steps)
+                }
+            }
+        }
+
+    }
+
+    /**
+     * Process up to ploop_parallel_steps steps at once.
+     * Each step runs with its own snapshot of params bound to its thread
+     * and total thread budget (params.threads) is split between concurrently running steps.
+     */
+    private void processStepsConcurrently(List<Step> steps, Closure<EvalResults> eval) {
+        params.checkConcurrentRunsAllowed("ploop_parallel_steps")
+
+        int parallelSteps = Math.min(params.ploop_parallel_steps, steps.size())
+        int threadsPerStep = Math.max(1, params.threads.intdiv(parallelSteps))
+
+        write "processing ${steps.size()} steps, $parallelSteps concurrently with $threadsPerStep threads per step"
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallelSteps)
+        try {
+            List<Future<EvalResults>> futures = new ArrayList<>()
+            for (Step step : steps) {
+                Params stepParams = params.snapshot()
+                stepParams.threads = threadsPerStep
+                stepParams.initDependentParams()
+
+                futures.add(submitStep(executor, step, prepareDirLabel(step), stepParams, eval))
             }
+            for (Future<EvalResults> future : futures) {
+                try {
+                    future.get()
+                } catch (ExecutionException e) {
+                    throw new PrankException("Grid optimization step failed: " + e.cause?.message, e.cause)
+                }
+            }
+        } finally {
+            executor.shutdownNow()
         }
 
+        make1DOr2DTables(steps)
+    }
+
+    private Future<EvalResults> submitStep(ExecutorService executor, Step step, String dirLabel, Params stepParams, Closure<EvalResults> eval) {
+        return executor.submit(new Callable<EvalResults>() {
+            @Override
+            EvalResults call() throws Exception {
+                return (EvalResults) Params.withParams(stepParams) {
+                    processStep(step, dirLabel, eval)
+                }
+            }
+        })
     }
 
 //===========================================================================================================//
@@ -53,6 +53,8 @@ abstract class ParamLooper extends Routine {
     /**
      * Execute and process results of one experiment step
      * init() must be called before first calling this method
+     *
+     * Step values are applied to params of the current thread (see Params.withParams()).
      */
     EvalResults processStep(Step step, String dirLabel, Closure<EvalResults> closure) {
         def stepTimer = startTimer()
@@ -69,12 +71,14 @@ abstract class ParamLooper extends Routine {
         }
 
         // save stats
-        if (!exists(statsTableFile)) {
-            appendl statsTableFile, step.header
-            appendl selectedStatsFile, step.getHeader(params.selected_stats)
+        synchronized (this) {  // steps may run concurrently (see ploop_parallel_steps)
+            if (!exists(statsTableFile)) {
+                appendl statsTableFile, step.header
+                appendl selectedStatsFile, step.getHeader(params.selected_stats)
+            }
+            appendl statsTableFile, step.toCSV()
+            appendl selectedStatsFile, step.toCSV(params.selected_stats)
         }
-        appendl statsTableFile, step.toCSV()
-        appendl selectedStatsFile, step.toCSV(params.selected_stats)
 
         return res
     }
@@ -0,0 +1,116 @@
+package cz.siret.prank.program.routines.predict
+
+import cz.siret.prank.domain.Dataset
+import cz.siret.prank.domain.Pocket
+import cz.siret.prank.domain.Prediction
+import cz.siret.prank.domain.Protein
+import cz.siret.prank.domain.loaders.LoaderParams
+import cz.siret.prank.features.FeatureExtractor
+import cz.siret.prank.prediction.pockets.rescorers.IncrementalFrames
+import cz.siret.prank.prediction.pockets.rescorers.ModelBasedRescorer
+import cz.siret.prank.prediction.pockets.results.PredictionSummary
+import cz.siret.prank.program.PrankException
+import cz.siret.prank.program.ml.Model
+import cz.siret.prank.program.routines.Routine
+import cz.siret.prank.utils.ATimer
+import cz.siret.prank.utils.Futils
+import cz.siret.prank.utils.PdbUtils
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+import org.biojava.nbio.structure.Structure
+
+import static cz.siret.prank.utils.ATimer.startTimer
+import static cz.siret.prank.utils.Futils.mkdirs
+import static cz.siret.prank.utils.Futils.writeFile
+
+/**
+ * Incremental prediction of pockets for frames of a trajectory (or structure variants with the same atoms).
+ *
+ * Frames are structures of the dataset in the order of the dataset file, multi-model structure files are split to models.
+ * Frames are processed sequentially. Each frame reuses SAS points and their scores from the previous frame
+ * in regions where no atoms moved (see IncrementalFrames).
+ *
+ * Writes predictions for each frame and frames.csv with summary. Visualizations are not produced.
+ *
+ * Backs prank command 'predict-frames'
+ */
+@Slf4j
+@CompileStatic
+class PredictFramesRoutine extends Routine {
+
+    Dataset dataset
+    String modelf
+
+    PredictFramesRoutine(Dataset dataset, String modelf, String outdir) {
+        super(outdir)
+        this.dataset = dataset
+        this.modelf = modelf
+    }
+
+    Dataset.Result execute() {
+        if (params.predict_residues) {
+            throw new PrankException("predict-frames command supports only pocket prediction mode (predict_residues=false)")
+        }
+
+        ATimer timer = startTimer()
+
+        write "predicting pockets for frames from dataset [$dataset.name]"
+
+        mkdirs(outdir)
+        writeParams(outdir)
+        log.info "outdir: $outdir"
+
+        Model model = Model.load(modelf)
+        FeatureExtractor extractor = FeatureExtractor.createFactory()
+        LoaderParams.ignoreLigandsSwitch = true
+
+        IncrementalFrames frames = new IncrementalFrames()
+        Dataset.Result result = new Dataset.Result()
+        StringBuilder summary = new StringBuilder("frame,sas_points,rescored_points,full,pockets,top_pocket_score,time_ms\n")
+        int nframes = 0
+
+        for (Dataset.Item item : dataset.items) {
+            try {
+                Structure structure = PdbUtils.loadFromFile(item.proteinFile)
+                int nmodels = structure.nrModels()
+
+                for (int m = 0; m < nmodels; m++) {
+                    ATimer frameTimer = startTimer()
+
+                    String label = (nmodels > 1) ? "${item.label}_model$m" : item.label
+                    Structure frameStructure = (nmodels > 1) ? PdbUtils.reduceStructureToModel(structure, m) : structure
+                    Protein protein = Protein.fromStructure(frameStructure, label, item.proteinFile, item.chains, new LoaderParams())
+
+                    Prediction prediction = new Prediction(protein, new ArrayList<Pocket>())
+                    ModelBasedRescorer rescorer = new ModelBasedRescorer(model, extractor)
+                    rescorer.frames = frames
+                    rescorer.reorderPockets(prediction, item.context)
+
+                    if (!params.output_only_stats) {
+                        writeFile "$outdir/${label}_predictions.csv", new PredictionSummary(prediction).toCSV()
+                        if (params.label_residues && prediction.residueLabelings != null) {
+                            writeFile "$outdir/${label}_residues.csv", prediction.residueLabelings.toCSV()
+                        }
+                    }
+
+                    double topScore = prediction.reorderedPockets.empty ? 0d : prediction.reorderedPockets.first().newScore
+                    summary << label << ',' << prediction.pointCount << ',' << frames.lastRescoredPoints << ','
+                    summary << (frames.lastCalculatedFully ? 1 : 0) << ',' << prediction.reorderedPockets.size() << ','
+                    summary << topScore << ',' << frameTimer.time << '\n'
+                    nframes++
+                }
+            } catch (Exception e) {
+                log.error("Failed to process frames of [$item.label]", e)
+                result.errorItems.add(item)
+            }
+        }
+
+        writeFile "$outdir/frames.csv", summary.toString()
+
+        write "predicting pockets for $nframes frames finished in $timer.formatted"
+        write "results saved to directory [${Futils.absPath(outdir)}]"
+
+        return result
+    }
+
+}
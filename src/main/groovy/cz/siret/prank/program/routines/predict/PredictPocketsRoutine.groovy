@@ -6,6 +6,7 @@ import cz.siret.prank.domain.labeling.BinaryLabeling
 import cz.siret.prank.domain.labeling.LigandBasedResidueLabeler
 import cz.siret.prank.domain.loaders.LoaderParams
 import cz.siret.prank.features.FeatureExtractor
+import cz.siret.prank.prediction.pockets.rescorers.BatchInferenceService
 import cz.siret.prank.prediction.pockets.rescorers.ModelBasedRescorer
 import cz.siret.prank.prediction.pockets.rescorers.PocketRescorer
 import cz.siret.prank.prediction.pockets.results.PredictionSummary
@@ -15,12 +16,14 @@ import cz.siret.prank.program.params.Params
 import cz.siret.prank.program.routines.Routine
 import cz.siret.prank.program.routines.results.PredictResults
 import cz.siret.prank.program.visualization.PredictionVisualizer
+import cz.siret.prank.utils.AsyncWriter
 import cz.siret.prank.utils.Futils
 import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
 
 import static cz.siret.prank.domain.labeling.ResidueLabelings.trainResidueScoreTransformers
 import static cz.siret.prank.utils.ATimer.startTimer
+import static cz.siret.prank.utils.Cutils.newSynchronizedList
 import static cz.siret.prank.utils.Futils.mkdirs
 import static cz.siret.prank.utils.Futils.writeFile
 
@@ -36,9 +39,13 @@ class PredictPocketsRoutine extends Routine {
     Dataset dataset
     String modelf
 
+    /** pre-loaded model (if null, model is loaded from modelf) */
+    Model model
+
     boolean collectStats = false
     boolean produceVisualizations = params.visualizations
     boolean produceFilesystemOutput = true
+    boolean writeParamsFile = true
 
 
     PredictPocketsRoutine(Dataset dataset, String modelf, String outdir) {
@@ -47,6 +54,16 @@ class PredictPocketsRoutine extends Routine {
         this.modelf = modelf
     }
 
+    /**
+     * @param model pre-loaded model (see Model.load())
+     */
+    PredictPocketsRoutine(Dataset dataset, Model model, String outdir) {
+        super(outdir)
+        this.dataset = dataset
+        this.model = model
+        this.modelf = model.label
+    }
+
     static PredictPocketsRoutine createForInternalUse(Dataset dataset, String modelf) {
         PredictPocketsRoutine routine = new PredictPocketsRoutine(dataset, modelf, null)
         routine.produceFilesystemOutput = false
@@ -61,11 +78,13 @@ class PredictPocketsRoutine extends Routine {
 
         if (produceFilesystemOutput) {
             mkdirs(outdir)
-            writeParams(outdir)
+            if (writeParamsFile) {
+                writeParams(outdir)
+            }
             log.info "outdir: $outdir"
         }
 
-        Model model = Model.load(modelf)
+        Model model = this.model ?: Model.load(modelf)
 
         String visDir = "$outdir/visualizations"
         String predDir = "$outdir"
@@ -85,35 +104,51 @@ class PredictPocketsRoutine extends Routine {
             LoaderParams.ignoreLigandsSwitch = true
         }
 
-        Dataset.Result result = dataset.processItems { Dataset.Item item ->
-
-            PredictionPair pair = item.predictionPair
-            ModelBasedRescorer rescorer = new ModelBasedRescorer(model, extractor)
-            if (collectStats) {
-                rescorer.collectStatsForProtein(pair.protein)
-            }
-            rescorer.reorderPockets(pair.prediction, item.context) // in this context reorderPockets() makes predictions
+        AsyncWriter outputWriter = null
+        List<Dataset.Item> outputErrorItems = newSynchronizedList()
+        if (produceFilesystemOutput && params.output_threads > 0) {
+            outputWriter = new AsyncWriter(params.output_threads, 2 * Math.max(params.threads, params.output_threads))
+        }
+        BatchInferenceService inferenceService = BatchInferenceService.create(model, extractor,
+                params.inference_threads, params.inference_batch_size, params.inference_max_wait_ms)
+
+        Dataset.Result result
+        try {
+            result = dataset.processItems { Dataset.Item item ->
+
+                PredictionPair pair = item.predictionPair
+                ModelBasedRescorer rescorer = new ModelBasedRescorer(model, extractor)
+                rescorer.inferenceService = inferenceService
+                if (collectStats) {
+                    rescorer.collectStatsForProtein(pair.protein)
+                }
+                rescorer.reorderPockets(pair.prediction, item.context) // in this context reorderPockets() makes predictions
 
 
-            generatePredictionOutputFiles(pair, item, rescorer, predDir)
+                generatePredictionOutputFiles(pair, item, rescorer, predDir, outputWriter, outputErrorItems)
 
 
-            if (collectStats) {  // do eval, expects dataset with liganated proteins
-                // add observed binary labeling for residues (only in eval-predict)
-                if (params.label_residues && pair.prediction.residueLabelings!=null) {
-                    BinaryLabeling observed = new LigandBasedResidueLabeler().getBinaryLabeling(pair.protein)
-                    pair.prediction.residueLabelings.observed = observed
-                }
-                stats.evaluation.addPrediction(pair, pair.prediction.pockets)
-                synchronized (stats.classStats) {
-                    stats.classStats.addAll(rescorer.stats)
+                if (collectStats) {  // do eval, expects dataset with liganated proteins
+                    // add observed binary labeling for residues (only in eval-predict)
+                    if (params.label_residues && pair.prediction.residueLabelings!=null) {
+                        BinaryLabeling observed = new LigandBasedResidueLabeler().getBinaryLabeling(pair.protein)
+                        pair.prediction.residueLabelings.observed = observed
+                    }
+                    stats.evaluation.addPrediction(pair, pair.prediction.pockets)
+                    synchronized (stats.classStats) {
+                        stats.classStats.addAll(rescorer.stats)
+                    }
                 }
-            }
 
-            if (!dataset.cached) {
-                item.cachedPair = null
+                if (!dataset.cached) {
+                    item.cachedPair = null
+                }
             }
+        } finally {
+            inferenceService?.close()
+            outputWriter?.close()
         }
+        result.errorItems.addAll(outputErrorItems)
 
         // stats and score transformer training
         if (collectStats && produceFilesystemOutput) {
@@ -137,9 +172,17 @@ class PredictPocketsRoutine extends Routine {
         return result
     }
 
-    private generatePredictionOutputFiles(PredictionPair pair, Dataset.Item item, ModelBasedRescorer rescorer, String outdir) {
-        if (produceFilesystemOutput) {
-            boolean outputPredictionFiles = produceFilesystemOutput && !params.output_only_stats
+    /**
+     * Prediction results are not modified after this point, so files can be written asynchronously by outputWriter.
+     */
+    private generatePredictionOutputFiles(PredictionPair pair, Dataset.Item item, ModelBasedRescorer rescorer, String outdir,
+                                          AsyncWriter outputWriter, List<Dataset.Item> outputErrorItems) {
+        if (!produceFilesystemOutput) {
+            return
+        }
+
+        Runnable writeOutput = {
+            boolean outputPredictionFiles = !params.output_only_stats
             if (outputPredictionFiles) {
                 PredictionSummary psum = new PredictionSummary(pair.prediction)
                 writeFile"$outdir/${item.label}_predictions.csv", psum.toCSV()
@@ -152,6 +195,12 @@ class PredictPocketsRoutine extends Routine {
             if (produceVisualizations) {
                 new PredictionVisualizer(outdir).generateVisualizations(item, rescorer, pair)
             }
+        } as Runnable
+
+        if (outputWriter != null) {
+            outputWriter.submit(item.label, writeOutput, { Throwable e -> outputErrorItems.add(item) })
+        } else {
+            writeOutput.run()
         }
     }
 
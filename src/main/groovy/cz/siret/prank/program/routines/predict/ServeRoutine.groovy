@@ -0,0 +1,319 @@
+package cz.siret.prank.program.routines.predict
+
+import com.google.gson.Gson
+import com.google.gson.JsonSyntaxException
+import cz.siret.prank.domain.Dataset
+import cz.siret.prank.features.api.ProcessedItemContext
+import cz.siret.prank.program.PrankException
+import cz.siret.prank.program.ml.Model
+import cz.siret.prank.program.params.Params
+import cz.siret.prank.program.routines.Routine
+import cz.siret.prank.utils.ATimer
+import cz.siret.prank.utils.Futils
+import groovy.transform.CompileStatic
+import groovy.transform.PackageScope
+import groovy.util.logging.Slf4j
+
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.SynchronousQueue
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+
+import static cz.siret.prank.utils.ATimer.startTimer
+import static cz.siret.prank.utils.Futils.mkdirs
+
+/**
+ * Long-running prediction service. Loads the model once and then makes predictions for structures
+ * submitted through a simple line protocol (on stdin or on a local TCP port, see serve_port).
+ *
+ * Request: one line, either a path to a structure file or a JSON object
+ *   {"id": "...", "protein": "path/to/file.pdb", "outdir": "optional/outdir", "columns": {"chains": "A"}}
+ * Request outdir is resolved against outdir of the server and must not point outside of it.
+ *
+ * Response: one line with JSON object
+ *   {"id": "...", "protein": "...", "status": "ok|error", "predictions": "path/to/predictions.csv", "residues": "...", "message": "...", "time_ms": 123}
+ *
+ * Line "exit" ends the session (stdin) or closes the connection (TCP).
+ *
+ * Requests are processed concurrently by up to params.threads workers. Each request runs single-threaded
+ * with its own copy of params. TCP connections are served by up to params.serve_max_connections threads.
+ *
+ * Backs prank command 'serve'
+ */
+@Slf4j
+@CompileStatic
+class ServeRoutine extends Routine {
+
+    static final String EXIT_COMMAND = 'exit'
+
+    /** compact (single-line) JSON */
+    private static final Gson GSON = new Gson()
+
+    String modelf
+
+    private Model model
+    private Params workerParams
+    private ThreadPoolExecutor executor
+
+    ServeRoutine(String modelf, String outdir) {
+        super(outdir)
+        this.modelf = modelf
+    }
+
+    static class Request {
+        String id
+        String protein
+        String outdir
+        Map<String, String> columns
+    }
+
+    static class Response {
+        String id
+        String protein
+        String status
+        String predictions
+        String residues
+        String message
+        Long time_ms
+    }
+
+    void execute() {
+        init()
+        try {
+            if (params.serve_port > 0) {
+                serveTcp(params.serve_port)
+            } else {
+                serveStdin()
+            }
+        } finally {
+            shutdown()
+        }
+    }
+
+    /**
+     * Loads the model and starts workers.
+     */
+    @PackageScope
+    void init() {
+        if (params.predict_residues) {
+            throw new PrankException("serve command supports only pocket prediction mode (predict_residues=false)")
+        }
+
+        mkdirs(outdir)
+        writeParams(outdir)
+
+        ATimer timer = startTimer()
+        model = Model.load(modelf)
+        write "model loaded in $timer.formatted"
+
+        workerParams = params.snapshot()
+        workerParams.threads = 1
+        workerParams.parallel = false
+        workerParams.output_threads = 0   // response is sent after output files are written
+        workerParams.inference_threads = 0 // requests are classified by their workers
+        workerParams.initDependentParams()
+
+        int nworkers = Math.max(1, params.threads)
+        executor = (ThreadPoolExecutor) Executors.newFixedThreadPool(nworkers)
+    }
+
+    /**
+     * Waits (without time limit) until all submitted requests are processed.
+     */
+    @PackageScope
+    void shutdown() {
+        executor.shutdown()
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            long pending = executor.taskCount - executor.completedTaskCount
+            write "waiting for $pending pending requests"
+        }
+    }
+
+//===========================================================================================================//
+
+    private void serveStdin() {
+        // keep stdout for responses, console output of the program goes to stderr
+        PrintStream out = System.out
+        System.setOut(System.err)
+        try {
+            write "serving requests on stdin (outdir: ${Futils.absPath(outdir)})"
+            BufferedReader reader = new BufferedReader(new InputStreamReader(System.in))
+            Writer writer = new OutputStreamWriter(out)
+            readRequests(reader, writer)
+            writer.flush()
+        } finally {
+            System.setOut(out)
+        }
+    }
+
+    private void serveTcp(int port) {
+        int maxConnections = Math.max(1, params.serve_max_connections)
+        ThreadPoolExecutor connections = new ThreadPoolExecutor(maxConnections, maxConnections, 0L, TimeUnit.MILLISECONDS,
+                new SynchronousQueue<Runnable>(), { Runnable r ->
+                    Thread t = new Thread(r, "prank-serve-connection")
+                    t.daemon = true
+                    return t
+                } as ThreadFactory)
+
+        ServerSocket server = new ServerSocket(port, 50, InetAddress.getLoopbackAddress())
+        write "serving requests on ${server.inetAddress.hostAddress}:$port (outdir: ${Futils.absPath(outdir)}, max connections: $maxConnections)"
+        try {
+            while (true) {
+                Socket socket = server.accept()
+                try {
+                    connections.execute({ handleConnection(socket) } as Runnable)
+                } catch (RejectedExecutionException ignored) {
+                    rejectConnection(socket, "too many connections (serve_max_connections=$maxConnections)")
+                }
+            }
+        } finally {
+            server.close()
+            connections.shutdownNow()
+        }
+    }
+
+    private static void rejectConnection(Socket socket, String message) {
+        log.warn("rejecting connection: $message")
+        try {
+            Writer writer = new OutputStreamWriter(socket.outputStream)
+            writeResponse(new Response(status: 'error', message: message), writer)
+        } catch (IOException e) {
+            log.debug("cannot send response to rejected connection", e)
+        } finally {
+            socket.close()
+        }
+    }
+
+    private void handleConnection(Socket socket) {
+        try {
+            BufferedReader reader = new BufferedReader(new InputStreamReader(socket.inputStream))
+            Writer writer = new OutputStreamWriter(socket.outputStream)
+            readRequests(reader, writer)
+        } catch (Exception e) {
+            log.error("error on serving connection", e)
+        } finally {
+            socket.close()
+        }
+    }
+
+    /**
+     * Reads requests until end of stream or exit command and submits them to workers.
+     * Waits until all responses for this channel are written.
+     */
+    @PackageScope
+    void readRequests(BufferedReader reader, Writer writer) {
+        List<Future> pending = new ArrayList<>()
+        String line
+        while ((line = reader.readLine()) != null) {
+            line = line.trim()
+            if (line.isEmpty()) continue
+            if (line == EXIT_COMMAND) break
+
+            pending.add(submitRequest(line, writer))
+        }
+        for (Future f : pending) {
+            f.get()
+        }
+    }
+
+    private Future submitRequest(String line, Writer writer) {
+        return executor.submit({
+            Response response = processRequest(line)
+            writeResponse(response, writer)
+        } as Runnable)
+    }
+
+    private static void writeResponse(Response response, Writer writer) {
+        synchronized (writer) {
+            writer.write(GSON.toJson(response))
+            writer.write('\n')
+            writer.flush()
+        }
+    }
+
+//===========================================================================================================//
+
+    static Request parseRequest(String line) {
+        if (line.startsWith('{')) {
+            try {
+                Request req = GSON.fromJson(line, Request.class)
+                if (req.protein == null) {
+                    throw new PrankException("request is missing 'protein' field")
+                }
+                return req
+            } catch (JsonSyntaxException e) {
+                throw new PrankException("invalid request: " + e.message, e)
+            }
+        } else {
+            return new Request(protein: line)
+        }
+    }
+
+    private Response processRequest(String line) {
+        ATimer timer = startTimer()
+        Response res = new Response()
+        try {
+            Request req = parseRequest(line)
+            res.id = req.id
+            res.protein = req.protein
+
+            Params.withParams(workerParams) {
+                doPredict(req, res)
+            }
+        } catch (Exception e) {
+            log.error("failed to process request [$line]", e)
+            res.status = 'error'
+            res.message = e.message
+        }
+        res.time_ms = timer.time
+        return res
+    }
+
+    /**
+     * Resolves request outdir against server outdir. Requests must not write outside of server outdir.
+     *
+     * @return absolute normalized path
+     */
+    static String resolveOutdir(String serverOutdir, String reqOutdir) {
+        Path base = Paths.get(serverOutdir).toAbsolutePath().normalize()
+        if (!reqOutdir) {
+            return base.toString()
+        }
+        Path res = base.resolve(reqOutdir).normalize()
+        if (!res.startsWith(base)) {
+            throw new PrankException("request outdir must be under server outdir ($base): $reqOutdir")
+        }
+        return res.toString()
+    }
+
+    private void doPredict(Request req, Response res) {
+        if (!Futils.exists(req.protein)) {
+            throw new PrankException("file not found: $req.protein")
+        }
+
+        String reqOutdir = resolveOutdir(outdir, req.outdir)
+        Dataset dataset = Dataset.createSingleFileDataset(req.protein, new ProcessedItemContext(null, req.columns ?: [:]))
+
+        PredictPocketsRoutine routine = new PredictPocketsRoutine(dataset, model, reqOutdir)
+        routine.writeParamsFile = false
+        Dataset.Result result = routine.execute()
+
+        if (result.hasErrors()) {
+            res.status = 'error'
+            res.message = "failed to process structure (see log)"
+        } else {
+            String label = Futils.shortName(req.protein)
+            res.status = 'ok'
+            res.predictions = Futils.absPath("$reqOutdir/${label}_predictions.csv")
+            if (params.label_residues) {
+                res.residues = Futils.absPath("$reqOutdir/${label}_residues.csv")
+            }
+        }
+    }
+
+}
@@ -129,7 +129,7 @@ class Evaluation implements Parametrized {
 
         Protein protein = pair.protein
         Atoms sasPoints = pair.prediction.protein.accessibleSurface.points
-        Atoms labeledPoints = new Atoms(pair.prediction.labeledPoints ?: emptyList())
+        Atoms labeledPoints = new Atoms(pair.prediction.toLabeledPoints() ?: emptyList())
         
         ProteinRow protRow = new ProteinRow()
         protRow.name = pair.name
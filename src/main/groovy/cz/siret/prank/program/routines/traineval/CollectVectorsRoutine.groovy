@@ -2,10 +2,15 @@ package cz.siret.prank.program.routines.traineval
 
 import cz.siret.prank.collectors.CollectorFactory
 import cz.siret.prank.collectors.DataPreprocessor
+import cz.siret.prank.collectors.LigandabilityPointVectorCollector
+import cz.siret.prank.collectors.TrainingPointSampler
+import cz.siret.prank.collectors.TrainingPoints
 import cz.siret.prank.collectors.VectorCollector
 import cz.siret.prank.domain.Dataset
 import cz.siret.prank.features.FeatureExtractor
 import cz.siret.prank.features.FeatureVector
+import cz.siret.prank.features.FeatureVectorCache
+import cz.siret.prank.features.implementation.ProtrusionFeature
 import cz.siret.prank.geom.transform.Rotation
 import cz.siret.prank.geom.transform.Rotations
 import cz.siret.prank.program.PrankException
@@ -20,7 +25,9 @@ import us.ihmc.euclid.matrix.RotationMatrix
 import weka.core.Instance
 import weka.core.Instances
 
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.atomic.AtomicInteger
+import java.util.function.Supplier
 
 import static cz.siret.prank.utils.ATimer.startTimer
 import static cz.siret.prank.utils.Cutils.newSynchronizedList
@@ -125,9 +132,33 @@ class CollectVectorsRoutine extends Routine {
             throw new PrankException("Datsets has no items [$dataset.name].")
         }
 
+        boolean sampleBeforeExtraction = params.sample_before_extraction && collector instanceof LigandabilityPointVectorCollector
+                && ((LigandabilityPointVectorCollector) collector).supportsSamplingBeforeExtraction()
+        if (params.sample_before_extraction && !sampleBeforeExtraction) {
+            log.warn "sample_before_extraction is not supported for current collector settings, sampling after extraction"
+        }
+
+        Map<Dataset.Item, TrainingPoints> sampledPoints = null
+        if (sampleBeforeExtraction) {
+            sampledPoints = sampleTrainingPoints((LigandabilityPointVectorCollector) collector, extractor)
+        }
+
         dataset.processItems { Dataset.Item item ->
 
-            def collected = collector.collectVectors(item.predictionPair, item.context)
+            CollectedItem collectedItem
+            if (sampleBeforeExtraction) {
+                // selection depends on the whole dataset, not cached
+                collectedItem = new CollectedItem(
+                    ((LigandabilityPointVectorCollector) collector).collectVectors(item.predictionPair, item.context, sampledPoints.get(item)),
+                    item.predictionPair.ligands.relevantLigandCount)
+            } else {
+                collectedItem = FeatureVectorCache.instance.get('train', item, params, {
+                    new CollectedItem(
+                        collector.collectVectors(item.predictionPair, item.context),
+                        item.predictionPair.ligands.relevantLigandCount)
+                } as Supplier<CollectedItem>)
+            }
+            VectorCollector.Result collected = collectedItem.vectors
 
             Instances inst = WekaUtils.createDatasetWithBinaryClass(extractor.vectorHeader)
             for (FeatureVector v : collected.vectors) {
@@ -136,7 +167,7 @@ class CollectVectorsRoutine extends Routine {
 
             pos.addAndGet(collected.positives)
             neg.addAndGet(collected.negatives)
-            ligCount.addAndGet(item.predictionPair.ligands.relevantLigandCount)
+            ligCount.addAndGet(collectedItem.relevantLigandCount)
             instList.add(inst)
         }
 
@@ -161,7 +192,7 @@ class CollectVectorsRoutine extends Routine {
             throw new PrankException("No positive vectors were extracted from dataset [$dataset.name].")
         }
 
-        Instances data = prepareDataForWeka(instList, vectf)
+        Instances data = prepareDataForWeka(instList, vectf, sampleBeforeExtraction)
 
         logTime "collecting vectors finished in $timer.formatted"
 
@@ -169,13 +200,58 @@ class CollectVectorsRoutine extends Routine {
     }
 
 
-    Instances prepareDataForWeka(List<Instances> instList, String arffFile) {
+    /**
+     * Vectors collected from one dataset item (cached in FeatureVectorCache)
+     */
+    private static class CollectedItem {
+        final VectorCollector.Result vectors
+        final int relevantLigandCount
+
+        CollectedItem(VectorCollector.Result vectors, int relevantLigandCount) {
+            this.vectors = vectors
+            this.relevantLigandCount = relevantLigandCount
+        }
+    }
+
+    /**
+     * Labels points of all proteins without feature extraction and selects points to keep
+     * (so that feature vectors are calculated only for them).
+     */
+    private Map<Dataset.Item, TrainingPoints> sampleTrainingPoints(LigandabilityPointVectorCollector collector, FeatureExtractor extractor) {
+        def timer = startTimer()
+
+        boolean sortByProtrusion = params.subsampl_high_protrusion_negatives && params.subsample && !params.supersample
+                && extractor.vectorHeader.contains(ProtrusionFeature.NAME)
+
+        Map<Dataset.Item, TrainingPoints> labeled = new ConcurrentHashMap<>()
+        Dataset.Result result = dataset.processItems { Dataset.Item item ->
+            labeled.put(item, collector.labelPoints(item.predictionPair, sortByProtrusion))
+        }
+        if (result.hasErrors()) {
+            throw new PrankException("Failed to label training points for some proteins of dataset [$dataset.name].")
+        }
+
+        List<Dataset.Item> items = dataset.items
+        List<TrainingPoints> sampled = new TrainingPointSampler(sortNegativesByProtrusion: sortByProtrusion)
+                .sample(items.collect { labeled.get(it) })
+
+        Map<Dataset.Item, TrainingPoints> res = new HashMap<>()
+        for (int i = 0; i < items.size(); i++) {
+            res.put(items[i], sampled[i])
+        }
+
+        logTime "labeling and sampling training points finished in $timer.formatted"
+
+        return res
+    }
+
+    Instances prepareDataForWeka(List<Instances> instList, String arffFile, boolean sampledBeforeExtraction = false) {
         Instances data = WekaUtils.joinInstances(instList)
 
         log.info "instances: " + data.size()
 
         // TODO move up to TrainEvalRoutine
-        data = new DataPreprocessor().preProcessTrainData(data)
+        data = new DataPreprocessor(sampledBeforeExtraction: sampledBeforeExtraction).preProcessTrainData(data)
 
         if (!params.delete_vectors) {
             WekaUtils.saveDataArff(Futils.getGzipOutputStream(arffFile+".gz"), data)
@@ -3,6 +3,7 @@ package cz.siret.prank.program.routines.traineval
 import cz.siret.prank.collectors.DataPreprocessor
 import cz.siret.prank.domain.Dataset
 import cz.siret.prank.program.ml.FeatureVectors
+import cz.siret.prank.program.params.Params
 import cz.siret.prank.program.routines.results.EvalResults
 import cz.siret.prank.utils.Futils
 import cz.siret.prank.utils.WekaUtils
@@ -52,14 +53,16 @@ class CrossValidation extends EvalRoutine {
         prepareFolds()
 
         List<EvalResults> resultsList
+        Params callerParams = params
         GParsPool.withPool(params.crossval_threads) {
             resultsList = folds.collectParallel { Fold fold ->
+                Params.withParams(callerParams) {
+                    String label = "fold.${numFolds}.${fold.num}"
+                    TrainEvalRoutine iter = new TrainEvalRoutine("$outdir/$label", fold.data.trainset, fold.data.evalset)
+                    iter.trainVectors = FeatureVectors.fromInstances(fold.trainVectors) // pre-collected vectors
 
-                String label = "fold.${numFolds}.${fold.num}"
-                TrainEvalRoutine iter = new TrainEvalRoutine("$outdir/$label", fold.data.trainset, fold.data.evalset)
-                iter.trainVectors = FeatureVectors.fromInstances(fold.trainVectors) // pre-collected vectors
-
-                return iter.trainAndEvalModel()
+                    return iter.trainAndEvalModel()
+                }
             } as List<EvalResults>
         }
 
@@ -163,15 +163,16 @@ class Experiments extends Routine {
         TrainEvalRoutine iter = new TrainEvalRoutine(outdir, trainData, evalData)
 
         if (params.collect_only_once) {
-            if (params.hopt_train_only_once && context.trainVectorsCollected) {
-                // use pre-collected vectors from the context
+            if (params.hopt_train_only_once) {
+                // use vectors collected once for all (possibly concurrent) steps sharing the context
                 // basically just for stats // TODO: remove need to keep all vectors in memory, stats are enough
-                iter.trainVectors = context.trainVectors
+                iter.trainVectors = context.getOrCollectTrainVectors {
+                    iter.collectTrainVectors()
+                    return iter.trainVectors
+                }
             } else {
-                // collect new vectors at the beginning of the seedloop and put to cache
+                // collect new vectors at the beginning of the seedloop
                 iter.collectTrainVectors()
-                context.trainVectorsCollected = true
-                context.trainVectors = iter.trainVectors
             }
         }
 
@@ -183,7 +184,21 @@ class Experiments extends Routine {
             iter.withModelCache(context.modelCache)
         }
 
-        EvalRoutine trainEvalRoutine = new EvalRoutine(outdir) {
+        // each concurrently running seed iteration needs its own routine
+        Closure<EvalRoutine> routineFactory = {
+            TrainEvalRoutine seedIter = new TrainEvalRoutine(outdir, trainData, evalData)
+            seedIter.trainVectors = iter.trainVectors
+            if (context.cacheModels) {
+                seedIter.withModelCache(context.modelCache)
+            }
+            return createSeedIterationRoutine(outdir, seedIter)
+        }
+
+        return new SeedLoop(routineFactory, outdir).execute()
+    }
+
+    private static EvalRoutine createSeedIterationRoutine(String outdir, TrainEvalRoutine iter) {
+        return new EvalRoutine(outdir) {
             @Override
             EvalResults execute() {
                 if (!params.collect_only_once) { // ensures that if subsampling is turned on it is done before each training
@@ -195,8 +210,6 @@ class Experiments extends Routine {
                 return res
             }
         }
-
-        return new SeedLoop(trainEvalRoutine, outdir).execute()
     }
 
 //===========================================================================================================//
@@ -249,8 +262,8 @@ class Experiments extends Routine {
         EvalResults res
 
         if (doCrossValidation) {
-            EvalRoutine routine = new CrossValidation(dir, trainData)
-            res = new SeedLoop(routine, dir).execute()
+            Closure<EvalRoutine> routineFactory = { new CrossValidation(dir, trainData) as EvalRoutine }
+            res = new SeedLoop(routineFactory, dir).execute()
         } else {
             res = doTrainEvalSeedloop(dir, trainData, evalData, context)
         }
@@ -259,11 +272,13 @@ class Experiments extends Routine {
             async { Futils.delete(dir) }
         }
 
+        // concurrent steps are not allowed with clear_sec_caches (see Params.checkConcurrentRunsAllowed())
+        boolean concurrentSteps = params.ploop_parallel_steps > 1  // datasets are shared with other running steps
         if (params.clear_sec_caches) {
             trainData.clearSecondaryCaches()
             evalData?.clearSecondaryCaches()
         }
-        if (params.clear_prim_caches) {
+        if (params.clear_prim_caches && !concurrentSteps) {
             trainData.clearPrimaryCaches()
             evalData?.clearPrimaryCaches()
         }
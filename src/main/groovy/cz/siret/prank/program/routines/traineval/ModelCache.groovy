@@ -3,6 +3,8 @@ package cz.siret.prank.program.routines.traineval
 import cz.siret.prank.program.ml.Model
 import groovy.transform.CompileStatic
 
+import java.util.concurrent.ConcurrentHashMap
+
 /**
  * Manages pre-trained models for different seeds.
  * 
@@ -11,7 +13,7 @@ import groovy.transform.CompileStatic
 @CompileStatic
 class ModelCache {
 
-    private Map<String, Model> cache = new HashMap<>()
+    private Map<String, Model> cache = new ConcurrentHashMap<>()
 
     boolean contains(String key) {
         return cache.containsKey(key)
@@ -1,11 +1,20 @@
 package cz.siret.prank.program.routines.traineval
 
+import cz.siret.prank.program.PrankException
+import cz.siret.prank.program.params.Params
 import cz.siret.prank.program.routines.results.EvalResults
 import cz.siret.prank.utils.Formatter
 import cz.siret.prank.utils.Futils
 import groovy.transform.CompileStatic
 import groovy.util.logging.Slf4j
 
+import javax.annotation.Nullable
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
 import static cz.siret.prank.utils.ATimer.startTimer
 import static cz.siret.prank.utils.Futils.mkdirs
 import static cz.siret.prank.utils.MathUtils.ranndomInt
@@ -19,11 +28,23 @@ class SeedLoop extends EvalRoutine {
 
     EvalRoutine innerRoutine  // routine to iterate on
 
+    /**
+     * Creates new instance of the inner routine for each concurrently running seed iteration.
+     * Concurrent iterations (see params.loop_parallel) are possible only if it is provided.
+     */
+    @Nullable
+    Closure<EvalRoutine> routineFactory
+
     SeedLoop(EvalRoutine routine, String outdir) {
         super(outdir)
         this.innerRoutine = routine
     }
 
+    SeedLoop(Closure<EvalRoutine> routineFactory, String outdir) {
+        this(routineFactory.call(), outdir)
+        this.routineFactory = routineFactory
+    }
+
     @Override
     EvalResults execute() {
         def timer = startTimer()
@@ -32,22 +53,28 @@ class SeedLoop extends EvalRoutine {
 
         int origSeed = params.seed
         int n = params.loop
-        for (int seedi in 1..n) {
-            write "random seed iteration: $seedi/$n"
 
+        List<Integer> seeds = new ArrayList<>()
+        for (int seedi in 1..n) {
             if (params.randomize_seed) {
-                params.seed = ranndomInt()
+                seeds.add(ranndomInt())
             } else {
-                params.seed = origSeed + (seedi - 1)
+                seeds.add(origSeed + (seedi - 1))
             }
+        }
 
-            String label = "seed.${params.seed}"
-            innerRoutine.outdir = "$outdir/runs/$label"
-            mkdirs(innerRoutine.outdir)
+        if (params.loop_parallel > 1 && n > 1 && routineFactory != null) {
+            executeConcurrently(seeds, results)
+        } else {
+            int seedi = 1
+            for (int seed : seeds) {
+                write "random seed iteration: ${seedi++}/$n"
 
-            results.addSubResults(innerRoutine.execute())
+                params.seed = seed
+                innerRoutine.outdir = prepareSeedOutdir(seed)
 
-            params.seed += 1
+                results.addSubResults(innerRoutine.execute())
+            }
         }
 
         results.logAndStore(outdir, params.classifier)
@@ -67,4 +94,63 @@ class SeedLoop extends EvalRoutine {
         return results
     }
 
+    private String prepareSeedOutdir(int seed) {
+        String dir = "$outdir/runs/seed.$seed"
+        mkdirs(dir)
+        return dir
+    }
+
+    /**
+     * Run up to params.loop_parallel seed iterations at once.
+     * Each iteration runs with its own routine instance and its own snapshot of params bound to its thread.
+     * Total thread budget (params.threads) is split between concurrently running iterations.
+     * Results are aggregated in the order of seeds.
+     */
+    private void executeConcurrently(List<Integer> seeds, EvalResults results) {
+        params.checkConcurrentRunsAllowed("loop_parallel")
+
+        int parallel = Math.min(params.loop_parallel, seeds.size())
+        int threadsPerIteration = Math.max(1, params.threads.intdiv(parallel))
+
+        write "running ${seeds.size()} random seed iterations, $parallel concurrently with $threadsPerIteration threads per iteration"
+
+        ExecutorService executor = Executors.newFixedThreadPool(parallel)
+        try {
+            List<Future<EvalResults>> futures = new ArrayList<>()
+            for (int seed : seeds) {
+                Params seedParams = params.snapshot()
+                seedParams.seed = seed
+                seedParams.threads = threadsPerIteration
+                seedParams.initDependentParams()
+
+                futures.add(submitIteration(executor, seed, seedParams))
+            }
+            // collect in submission order, so that sub-results are ordered by seed regardless of completion order
+            for (int i = 1; i <= seeds.size(); i++) {
+                try {
+                    results.addSubResults(futures[i - 1].get())
+                } catch (ExecutionException e) {
+                    throw new PrankException("Random seed iteration failed: " + e.cause?.message, e.cause)
+                }
+                write "random seed iterations collected: $i/${seeds.size()}"
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    private Future<EvalResults> submitIteration(ExecutorService executor, int seed, Params seedParams) {
+        String seedOutdir = prepareSeedOutdir(seed)
+        return executor.submit(new Callable<EvalResults>() {
+            @Override
+            EvalResults call() throws Exception {
+                return (EvalResults) Params.withParams(seedParams) {
+                    EvalRoutine routine = routineFactory.call()
+                    routine.outdir = seedOutdir
+                    routine.execute()
+                }
+            }
+        })
+    }
+
 }
@@ -22,5 +22,17 @@ class TrainEvalContext {
     static TrainEvalContext create() {
         return new TrainEvalContext()
     }
+
+    /**
+     * Returns train vectors collected by the first caller.
+     * Concurrently running optimization steps share the context, other callers wait until collection finishes.
+     */
+    synchronized FeatureVectors getOrCollectTrainVectors(Closure<FeatureVectors> collector) {
+        if (!trainVectorsCollected) {
+            trainVectors = collector.call()
+            trainVectorsCollected = true  // publish only after vectors are assigned
+        }
+        return trainVectors
+    }
     
 }
@@ -16,6 +16,9 @@ import org.biojava.nbio.structure.Atom
 import java.awt.*
 import java.util.List
 
+import static cz.siret.prank.utils.Formatter.appendFixed
+import static cz.siret.prank.utils.Formatter.appendInt
+
 /**
  * Visualizes pocket predictions.
  */
@@ -23,6 +26,8 @@ import java.util.List
 @CompileStatic
 class PredictionVisualizer implements Parametrized {
 
+    private static final int PDB_CHUNK_SIZE = 64 * 1024
+
     String outdir
 
     PredictionVisualizer(String outdir) {
@@ -41,18 +46,40 @@ class PredictionVisualizer implements Parametrized {
 
 //===========================================================================================================//
 
+    /**
+     * Writes lines in format "HETATM%5d H    STP 1  %2d    %8.3f%8.3f%8.3f  0.50%6.3f" (without using printf)
+     */
     static void writeLabeledPointsPdb(String pointsf, List<LabeledPoint> labeledPoints) {
         Writer pdb = Futils.getGzipWriter(pointsf)
-        int i = 0
-        for (LabeledPoint lp : labeledPoints) {
-            double beta = lp.score
-            Atom p = lp.point
-            def lab = "STP"
-
-            pdb.printf "HETATM%5d H    %3s 1  %2d    %8.3f%8.3f%8.3f  0.50%6.3f\n", i, lab, lp.pocket, p.x, p.y, p.z, beta
-            i++
+        try {
+            StringBuilder sb = new StringBuilder(PDB_CHUNK_SIZE + 100)
+            int i = 0
+            for (LabeledPoint lp : labeledPoints) {
+                double beta = lp.score
+                Atom p = lp.point
+
+                sb.append("HETATM")
+                appendInt(sb, i, 5)
+                sb.append(" H    STP 1  ")
+                appendInt(sb, lp.pocket, 2)
+                sb.append("    ")
+                appendFixed(sb, p.x, 8, 3)
+                appendFixed(sb, p.y, 8, 3)
+                appendFixed(sb, p.z, 8, 3)
+                sb.append("  0.50")
+                appendFixed(sb, beta, 6, 3)
+                sb.append((char) '\n')
+                i++
+
+                if (sb.length() >= PDB_CHUNK_SIZE) {
+                    pdb.append(sb)
+                    sb.setLength(0)
+                }
+            }
+            pdb.append(sb)
+        } finally {
+            pdb.close()
         }
-        pdb.close()
     }
 
 //    void conditionallyZipVisualizations(List<File> fileList, String label) {
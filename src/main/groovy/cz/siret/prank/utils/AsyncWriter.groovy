@@ -0,0 +1,95 @@
+package cz.siret.prank.utils
+
+import cz.siret.prank.program.params.Params
+import groovy.transform.CompileStatic
+import groovy.util.logging.Slf4j
+
+import java.util.concurrent.ArrayBlockingQueue
+import java.util.concurrent.RejectedExecutionException
+import java.util.concurrent.RejectedExecutionHandler
+import java.util.concurrent.ThreadFactory
+import java.util.concurrent.ThreadPoolExecutor
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * Runs output tasks (formatting and writing of result files) on a small dedicated thread pool,
+ * so that compute threads don't wait for (possibly slow) filesystem.
+ *
+ * Queue of waiting tasks is bounded: when it is full, submitting thread waits (keeps memory
+ * held by pending results in check).
+ *
+ * Params of the submitting thread are bound to the task (see Params.withParams()).
+ */
+@Slf4j
+@CompileStatic
+class AsyncWriter implements Closeable {
+
+    private final ThreadPoolExecutor executor
+    private final AtomicInteger failedCount = new AtomicInteger(0)
+
+    /**
+     * @param threads number of writer threads
+     * @param queueSize max number of tasks waiting in the queue
+     */
+    AsyncWriter(int threads, int queueSize) {
+        AtomicInteger threadCounter = new AtomicInteger(0)
+        ThreadFactory threadFactory = { Runnable r ->
+            Thread t = new Thread(r, "prank-writer-" + threadCounter.incrementAndGet())
+            t.daemon = true
+            return t
+        } as ThreadFactory
+
+        RejectedExecutionHandler waitForSpace = { Runnable r, ThreadPoolExecutor ex ->
+            if (ex.isShutdown()) {
+                throw new RejectedExecutionException("writer is closed")
+            }
+            ex.queue.put(r)
+        } as RejectedExecutionHandler
+
+        executor = new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<Runnable>(Math.max(1, queueSize)), threadFactory, waitForSpace)
+    }
+
+    /**
+     * Submits the task (waits if the queue is full).
+     *
+     * @param label used in error messages
+     * @param onError called (on writer thread) if the task fails
+     */
+    void submit(String label, Runnable task, Closure onError = null) {
+        final Params callerParams = Params.inst
+        executor.execute({
+            try {
+                Params.withParams(callerParams) {
+                    task.run()
+                }
+            } catch (Throwable e) {
+                failedCount.incrementAndGet()
+                log.error("Failed to write output for [$label]", e)
+                if (onError != null) {
+                    onError.call(e)
+                }
+            }
+        } as Runnable)
+    }
+
+    /**
+     * @return number of tasks that failed
+     */
+    int getFailedCount() {
+        return failedCount.get()
+    }
+
+    /**
+     * Waits until all submitted tasks are finished.
+     */
+    @Override
+    void close() {
+        executor.shutdown()
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            log.info "waiting for output writers ({} tasks pending)", executor.queue.size() + executor.activeCount
+        }
+    }
+
+}
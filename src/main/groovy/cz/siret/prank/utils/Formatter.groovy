@@ -80,6 +80,67 @@ class Formatter {
         COORD_FORMAT.format(coord)
     }
 
+//===========================================================================================================//
+// allocation-light fixed width formatting for writing large files
+
+    private static final long[] POW10 = (0..15).collect { (long) Math.pow(10, it) } as long[]
+
+    private static void appendSpaces(StringBuilder sb, int n) {
+        for (int i = 0; i < n; i++) {
+            sb.append((char) ' ')
+        }
+    }
+
+    private static int numDigits(long x) {
+        int n = 1
+        while (n < POW10.length && x >= POW10[n]) {
+            n++
+        }
+        return n
+    }
+
+    /**
+     * Appends integer right justified to the width (equivalent of sprintf "%{width}d").
+     */
+    static StringBuilder appendInt(StringBuilder sb, long x, int width) {
+        int len = (x < 0) ? numDigits(-x) + 1 : numDigits(x)
+        appendSpaces(sb, width - len)
+        sb.append(x)
+        return sb
+    }
+
+    /**
+     * Appends number right justified to the width (equivalent of sprintf "%{width}.{decimals}f").
+     * Rounds half up the binary value, so the last digit may differ from sprintf in rare cases of ties.
+     */
+    static StringBuilder appendFixed(StringBuilder sb, double x, int width, int decimals) {
+        if (Double.isNaN(x) || Double.isInfinite(x) || Math.abs(x) >= 1e12 || decimals > 6) {
+            sb.append(String.format(Locale.US, "%" + width + "." + decimals + "f", x))
+            return sb
+        }
+
+        boolean negative = x < 0 || (x == 0d && 1d / x < 0)
+        long pow = POW10[decimals]
+        long scaled = Math.round(Math.abs(x) * pow)
+        long intPart = scaled.intdiv(pow) as long
+        long fracPart = scaled % pow
+
+        int len = numDigits(intPart) + (decimals > 0 ? decimals + 1 : 0) + (negative ? 1 : 0)
+        appendSpaces(sb, width - len)
+        if (negative) {
+            sb.append((char) '-')
+        }
+        sb.append(intPart)
+        if (decimals > 0) {
+            sb.append((char) '.')
+            for (int d = decimals - 1; d > 0 && fracPart < POW10[d]; d--) {
+                sb.append((char) '0')
+            }
+            sb.append(fracPart)
+        }
+        return sb
+    }
+
 //===========================================================================================================//
 
     static String formatTime(long ms) {
@@ -17,6 +17,11 @@ import org.zeroturnaround.zip.ZipUtil
 
 import javax.annotation.Nonnull
 import javax.annotation.Nullable
+import java.nio.file.LinkOption
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.attribute.PosixFilePermission
+import java.nio.file.attribute.PosixFilePermissions
 import java.util.function.Predicate
 import java.util.zip.Deflater
 import java.util.zip.GZIPInputStream
@@ -453,6 +458,39 @@ class Futils {
         listFiles(dir).isEmpty()    
     }
 
+    /**
+     * Prepares directory for private data of the current user (e.g. on-disk cache).
+     * Creates it readable only by the owner (0700 on POSIX file systems) if it doesn't exist.
+     *
+     * @return false if the directory is not safe to use (not a directory, not owned by the current user or accessible by others)
+     */
+    static boolean preparePrivateDir(String dirName) {
+        Path dir = Paths.get(dirName).toAbsolutePath()
+        boolean posix = dir.fileSystem.supportedFileAttributeViews().contains('posix')
+        if (!java.nio.file.Files.exists(dir, LinkOption.NOFOLLOW_LINKS)) {
+            java.nio.file.Files.createDirectories(dir.parent)
+            if (posix) {
+                java.nio.file.Files.createDirectory(dir, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString('rwx------')))
+            } else {
+                java.nio.file.Files.createDirectory(dir)
+            }
+        }
+        if (!java.nio.file.Files.isDirectory(dir, LinkOption.NOFOLLOW_LINKS)) {
+            log.warn("[$dirName] is not a directory")
+            return false
+        }
+        if (posix) {
+            String user = System.getProperty('user.name')
+            Set<PosixFilePermission> perms = java.nio.file.Files.getPosixFilePermissions(dir, LinkOption.NOFOLLOW_LINKS)
+            boolean accessibleByOthers = perms.any { PosixFilePermission p -> !p.name().startsWith('OWNER_') }
+            if (java.nio.file.Files.getOwner(dir, LinkOption.NOFOLLOW_LINKS).name != user || accessibleByOthers) {
+                log.warn("Directory [$dirName] must be owned by [$user] with 0700 permissions")
+                return false
+            }
+        }
+        return true
+    }
+
 
     static boolean exists(@Nullable String name) {
         if (name==null) return false
@@ -0,0 +1,94 @@
+package cz.siret.prank.collectors
+
+import cz.siret.prank.geom.Atoms
+import cz.siret.prank.program.params.Params
+import groovy.transform.CompileStatic
+import org.biojava.nbio.structure.Atom
+import org.biojava.nbio.structure.AtomImpl
+import org.junit.jupiter.api.Test
+
+import static org.junit.jupiter.api.Assertions.assertEquals
+
+@CompileStatic
+class TrainingPointSamplerTest {
+
+    private static Atoms points(int n, double offset) {
+        Atoms res = new Atoms()
+        for (int i = 0; i < n; i++) {
+            Atom a = new AtomImpl()
+            a.setCoords([offset + i, 0d, 0d] as double[])
+            res.add(a)
+        }
+        return res
+    }
+
+    private static List<TrainingPoints> items() {
+        [
+            new TrainingPoints(points(10, 0), points(300, 1000), (0..<300).collect { 2d * it } as double[]),
+            new TrainingPoints(points(30, 2000), points(700, 3000), (0..<700).collect { 2d * it + 1 } as double[])
+        ]
+    }
+
+    private static List<TrainingPoints> sample(Params p, boolean sortByProtrusion) {
+        return (List<TrainingPoints>) Params.withParams(p) {
+            new TrainingPointSampler(sortNegativesByProtrusion: sortByProtrusion).sample(items())
+        }
+    }
+
+    private static int count(List<TrainingPoints> res, boolean positives) {
+        int n = 0
+        for (TrainingPoints it : res) {
+            n += (positives ? it.positives : it.negatives).count
+        }
+        return n
+    }
+
+    @Test
+    void subsampleToTargetRatio() {
+        Params p = new Params()
+        p.subsample = true
+        p.supersample = false
+        p.target_class_ratio = 0.2
+        p.max_train_instances = 0
+
+        List<TrainingPoints> res = sample(p, false)
+
+        assertEquals(40, count(res, true))
+        assertEquals(200, count(res, false))
+
+        // same seed gives the same selection
+        List<TrainingPoints> res2 = sample(p, false)
+        for (int i = 0; i < res.size(); i++) {
+            assertEquals(res[i].negatives.list, res2[i].negatives.list)
+        }
+    }
+
+    @Test
+    void maxTrainInstancesKeepsClassRatio() {
+        Params p = new Params()
+        p.subsample = false
+        p.supersample = false
+        p.max_train_instances = 104
+
+        List<TrainingPoints> res = sample(p, false)
+
+        assertEquals(4, count(res, true))
+        assertEquals(100, count(res, false))
+    }
+
+    @Test
+    void subsampleKeepsLowProtrusionNegatives() {
+        Params p = new Params()
+        p.subsample = true
+        p.supersample = false
+        p.target_class_ratio = 0.4
+        p.max_train_instances = 0
+
+        List<TrainingPoints> res = sample(p, true)
+
+        // 100 negatives with the lowest protrusion: 50 from each protein
+        assertEquals(50, res[0].negatives.count)
+        assertEquals(50, res[1].negatives.count)
+    }
+
+}
@@ -0,0 +1,51 @@
+package cz.siret.prank.domain
+
+import cz.siret.prank.program.params.Params
+import groovy.transform.CompileStatic
+import org.junit.jupiter.api.Test
+
+import java.util.concurrent.Future
+
+import static org.junit.jupiter.api.Assertions.*
+
+@CompileStatic
+class StructurePrefetcherTest {
+
+    @Test
+    void prefetchedStructuresAreOwnedByTheRun() {
+        Dataset.Item item = Dataset.createSingleFileDataset('distro/test_data/1fbl.pdb').items[0]
+        Params params = Params.inst.snapshot()
+
+        // two runs sharing the item
+        StructurePrefetcher run1 = new StructurePrefetcher([item], 1, 1, params)
+        StructurePrefetcher run2 = new StructurePrefetcher([item], 1, 1, params)
+        try {
+            run1.close()
+            assertNull run1.take(item)
+
+            Future<PredictionPair> prefetched = run2.take(item)
+            assertNotNull prefetched
+            assertNotNull prefetched.get().protein   // not cancelled by run1
+            assertNull run2.take(item)
+        } finally {
+            run1.close()
+            run2.close()
+        }
+    }
+
+    @Test
+    void itemTakesStructuresFromBoundPrefetcher() {
+        Dataset.Item item = Dataset.createSingleFileDataset('distro/test_data/1fbl.pdb').items[0]
+        StructurePrefetcher prefetcher = new StructurePrefetcher([item], 1, 1, Params.inst.snapshot())
+        try {
+            StructurePrefetcher.withPrefetcher(prefetcher) {
+                assertNotNull item.protein
+            }
+            assertNull prefetcher.take(item)
+            assertNull StructurePrefetcher.current
+        } finally {
+            prefetcher.close()
+        }
+    }
+
+}
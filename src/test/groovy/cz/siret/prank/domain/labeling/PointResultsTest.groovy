@@ -0,0 +1,59 @@
+package cz.siret.prank.domain.labeling
+
+import cz.siret.prank.geom.Point
+import groovy.transform.CompileStatic
+import org.junit.jupiter.api.Test
+
+import static org.junit.jupiter.api.Assertions.*
+
+/**
+ *
+ */
+@CompileStatic
+class PointResultsTest {
+
+    private static List<LabeledPoint> points() {
+        LabeledPoint a = new LabeledPoint(new Point(1, 2, 3), true, false, 0.25d)
+        a.transformedScore = 0.5d
+        a.pocket = 2
+        LabeledPoint b = new LabeledPoint(new Point(-1.5, 0, 10), false, true, 0.75d)
+        return [a, b]
+    }
+
+    @Test
+    void keepsValuesOfLabeledPoints() {
+        List<LabeledPoint> orig = points()
+        PointResults res = PointResults.of(orig)
+
+        assertEquals 2, res.size
+        List<LabeledPoint> copy = res.toLabeledPoints()
+        for (int i = 0; i < orig.size(); i++) {
+            LabeledPoint o = orig[i]
+            LabeledPoint c = copy[i]
+            assertEquals o.x, c.x, 0d
+            assertEquals o.y, c.y, 0d
+            assertEquals o.z, c.z, 0d
+            assertEquals o.score, c.score, 0d
+            assertEquals o.transformedScore, c.transformedScore, 0d
+            assertEquals o.observed, c.observed
+            assertEquals o.predicted, c.predicted
+            assertEquals o.pocket, c.pocket
+        }
+    }
+
+    @Test
+    void labeledPointsAreDetached() {
+        PointResults res = PointResults.of(points())
+
+        LabeledPoint p = res.getLabeledPoint(1)
+        p.pocket = 5
+        p.score = 0d
+        assertEquals 0, res.getPocket(1)
+        assertEquals 0.75d, res.getScore(1), 0d
+
+        res.setPocket(1, 3)
+        assertEquals 3, res.getLabeledPoint(1).pocket
+        assertNotSame res.getLabeledPoint(0), res.getLabeledPoint(0)
+    }
+
+}
@@ -0,0 +1,35 @@
+package cz.siret.prank.features
+
+import cz.siret.prank.domain.Protein
+import cz.siret.prank.features.api.AtomFeatureCalculationContext
+import cz.siret.prank.features.api.AtomFeatureCalculator
+import cz.siret.prank.features.implementation.chem.ChemFeature
+import cz.siret.prank.features.implementation.volsite.VolsiteFeature
+import groovy.transform.CompileStatic
+import org.biojava.nbio.structure.Atom
+import org.junit.jupiter.api.Test
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals
+import static org.junit.jupiter.api.Assertions.assertSame
+
+@CompileStatic
+class AtomTypeFeatureTableTest {
+
+    static String dataDir = 'src/test/resources/data'
+
+    @Test
+    void memoizedValuesEqualCalculated() {
+        List<AtomFeatureCalculator> calculators = [new ChemFeature(), new VolsiteFeature()] as List<AtomFeatureCalculator>
+        AtomTypeFeatureTable table = AtomTypeFeatureTable.forFeatures(calculators)
+        assertSame(table, AtomTypeFeatureTable.forFeatures(calculators))
+
+        Protein protein = Protein.load("$dataDir/2src.pdb")
+        for (Atom atom : protein.proteinAtoms) {
+            AtomFeatureCalculationContext context = new AtomFeatureCalculationContext(protein, atom)
+
+            double[] expected = calculators.collect { it.calculateForAtom(atom, context) }.flatten() as double[]
+            assertArrayEquals(expected, table.getValues(atom, context), 0d)
+        }
+    }
+
+}
@@ -0,0 +1,111 @@
+package cz.siret.prank.features
+
+import cz.siret.prank.domain.Dataset
+import cz.siret.prank.program.params.ExtractionParam
+import cz.siret.prank.program.params.Params
+import groovy.transform.CompileStatic
+import org.junit.jupiter.api.Test
+
+import java.lang.reflect.Field
+import java.lang.reflect.Modifier
+import java.util.function.Supplier
+
+import static org.junit.jupiter.api.Assertions.assertEquals
+import static org.junit.jupiter.api.Assertions.assertNotEquals
+
+@CompileStatic
+class FeatureVectorCacheTest {
+
+    /**
+     * Changing a param changes the hash iff the param is marked by @ExtractionParam.
+     */
+    @Test
+    void onlyExtractionParamsChangeHash() {
+        String hash = FeatureVectorCache.extractionParamsHash(new Params())
+
+        int checked = 0
+        for (Field f : paramFields()) {
+            Params p = new Params()
+            f.set(p, changedValue(f, f.get(p)))
+
+            if (f.isAnnotationPresent(ExtractionParam)) {
+                assertNotEquals hash, FeatureVectorCache.extractionParamsHash(p), "extraction param $f.name"
+            } else {
+                assertEquals hash, FeatureVectorCache.extractionParamsHash(p), "non-extraction param $f.name"
+            }
+            checked++
+        }
+        assert checked > 200
+    }
+
+    @Test
+    void seedChangesHashWithPairHistogramFeature() {
+        Params p = new Params()
+        p.extra_features = ['pair_hist']
+        String hash = FeatureVectorCache.extractionParamsHash(p)
+
+        p.seed = p.seed + 1
+        assertNotEquals hash, FeatureVectorCache.extractionParamsHash(p)
+    }
+
+    @Test
+    void samplingParamsChangeHashWhenSamplingBeforeExtraction() {
+        for (String name : FeatureVectorCache.SAMPLING_PARAMS) {
+            Field f = Params.class.getDeclaredField(name)
+            f.setAccessible(true)
+
+            Params p = new Params()
+            p.sample_before_extraction = true
+            String hash = FeatureVectorCache.extractionParamsHash(p)
+
+            f.set(p, changedValue(f, f.get(p)))
+            assertNotEquals hash, FeatureVectorCache.extractionParamsHash(p), "sampling param $name"
+        }
+    }
+
+    @Test
+    void cacheIsClearedWhenExtractionParamsChange() {
+        FeatureVectorCache cache = new FeatureVectorCache()
+        Dataset.Item item = Dataset.createSingleFileDataset('distro/test_data/1fbl.pdb').items[0]
+
+        Params p = new Params()
+        p.feature_vector_cache = true
+
+        int calculated = 0
+        Supplier<String> supplier = { (calculated++).toString() } as Supplier<String>
+
+        assertEquals '0', cache.get('train', item, p, supplier)
+        p.rf_trees = p.rf_trees + 10
+        assertEquals '0', cache.get('train', item, p, supplier)   // cached
+        assertEquals 1, cache.size
+
+        p.neighbourhood_radius = p.neighbourhood_radius + 1
+        assertEquals '1', cache.get('train', item, p, supplier)
+        assertEquals 1, cache.size   // entry of previous params dropped
+    }
+
+    private static List<Field> paramFields() {
+        Params.class.declaredFields.findAll { Field f ->
+            !Modifier.isStatic(f.modifiers) && !Modifier.isTransient(f.modifiers) && !f.synthetic && !f.name.startsWith('$')
+        }.each { it.setAccessible(true) }
+    }
+
+    private static Object changedValue(Field f, Object value) {
+        Class type = f.type
+        if (type == Boolean.TYPE) {
+            return !((boolean) value)
+        } else if (type == Integer.TYPE) {
+            return ((int) value) + 1
+        } else if (type == Double.TYPE) {
+            return ((double) value) + 1
+        } else if (type == String) {
+            return value + '_changed'
+        } else if (List.isAssignableFrom(type)) {
+            List res = new ArrayList((Collection) value)
+            res.add('changed')
+            return res
+        }
+        throw new AssertionError("unsupported type of param $f.name: $type")
+    }
+
+}
@@ -0,0 +1,53 @@
+package cz.siret.prank.features.implementation.conservation
+
+import cz.siret.prank.program.params.Params
+import cz.siret.prank.utils.PdbUtils
+import groovy.transform.CompileStatic
+import org.biojava.nbio.structure.Group
+import org.biojava.nbio.structure.GroupType
+import org.biojava.nbio.structure.Structure
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+
+import java.nio.file.Path
+
+import static cz.siret.prank.features.implementation.conservation.ConservationScore.ScoreFormat.JSDFormat
+import static org.junit.jupiter.api.Assertions.assertArrayEquals
+import static org.junit.jupiter.api.Assertions.assertEquals
+
+@CompileStatic
+class ConservationScoreCacheTest {
+
+    @TempDir
+    Path tmpDir
+
+    @Test
+    void cachedScoresAreIdentical() {
+        Structure structure = PdbUtils.loadFromFile('distro/test_data/1fbl.pdb')
+        List<Group> groups = structure.chains.first().getAtomGroups(GroupType.AMINOACID)
+
+        // score file with every 10th residue missing (scores are aligned)
+        File scoreFile = tmpDir.resolve('1fbl_A.hom').toFile()
+        StringBuilder sb = new StringBuilder()
+        for (int i = 0; i < groups.size(); i++) {
+            if (i % 10 != 5) {
+                sb << i << '\t' << (i % 7) / 7d << '\t' << PdbUtils.getStandardOneLetterCode(groups[i]) << '\n'
+            }
+        }
+        scoreFile.write(sb.toString())
+
+        Params params = Params.inst.snapshot()
+        params.conservation_cache = true
+        params.fail_on_conserv_seq_mismatch = false
+        params.conservation_cache_dir = tmpDir.resolve('cache').toString()
+
+        Params.withParams(params) {
+            double[] calculated = ConservationScore.loadAlignedScores('A', groups, scoreFile, JSDFormat)  // stored in cache
+            assertEquals 1, new File(params.conservation_cache_dir).list().findAll { it.endsWith('.bin') }.size()
+
+            double[] cached = ConservationScore.loadAlignedScores('A', groups, scoreFile, JSDFormat)
+            assertArrayEquals calculated, cached, 0d
+        }
+    }
+
+}
@@ -0,0 +1,44 @@
+package cz.siret.prank.features.implementation.histogram
+
+import cz.siret.prank.geom.Atoms
+import cz.siret.prank.geom.Point
+import groovy.transform.CompileStatic
+import org.biojava.nbio.structure.Atom
+import org.junit.jupiter.api.Test
+
+import static cz.siret.prank.geom.Struct.dist
+import static org.junit.jupiter.api.Assertions.assertArrayEquals
+import static org.junit.jupiter.api.Assertions.assertEquals
+
+@CompileStatic
+class IncrementalPairHistTest {
+
+    @Test
+    void sameAsAllPairs() {
+        Random rand = new Random(42)
+        List<Atom> points = (0..<800).collect { Point.of(rand.nextDouble() * 30, rand.nextDouble() * 30, rand.nextDouble() * 30) as Atom }
+        Atoms source = new Atoms(points)
+
+        IncrementalPairHist incremental = new IncrementalPairHist(source, new DistancePairHist(5, 0, 12, false))
+
+        // moving sphere (small changes) with occasional jumps (recalculation)
+        for (int step = 0; step < 60; step++) {
+            Atom center = (step % 20 == 0)
+                    ? Point.of(rand.nextDouble() * 30, rand.nextDouble() * 30, rand.nextDouble() * 30)
+                    : Point.of(10 + step * 0.3, 15, 15)
+            List<Atom> atoms = source.cutoutSphere(center, 6).list
+
+            DistancePairHist expected = new DistancePairHist(5, 0, 12, false)
+            for (int i = 0; i < atoms.size(); i++) {
+                for (int j = i; j < atoms.size(); j++) {
+                    expected.add(dist(atoms[i], atoms[j]))
+                }
+            }
+
+            DistancePairHist actual = incremental.update(atoms)
+            assertArrayEquals(expected.bins, actual.bins, 0d)
+            assertEquals(expected.count, actual.count)
+        }
+    }
+
+}
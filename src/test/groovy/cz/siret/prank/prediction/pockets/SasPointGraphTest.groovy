@@ -0,0 +1,48 @@
+package cz.siret.prank.prediction.pockets
+
+import cz.siret.prank.domain.labeling.LabeledPoint
+import cz.siret.prank.geom.Atoms
+import cz.siret.prank.geom.Struct
+import groovy.transform.CompileStatic
+import org.biojava.nbio.structure.Atom
+import org.biojava.nbio.structure.AtomImpl
+import org.junit.jupiter.api.Test
+
+import static org.junit.jupiter.api.Assertions.assertEquals
+
+@CompileStatic
+class SasPointGraphTest {
+
+    private static Atom randomAtom(Random rand, double size) {
+        Atom a = new AtomImpl()
+        a.setCoords([rand.nextDouble() * size, rand.nextDouble() * size, rand.nextDouble() * size] as double[])
+        return a
+    }
+
+    @Test
+    void queriesMatchGeometricCutouts() {
+        Random rand = new Random(42)
+        List<LabeledPoint> points = (0..<1500).collect { new LabeledPoint(randomAtom(rand, 30)) }
+        Atoms exposedAtoms = new Atoms((0..<500).collect { randomAtom(rand, 30) })
+        Atoms allPoints = new Atoms(points)
+
+        SasPointGraph graph = SasPointGraph.build(points, 5, exposedAtoms, 3.5)
+
+        for (int i = 0; i < points.size(); i += 37) {
+            assertEquals(allPoints.cutoutSphere(points[i], 2).count, graph.countWithin(i, 2))
+
+            int[] idx = [i] as int[]
+            assertEquals(new HashSet(allPoints.cutoutShell(new Atoms(points[i]), 3.5).list),
+                    new HashSet(graph.toAtoms(graph.extend(idx, 3.5)).list))
+            assertEquals(new HashSet(exposedAtoms.cutoutShell(new Atoms(points[i]), 3.5).list),
+                    new HashSet(graph.surfaceAtoms(idx).list))
+        }
+
+        boolean[] admitted = new boolean[points.size()]
+        Arrays.fill(admitted, true)
+        Set<Set<Atom>> clusters = graph.clusters(admitted, 2).collect { new HashSet<Atom>(graph.toAtoms(it).list) }.toSet()
+        Set<Set<Atom>> expected = Struct.clusterAtoms(allPoints, 2).collect { new HashSet<Atom>(it.list) }.toSet()
+        assertEquals(expected, clusters)
+    }
+
+}
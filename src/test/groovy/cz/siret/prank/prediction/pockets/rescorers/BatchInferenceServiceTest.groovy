@@ -0,0 +1,71 @@
+package cz.siret.prank.prediction.pockets.rescorers
+
+import cz.siret.prank.features.FeatureVector
+import groovy.transform.CompileStatic
+import org.junit.jupiter.api.Test
+
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals
+import static org.junit.jupiter.api.Assertions.assertTrue
+
+@CompileStatic
+class BatchInferenceServiceTest {
+
+    /** score = sum of the row, records max batch size */
+    static class SumPredictor implements InstancePredictor {
+        volatile int maxBatch = 0
+
+        @Override
+        double predictPositive(FeatureVector vect) {
+            return vect.array.sum() as double
+        }
+
+        @Override
+        synchronized double[] predictBatchArrays(double[][] arrays) {
+            maxBatch = Math.max(maxBatch, arrays.length)
+            double[] res = new double[arrays.length]
+            for (int i = 0; i < arrays.length; i++) {
+                res[i] = arrays[i].sum() as double
+            }
+            return res
+        }
+
+        @Override
+        double[] getDistributionForPoint(FeatureVector vect) {
+            double p = predictPositive(vect)
+            return [1d - p, p] as double[]
+        }
+    }
+
+    @Test
+    void scoresReturnToSubmitters() {
+        SumPredictor predictor = new SumPredictor()
+        BatchInferenceService service = new BatchInferenceService(predictor, 2, 100, 5)
+        ExecutorService workers = Executors.newFixedThreadPool(8)
+
+        List<Future<Boolean>> results = (0..<200).collect { int req ->
+            workers.submit({
+                int n = 1 + req % 37
+                double[][] rows = new double[n][]
+                double[] expected = new double[n]
+                for (int i = 0; i < n; i++) {
+                    rows[i] = [req, i] as double[]
+                    expected[i] = req + i
+                }
+                assertArrayEquals(expected, service.predict(rows), 0d)
+                return true
+            } as Callable<Boolean>)
+        }
+        results.each { it.get() }
+
+        workers.shutdown()
+        service.close()
+
+        assertTrue(predictor.maxBatch <= 100)
+    }
+
+}
@@ -0,0 +1,118 @@
+package cz.siret.prank.prediction.pockets.rescorers
+
+import cz.siret.prank.collectors.DoubleVector
+import cz.siret.prank.features.FeatureVector
+import cz.siret.prank.fforest.api.FlatBinaryForest
+import cz.siret.prank.program.ml.Model
+import cz.siret.prank.program.params.Params
+import groovy.transform.CompileStatic
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.parallel.ResourceLock
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals
+import static org.junit.jupiter.api.Assertions.assertEquals
+import static org.junit.jupiter.api.Assumptions.assumeTrue
+
+@ResourceLock("Params")
+@CompileStatic
+class BlockedForestTest {
+
+    /**
+     * Random forest of full binary trees of given depth. Roots are nodes 0..numTrees-1, leaves are negative.
+     */
+    static FlatBinaryForest randomForest(int numTrees, int depth, int numAttributes, Random rnd) {
+        int innerPerTree = (1 << depth) - 1
+        int numNodes = numTrees * innerPerTree
+        int[] childLeft = new int[numNodes]
+        int[] childRight = new int[numNodes]
+        int[] attributeIndex = new int[numNodes]
+        double[] splitPoint = new double[numNodes]
+        List<Double> scores = [0d]  // index 0 unused (-0 is not a leaf)
+
+        int next = numTrees
+        for (int t = 0; t < numTrees; t++) {
+            List<Integer> level = [t]
+            for (int d = 0; d < depth; d++) {
+                List<Integer> nextLevel = []
+                for (int node : level) {
+                    attributeIndex[node] = rnd.nextInt(numAttributes)
+                    splitPoint[node] = rnd.nextDouble()
+                    if (d == depth - 1) {
+                        childLeft[node] = -scores.size(); scores.add(rnd.nextDouble())
+                        childRight[node] = -scores.size(); scores.add(rnd.nextDouble())
+                    } else {
+                        childLeft[node] = next++
+                        childRight[node] = next++
+                        nextLevel.add(childLeft[node])
+                        nextLevel.add(childRight[node])
+                    }
+                }
+                level = nextLevel
+            }
+        }
+
+        return new FlatBinaryForest(numTrees, numAttributes, childRight, childLeft, attributeIndex, splitPoint, scores as double[])
+    }
+
+    /**
+     * Rows with some missing values, n should not be a multiple of BLOCK_SIZE.
+     */
+    static double[][] randomRows(int n, int numAttributes, Random rnd) {
+        double[][] rows = new double[n][]
+        for (int i = 0; i < rows.length; i++) {
+            rows[i] = new double[numAttributes]
+            for (int a = 0; a < numAttributes; a++) {
+                rows[i][a] = (rnd.nextInt(20) == 0) ? Double.NaN : rnd.nextDouble()
+            }
+        }
+        return rows
+    }
+
+    @Test
+    void sameResultsAsFlatBinaryForestPredict() {
+        Random rnd = new Random(42)
+        FlatBinaryForest forest = randomForest(30, 7, 20, rnd)
+        BlockedForest blocked = BlockedForest.from(forest)
+        double[][] rows = randomRows(1000, 20, rnd)
+
+        double[] expected = rows.collect { forest.predict(it) } as double[]
+        assertArrayEquals(expected, blocked.predictForBatch(rows), 0d)
+        assertArrayEquals(expected, blocked.predictForBatch(rows, false), 0d)
+        assertEquals(expected[7], blocked.predict(rows[7]), 0d)
+    }
+
+    @Test
+    void vectorKernelSameAsScalar() {
+        assumeTrue(BlockedForest.VECTOR_KERNEL_SUPPORTED, "Vector API module not available")
+
+        Random rnd = new Random(7)
+        FlatBinaryForest forest = randomForest(30, 7, 20, rnd)
+        BlockedForest blocked = BlockedForest.from(forest)
+        double[][] rows = randomRows(1000, 20, rnd)
+
+        assertArrayEquals(blocked.predictForBatch(rows, false), blocked.predictForBatch(rows, true), 0d)
+    }
+
+    @Test
+    void instancePredictorBatchesSameAsPredict() {
+        Random rnd = new Random(11)
+        FlatBinaryForest forest = randomForest(30, 7, 20, rnd)
+        double[][] rows = randomRows(1000, 20, rnd)
+        List<FeatureVector> vectors = rows.collect { new DoubleVector(it) } as List<FeatureVector>
+        double[] expected = rows.collect { forest.predict(it) } as double[]
+
+        for (boolean blockedInference : [true, false]) {
+            Params params = Params.inst.snapshot()
+            params.rf_batch_prediction = true
+            params.rf_blocked_inference = blockedInference
+
+            Params.withParams(params) {
+                InstancePredictor predictor = InstancePredictor.create(new Model('random', forest), null)
+                assertEquals(blockedInference, predictor instanceof InstancePredictor.BlockedForestPredictor)
+                assertArrayEquals(expected, predictor.predictBatch(vectors), 0d, "rf_blocked_inference=$blockedInference")
+                assertEquals(expected[7], predictor.predictPositive(vectors[7]), 0d)
+            }
+        }
+    }
+
+}
@@ -0,0 +1,110 @@
+package cz.siret.prank.prediction.pockets.rescorers
+
+import cz.siret.prank.domain.Protein
+import cz.siret.prank.domain.loaders.LoaderParams
+import cz.siret.prank.features.FeatureExtractor
+import cz.siret.prank.geom.Atoms
+import cz.siret.prank.program.Main
+import cz.siret.prank.program.api.PrankFacade
+import cz.siret.prank.program.ml.Model
+import cz.siret.prank.program.params.Params
+import cz.siret.prank.utils.PdbUtils
+import groovy.transform.CompileStatic
+import org.biojava.nbio.structure.Atom
+import org.biojava.nbio.structure.Group
+import org.biojava.nbio.structure.Structure
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.parallel.Isolated
+import org.junit.jupiter.api.parallel.ResourceLock
+
+import java.nio.file.Path
+import java.nio.file.Paths
+
+import static org.junit.jupiter.api.Assertions.assertEquals
+import static org.junit.jupiter.api.Assertions.assertFalse
+import static org.junit.jupiter.api.Assertions.assertTrue
+
+/**
+ * Compares incremental calculation of frames with full calculation of each frame.
+ */
+@Isolated
+@ResourceLock("Params")
+@CompileStatic
+class IncrementalFramesTest {
+
+    Path installDir = Paths.get("distro").toAbsolutePath()
+
+    /** NMR structure with 20 models */
+    String nmrFile = 'src/test/resources/data/2nbr.pdb.gz'
+
+    /** residues (indexes in the first chain) moved in consecutive frames */
+    List<List<Integer>> movedResidues = [[], [30, 31, 32], [30, 31, 32, 90, 91]]
+
+    @Test
+    void incrementalFramesMatchFullCalculation() {
+        Params params = PrankFacade.createPredictor(installDir).params
+
+        Params.withParams(params) {
+            Model model = Model.load(Main.findModel(installDir.toString(), params))
+            FeatureExtractor extractorFactory = FeatureExtractor.createFactory()
+            InstancePredictor predictor = InstancePredictor.create(model, extractorFactory)
+
+            IncrementalFrames incremental = new IncrementalFrames()
+            for (int i = 0; i < movedResidues.size(); i++) {
+                IncrementalFrames.FrameScores inc = incremental.calcFrameScores(loadFrame(i), null, extractorFactory, predictor)
+                if (i > 0) {
+                    assertFalse incremental.lastCalculatedFully
+                    assertTrue incremental.lastRescoredPoints < inc.points.count
+                }
+
+                IncrementalFrames.FrameScores full = new IncrementalFrames().calcFrameScores(loadFrame(i), null, extractorFactory, predictor)
+                assertSameScores(full, inc, i)
+            }
+        }
+    }
+
+    /**
+     * Frame i: model 0 with atoms of movedResidues[i] moved to their positions in model 1
+     */
+    private Protein loadFrame(int i) {
+        Structure frame = PdbUtils.reduceStructureToModel(PdbUtils.loadFromFile(nmrFile), 0)
+        Structure other = PdbUtils.reduceStructureToModel(PdbUtils.loadFromFile(nmrFile), 1)
+
+        List<Group> groups = frame.chains.first().atomGroups
+        List<Group> otherGroups = other.chains.first().atomGroups
+        for (int r : movedResidues[i]) {
+            List<Atom> atoms = groups[r].atoms
+            List<Atom> otherAtoms = otherGroups[r].atoms
+            for (int k = 0; k < atoms.size(); k++) {
+                atoms[k].coords = otherAtoms[k].coords
+            }
+        }
+
+        return Protein.fromStructure(frame, "frame$i", nmrFile, new LoaderParams())
+    }
+
+    private static void assertSameScores(IncrementalFrames.FrameScores full, IncrementalFrames.FrameScores inc, int frame) {
+        assertEquals((double) full.points.count, (double) inc.points.count, 0.01d * full.points.count, "number of SAS points in frame $frame")
+
+        Atoms fullPoints = new Atoms(full.points).buildKdTree()
+        Map<Atom, Integer> fullIndex = new IdentityHashMap<>()
+        for (int i = 0; i < full.points.count; i++) {
+            fullIndex.put(full.points.list[i], i)
+        }
+
+        int matched = 0
+        double maxDiff = 0
+        for (int i = 0; i < inc.points.count; i++) {
+            Atom p = inc.points.list[i]
+            Atom nearest = fullPoints.findNearest(p)
+            if (fullPoints.sqrDist(p) < 0.01) {
+                matched++
+                maxDiff = Math.max(maxDiff, Math.abs(full.scores[fullIndex.get(nearest)] - inc.scores[i]))
+            }
+        }
+
+        assertTrue matched >= 0.99 * inc.points.count, "matched $matched of $inc.points.count SAS points in frame $frame"
+        assertTrue maxDiff < 0.01, "max score difference $maxDiff in frame $frame"
+    }
+
+}
@@ -3,6 +3,8 @@ package cz.siret.prank.program.api.impl
 import cz.siret.prank.domain.Prediction
 import cz.siret.prank.domain.Protein
 import cz.siret.prank.domain.loaders.LoaderParams
+import cz.siret.prank.geom.Struct
+import cz.siret.prank.geom.Surface
 import cz.siret.prank.program.api.PrankFacade
 import cz.siret.prank.program.api.PrankPredictor
 import cz.siret.prank.program.params.Params
@@ -84,8 +86,8 @@ class DafaultPrankPredictorTest {
 
         assertNotNull prediction.pockets, "pockets list is null! [$fname]"
         assertTrue prediction.pockets.size() > 0, "Predicted no pockets! [$fname]"
-        assertNotNull prediction.labeledPoints, "labeledPoints list is null! [$fname]"
-        assertTrue prediction.labeledPoints.size() > 0, "SAS points empty! [$fname]"
+        assertNotNull prediction.pointResults, "pointResults is null! [$fname]"
+        assertTrue prediction.pointCount > 0, "SAS points empty! [$fname]"
 
         // Test if the first predicted pocket binds a ligand (should be true for all proteins from testFiles)
 
@@ -100,6 +102,43 @@ class DafaultPrankPredictorTest {
 
     }
 
+    @Test
+    void predictorsHaveIndependentParams() throws Exception {
+        PrankPredictor other = PrankFacade.createPredictor(installDir)
+        other.params.pred_point_threshold = 0.9d
+
+        assertTrue predictor.params.pred_point_threshold != other.params.pred_point_threshold
+        assertTrue Params.INSTANCE.pred_point_threshold != other.params.pred_point_threshold
+
+        Prediction prediction = other.predict(pdb_2W83)
+
+        assertNotNull prediction.pockets
+        assertTrue Params.INSTANCE.pred_point_threshold != 0.9d, "predictor params leaked to global params"
+    }
+
+    @Test
+    void coarseToFinePrediction() throws Exception {
+        Prediction full = predictor.predict(pdb_2W83)
+
+        PrankPredictor c2f = PrankFacade.createPredictor(installDir)
+        c2f.params.coarse_tessellation = 1
+        Prediction refined = c2f.predict(pdb_2W83)
+
+        assertTrue refined.pockets.size() > 0
+        assertTrue refined.pointCount < full.pointCount, "fine surface should be calculated only partially"
+
+        // top pocket is found at the same place
+        double dist = Struct.dist(full.pockets.head().centroid, refined.pockets.head().centroid)
+        assertTrue dist <= 4.0, "top pockets differ (centroid distance $dist)"
+
+        // partial surface is not kept in the protein
+        Params.withParams(c2f.params) {
+            Surface surface = refined.protein.accessibleSurface
+            assertTrue surface.tesselationLevel == c2f.params.tessellation
+            assertTrue surface.points.count == full.protein.accessibleSurface.points.count
+        }
+    }
+
     @Test
     void runPrediction() throws Exception {
 
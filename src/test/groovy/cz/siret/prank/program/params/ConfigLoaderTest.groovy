@@ -3,6 +3,8 @@ package cz.siret.prank.program.params
 import groovy.transform.CompileStatic
 import org.junit.jupiter.api.Test
 
+import java.nio.file.Files
+
 @CompileStatic
 class ConfigLoaderTest {
 
@@ -24,6 +26,28 @@ class ConfigLoaderTest {
         assert p.seed == 42
     }
 
+    @Test
+    void testCachedConfigGivesSameParams() throws Exception {
+        File f = new File("./distro/config/default_rescore.groovy")
+        boolean origEnabled = ConfigLoader.cacheEnabled
+        String origCacheDir = ConfigLoader.cacheDir
+        ConfigLoader.cacheEnabled = true
+        ConfigLoader.cacheDir = Files.createTempDirectory("p2rank_config_cache").toString()
+        try {
+            Params p1 = new Params()
+            ConfigLoader.overrideConfig(p1, f)  // evaluated and stored in cache
+            Params p2 = new Params()
+            ConfigLoader.overrideConfig(p2, f)  // applied from cache
+
+            assert new File(ConfigLoader.cacheDir).list().toList().every { it.endsWith('.json') }
+            assert new File(ConfigLoader.cacheDir).list().length == 1
+            assert p1.toString() == p2.toString()
+        } finally {
+            ConfigLoader.cacheEnabled = origEnabled
+            ConfigLoader.cacheDir = origCacheDir
+        }
+    }
+
     // TODO test rescore params
 
 }
\ No newline at end of file
@@ -0,0 +1,103 @@
+package cz.siret.prank.program.routines.predict
+
+import com.google.gson.Gson
+import cz.siret.prank.program.Main
+import cz.siret.prank.program.PrankException
+import cz.siret.prank.program.api.PrankFacade
+import cz.siret.prank.program.params.Params
+import groovy.transform.CompileStatic
+import org.junit.jupiter.api.Test
+import org.junit.jupiter.api.io.TempDir
+import org.junit.jupiter.api.parallel.Isolated
+import org.junit.jupiter.api.parallel.ResourceLock
+
+import java.nio.file.Path
+import java.nio.file.Paths
+
+import static org.junit.jupiter.api.Assertions.*
+
+@Isolated
+@ResourceLock("Params")
+@CompileStatic
+class ServeRoutineTest {
+
+    Path installDir = Paths.get("distro").toAbsolutePath()
+    String pdb_1fbl = installDir.resolve("test_data/1fbl.pdb").toString()
+
+    @TempDir
+    Path tmpDir
+
+    @Test
+    void parseRequest() {
+        assertEquals 'a/b.pdb', ServeRoutine.parseRequest('a/b.pdb').protein
+
+        ServeRoutine.Request req = ServeRoutine.parseRequest('{"id": "1", "protein": "a/b.pdb", "outdir": "x", "columns": {"chains": "A"}}')
+        assertEquals '1', req.id
+        assertEquals 'a/b.pdb', req.protein
+        assertEquals 'x', req.outdir
+        assertEquals 'A', req.columns['chains']
+
+        assertThrows(PrankException) { ServeRoutine.parseRequest('{"id": "1"}') }
+        assertThrows(PrankException) { ServeRoutine.parseRequest('{"id": ') }
+    }
+
+    @Test
+    void requestOutdirMustBeUnderServerOutdir() {
+        String base = tmpDir.toString()
+
+        assertEquals tmpDir.toAbsolutePath().normalize().toString(), ServeRoutine.resolveOutdir(base, null)
+        assertEquals tmpDir.resolve('a/b').toString(), ServeRoutine.resolveOutdir(base, 'a/b')
+        assertEquals tmpDir.resolve('b').toString(), ServeRoutine.resolveOutdir(base, 'a/../b')
+        assertEquals tmpDir.resolve('c').toString(), ServeRoutine.resolveOutdir(base, tmpDir.resolve('c').toString())
+
+        assertThrows(PrankException) { ServeRoutine.resolveOutdir(base, '../x') }
+        assertThrows(PrankException) { ServeRoutine.resolveOutdir(base, 'a/../../x') }
+        assertThrows(PrankException) { ServeRoutine.resolveOutdir(base, '/tmp') }
+        assertThrows(PrankException) { ServeRoutine.resolveOutdir(base, base + '_sibling') }
+    }
+
+    @Test
+    void servesRequests() {
+        Params params = PrankFacade.createPredictor(installDir).params
+        params.threads = 2
+
+        Params.withParams(params) {
+            ServeRoutine routine = new ServeRoutine(Main.findModel(installDir.toString(), params), tmpDir.toString())
+            routine.init()
+
+            String requests = [
+                    pdb_1fbl,
+                    '{"id": "sub", "protein": "' + pdb_1fbl + '", "outdir": "sub"}',
+                    '{"id": "escape", "protein": "' + pdb_1fbl + '", "outdir": "../escape"}',
+                    '{"id": "missing", "protein": "missing.pdb"}',
+                    ServeRoutine.EXIT_COMMAND,
+                    pdb_1fbl // not processed
+            ].join('\n')
+            StringWriter out = new StringWriter()
+            try {
+                routine.readRequests(new BufferedReader(new StringReader(requests)), out)
+            } finally {
+                routine.shutdown()
+            }
+
+            List<ServeRoutine.Response> responses = out.toString().readLines().collect { new Gson().fromJson(it, ServeRoutine.Response) }
+            assertEquals 4, responses.size()
+            Map<String, ServeRoutine.Response> byId = responses.collectEntries { [(it.id): it] }
+
+            ServeRoutine.Response noId = byId[null]
+            assertEquals 'ok', noId.status
+            assertEquals tmpDir.resolve('1fbl_predictions.csv').toString(), noId.predictions
+            assertTrue new File(noId.predictions).exists()
+
+            assertEquals 'ok', byId['sub'].status
+            assertEquals tmpDir.resolve('sub/1fbl_predictions.csv').toString(), byId['sub'].predictions
+            assertTrue new File(byId['sub'].predictions).exists()
+
+            assertEquals 'error', byId['escape'].status
+            assertFalse tmpDir.resolveSibling('escape').toFile().exists()
+
+            assertEquals 'error', byId['missing'].status
+        }
+    }
+
+}
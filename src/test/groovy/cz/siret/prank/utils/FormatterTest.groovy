@@ -0,0 +1,43 @@
+package cz.siret.prank.utils
+
+import groovy.transform.CompileStatic
+import org.junit.jupiter.api.Test
+
+import static org.junit.jupiter.api.Assertions.assertEquals
+
+@CompileStatic
+class FormatterTest {
+
+    private static String fixed(double x, int width, int decimals) {
+        Formatter.appendFixed(new StringBuilder(), x, width, decimals).toString()
+    }
+
+    private static String printf(double x, int width, int decimals) {
+        String.format(Locale.US, "%" + width + "." + decimals + "f", x)
+    }
+
+    @Test
+    void appendFixedMatchesPrintf() {
+        List<Double> values = [0d, -0d, 1d, -1d, 0.1d, 0.25d, -0.0001d, 12.3456789d, -12.3456789d, 123456.789d,
+                               Double.NaN, 0.999999d, 99.9996d, 1.23e-8d, -7.05d, 1000000d]
+        for (double x : values) {
+            assertEquals(printf(x, 8, 3), fixed(x, 8, 3), "x=$x")
+            assertEquals(printf(x, 8, 4), fixed(x, 8, 4), "x=$x")
+            assertEquals(printf(x, 6, 3), fixed(x, 6, 3), "x=$x")
+        }
+
+        Random rand = new Random(42)
+        for (int i = 0; i < 10000; i++) {
+            double x = (rand.nextDouble() - 0.5) * 200
+            assertEquals(printf(x, 8, 3), fixed(x, 8, 3), "x=$x")
+        }
+    }
+
+    @Test
+    void appendIntMatchesPrintf() {
+        for (long x : [0L, 1L, -1L, 42L, 99999L, 123456L, -123L]) {
+            assertEquals(String.format("%5d", x), Formatter.appendInt(new StringBuilder(), x, 5).toString())
+        }
+    }
+
+}